@@ -23,7 +23,9 @@
  */
 package com.salesforce.zsync;
 
+import com.salesforce.zsync.http.ContentRange;
 import com.salesforce.zsync.http.Credentials;
+import com.salesforce.zsync.http.RangeCostModel;
 import com.salesforce.zsync.internal.*;
 import com.salesforce.zsync.internal.util.*;
 import com.salesforce.zsync.internal.util.HttpClient.HttpError;
@@ -36,14 +38,22 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import static com.salesforce.zsync.internal.util.HttpClient.MAXIMUM_RANGES_PER_HTTP_REQUEST;
 import static com.salesforce.zsync.internal.util.HttpClient.newHttpClient;
 import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 
@@ -57,6 +67,14 @@ import static java.net.HttpURLConnection.HTTP_NOT_FOUND;
 public class Zsync {
 
     public static final String VERSION = "0.6.2";
+
+    // maximum size of the segments input files are mapped in, see Options#setMapInputFiles
+    private static final int MAPPED_SEGMENT_SIZE = 64 * 1024 * 1024;
+    // parallel scans split input files into chunks of at least this many window positions
+    private static final long MIN_CHUNK_SIZE = 1024 * 1024;
+    // number of chunks per thread, to balance load when chunks take different amounts of time to scan
+    private static final int CHUNKS_PER_THREAD = 4;
+
     private final HttpClient httpClient;
 
     /**
@@ -81,25 +99,21 @@ public class Zsync {
     }
 
     /**
-     * Pads the given channel with zeros if the length of the input file is not evenly divisible by the block size. The is
-     * necessary to match how the checksums in the zsync file are computed.
+     * Returns the number of zeros to pad the input file with if the length of the input file is not evenly divisible by
+     * the block size. The is necessary to match how the checksums in the zsync file are computed.
      *
-     * @param channel channel for input file to pad
+     * @param size size of the input file to pad
+     * @param matcherBlockSize
      * @param header  header of the zsync file being processed.
      * @return
-     * @throws IOException
      */
-    static ReadableByteChannel zeroPad(ReadableByteChannel channel, long size, int matcherBlockSize, Header header)
-            throws IOException {
-        final int numZeros;
+    static int zeroPadding(long size, int matcherBlockSize, Header header) {
         if (size < matcherBlockSize) {
-            numZeros = matcherBlockSize - (int) size;
-        } else {
-            final int blockSize = header.getBlocksize();
-            final int lastBlockSize = (int) (size % blockSize);
-            numZeros = lastBlockSize == 0 ? 0 : blockSize - lastBlockSize;
+            return matcherBlockSize - (int) size;
         }
-        return numZeros == 0 ? channel : new ZeroPaddedReadableByteChannel(channel, numZeros);
+        final int blockSize = header.getBlocksize();
+        final int lastBlockSize = (int) (size % blockSize);
+        return lastBlockSize == 0 ? 0 : blockSize - lastBlockSize;
     }
 
     // this is just a temporary hacked up CLI for testing purposes
@@ -220,8 +234,8 @@ public class Zsync {
 
     private File zsyncInternal(URI zsyncFile, Options options, EventDispatcher events) throws ZsyncException {
         final ControlFile controlFile;
-        try (InputStream in = this.openZsyncFile(zsyncFile, this.httpClient, options, events)) {
-            controlFile = ControlFile.read(in);
+        try {
+            controlFile = this.readControlFile(zsyncFile, this.httpClient, options, events);
         } catch (HttpError e) {
             if (e.getCode() == HTTP_NOT_FOUND) {
                 throw new ZsyncControlFileNotFoundException("Zsync file " + zsyncFile + " does not exist.", e);
@@ -255,11 +269,17 @@ public class Zsync {
             remoteFileUri = options.getZsyncFileSource().resolve(remoteFileUri);
         }
 
-        try (final OutputFileWriter outputFileWriter =
-                     new OutputFileWriter(outputFile, controlFile, events.getOutputFileWriteListener())) {
-            if (!this.processInputFiles(outputFileWriter, controlFile, options.getInputFiles(), events)) {
-                this.httpClient.partialGet(remoteFileUri, outputFileWriter.getMissingRanges(), options.getCredentials(),
-                        events.getRangeReceiverListener(outputFileWriter), events.getRemoteFileDownloadListener());
+        try (final OutputFileWriter outputFileWriter = new OutputFileWriter(outputFile, controlFile,
+                events.getOutputFileWriteListener(), options.isResumable() ? options.getJournalSyncIntervalMillis() : -1)) {
+            // a resumed output file may already be complete
+            if (!outputFileWriter.isComplete() && !this.processInputFiles(outputFileWriter, controlFile, options, events)) {
+                List<ContentRange> ranges = outputFileWriter.getMissingRanges();
+                if (options.getRangeCostModel() != null) {
+                    ranges = RangePlanner.plan(ranges, options.getRangeCostModel(), MAXIMUM_RANGES_PER_HTTP_REQUEST);
+                }
+                this.httpClient.partialGet(remoteFileUri, ranges, options.getCredentials(),
+                        events.getRangeReceiverListener(outputFileWriter), events.getRemoteFileDownloadListener(),
+                        options.getRangeRequestConcurrency());
             }
         } catch (ChecksumValidationIOException exception) {
             throw new ZsyncChecksumValidationFailedException("Calculated checksum does not match expected checksum");
@@ -271,10 +291,10 @@ public class Zsync {
     }
 
     /**
-     * Opens the zsync file referred to by the given URI for read. If the file refers to a local file system path, the
-     * local file is opened directly. Otherwise, if the file is remote and {@link Options#getSaveZsyncFile()} is
-     * specified, the remote file is stored locally in the given location first and then opened for read locally. If the
-     * file is remote and no save location is specified, the file is opened for read over the remote connection.
+     * Reads the zsync file referred to by the given URI. If the file refers to a local file system path, the local file
+     * is mapped directly. Otherwise, if the file is remote and {@link Options#getSaveZsyncFile()} is specified, the
+     * remote file is stored locally in the given location first and then mapped locally. If the file is remote and no
+     * save location is specified, the file is read over the remote connection.
      * <p>
      * If the file is remote, the method always calls {@link Options#setZsyncFileSource(URI)} on the passed in options
      * parameter, so that relative file URLs in the control file can later be resolved against it.
@@ -286,9 +306,9 @@ public class Zsync {
      * @throws IOException
      * @throws HttpError
      */
-    private InputStream openZsyncFile(URI zsyncFile, HttpClient httpClient, Options options, EventDispatcher events)
+    private ControlFile readControlFile(URI zsyncFile, HttpClient httpClient, Options options, EventDispatcher events)
             throws IOException, HttpError {
-        final InputStream in;
+        final File localFile;
         if (zsyncFile.isAbsolute()) {
             // check if it's a local URI
             final File path = ZsyncUtil.getFile(zsyncFile);
@@ -300,57 +320,284 @@ public class Zsync {
                 // check if we should persist the file locally
                 final File savePath = options.getSaveZsyncFile();
                 if (savePath == null) {
-                    in = httpClient.get(zsyncFile, credentials, listener);
-                } else {
-                    httpClient.get(zsyncFile, savePath, credentials, listener);
-                    in = this.openZsyncFile(savePath, events);
+                    try (InputStream in = httpClient.get(zsyncFile, credentials, listener)) {
+                        return ControlFile.read(in);
+                    }
                 }
+                httpClient.get(zsyncFile, savePath, credentials, listener);
+                localFile = savePath;
             } else {
-                in = this.openZsyncFile(path, events);
+                localFile = path;
             }
         } else {
             final String path = zsyncFile.getPath();
             if (path == null) {
                 throw new IllegalArgumentException("Invalid zsync file URI: path of relative URI missing");
             }
-            in = this.openZsyncFile(new File(path), events);
+            localFile = new File(path);
         }
-        return in;
+        return ControlFile.map(localFile, events.getControlFileReadListener());
     }
 
-    private InputStream openZsyncFile(File zsyncFile, EventDispatcher events) throws IOException {
-        return new ObservableInputStream(new FileInputStream(zsyncFile), events.getControlFileReadListener());
-    }
-
-    private boolean processInputFiles(OutputFileWriter targetFile, ControlFile controlFile,
-                                      Iterable<? extends File> inputFiles, EventDispatcher events) throws IOException {
-        for (File inputFile : inputFiles) {
-            if (this.processInputFile(targetFile, controlFile, inputFile, events.getInputFileReadListener())) {
+    private boolean processInputFiles(OutputFileWriter targetFile, ControlFile controlFile, Options options,
+                                      EventDispatcher events) throws IOException {
+        if (options.isAlignedMatching() || options.getSeedChecksumCache() != null) {
+            final BlockMatcher matcher = BlockMatcher.create(controlFile, options.getRsumFilterBits());
+            final Map<File, List<long[]>> windows =
+                    this.processInputFilesAligned(targetFile, controlFile, matcher.getMatcherBlockSize(), options);
+            return targetFile.isComplete()
+                    || this.processInputFilesConcurrently(targetFile, controlFile, matcher, windows, options, events);
+        }
+        if (options.getThreads() > 1) {
+            final BlockMatcher matcher = BlockMatcher.create(controlFile, options.getRsumFilterBits());
+            return this.processInputFilesConcurrently(targetFile, controlFile, matcher, null, options, events);
+        }
+        for (File inputFile : options.getInputFiles()) {
+            if (this.processInputFile(targetFile, controlFile, inputFile, options, events)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Matches the blocks of the input files at offsets aligned to the block size of the target file by computing their
+     * checksums on {@link Options#getThreads()} threads or looking them up in the
+     * {@link Options#setSeedChecksumCache(File) seed checksum cache}. Only the blocks that match are read again to copy
+     * them to the output file.
+     *
+     * @return ranges of window positions of each input file that still have to be scanned, see
+     * {@link SeedChecksums#getUnmatchedWindows(BitSet, long, int)}
+     */
+    private Map<File, List<long[]>> processInputFilesAligned(OutputFileWriter targetFile, ControlFile controlFile,
+                                                             int matcherBlockSize, Options options) throws IOException {
+        final SeedChecksumCache cache = options.getSeedChecksumCache() == null ? null
+                : new SeedChecksumCache(options.getSeedChecksumCache(), options.getSeedChecksumCacheSize());
+        final Header header = controlFile.getHeader();
+        final int blockSize = header.getBlocksize();
+        final String algorithm = header.getChecksumAlgorithm();
+        final Map<File, List<long[]>> windows = new HashMap<>();
+        final ForkJoinPool pool = options.getThreads() > 1 ? new ForkJoinPool(options.getThreads()) : null;
+        try {
+            for (File inputFile : options.getInputFiles()) {
+                try (final FileChannel channel = new FileInputStream(inputFile).getChannel()) {
+                    final long size = channel.size();
+                    SeedChecksums checksums = cache == null ? null : cache.get(inputFile, blockSize, algorithm);
+                    if (checksums == null || checksums.getLength() != size) {
+                        final long lastModified = inputFile.lastModified();
+                        checksums = pool == null ? SeedChecksums.compute(channel, size, blockSize, algorithm)
+                                : SeedChecksums.compute(channel, size, blockSize, algorithm, pool, options.getThreads());
+                        if (cache != null) {
+                            cache.put(inputFile, lastModified, checksums);
+                        }
+                    }
+                    final BitSet matched = checksums.match(targetFile, channel, header);
+                    final long paddedSize = size + zeroPadding(size, matcherBlockSize, header);
+                    windows.put(inputFile, checksums.getUnmatchedWindows(matched, paddedSize, matcherBlockSize));
+                }
+                if (targetFile.isComplete()) {
+                    break;
+                }
+            }
+        } finally {
+            if (pool != null) {
+                pool.shutdownNow();
+            }
+        }
+        return windows;
+    }
+
     private boolean processInputFile(OutputFileWriter targetFile, ControlFile controlFile, File inputFile,
-                                     ResourceTransferListener<File> listener) throws IOException {
+                                     Options options, EventDispatcher events) throws IOException {
+        final ResourceTransferListener<File> listener = events.getInputFileReadListener();
         final long size;
         try (final FileChannel fileChannel = new FileInputStream(inputFile).getChannel();
              //FileChannel.open(inputFile);
              final ReadableByteChannel channel =
                      new ObservableReadableResourceChannel<>(fileChannel, listener, inputFile, size = fileChannel.size())) {
-            final BlockMatcher matcher = BlockMatcher.create(controlFile);
+            final BlockMatcher matcher = BlockMatcher.create(controlFile, options.getRsumFilterBits());
             final int matcherBlockSize = matcher.getMatcherBlockSize();
-            final ReadableByteChannel c = zeroPad(channel, size, matcherBlockSize, controlFile.getHeader());
-            final RollingBuffer buffer = new RollingBuffer(c, matcherBlockSize, 16 * matcherBlockSize);
+            final int numZeros = zeroPadding(size, matcherBlockSize, controlFile.getHeader());
+            final RollingReadableByteBuffer buffer;
+            if (options.isMapInputFiles()) {
+                buffer = new MappedRollingBuffer(fileChannel, size, numZeros, matcherBlockSize,
+                        Math.max(MAPPED_SEGMENT_SIZE, 2 * matcherBlockSize), listener);
+            } else {
+                final ReadableByteChannel c = numZeros == 0 ? channel : new ZeroPaddedReadableByteChannel(channel, numZeros);
+                buffer = new RollingBuffer(c, matcherBlockSize, 16 * matcherBlockSize);
+            }
             int bytes;
             do {
                 bytes = matcher.match(targetFile, buffer);
             } while (buffer.advance(bytes));
+            events.weakChecksumLookupsCompleted(matcher);
         }
         return targetFile.isComplete();
     }
 
+    /**
+     * Scans all input files at once on a pool of {@link Options#getThreads()} threads. Each input file is split into
+     * chunks of window positions that are scanned by their own copy of a single matcher, over a buffer extending one
+     * window minus one byte past the end of the chunk, so that every window position is covered by exactly one chunk.
+     * If ranges of window positions are given for an input file, only those are scanned.
+     * Matchers restart at each chunk boundary, so blocks overlapping a boundary may be matched at different offsets than
+     * in a serial scan. Scanning stops as soon as the output file is complete.
+     * <p>
+     * Since input files are scanned concurrently, the events of reading each input file are reported once scanning of
+     * the file has finished.
+     * </p>
+     */
+    private boolean processInputFilesConcurrently(final OutputFileWriter targetFile, final ControlFile controlFile,
+                                                  final BlockMatcher matcher, Map<File, List<long[]>> windowsByFile,
+                                                  final Options options, final EventDispatcher events)
+            throws IOException {
+        final int matcherBlockSize = matcher.getMatcherBlockSize();
+        final List<FileChannel> channels = new ArrayList<>();
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        final ForkJoinPool pool = new ForkJoinPool(options.getThreads());
+        try {
+            for (File inputFile : options.getInputFiles()) {
+                final FileChannel fileChannel = new FileInputStream(inputFile).getChannel();
+                channels.add(fileChannel);
+                final InputFileScan scan = new InputFileScan(inputFile, fileChannel.size(), matcher.copy(), events);
+                final long size = scan.size;
+                final int numZeros = zeroPadding(size, matcherBlockSize, controlFile.getHeader());
+                final long paddedSize = size + numZeros;
+                List<long[]> ranges = windowsByFile == null ? null : windowsByFile.get(inputFile);
+                if (ranges == null) {
+                    ranges = Collections.singletonList(new long[]{0, paddedSize - matcherBlockSize + 1});
+                }
+                long windows = 0;
+                for (long[] range : ranges) {
+                    windows += range[1] - range[0];
+                }
+                final long chunkSize = Math.max(MIN_CHUNK_SIZE, windows / (CHUNKS_PER_THREAD * options.getThreads()) + 1);
+                for (long[] range : ranges) {
+                    for (long start = range[0]; start < range[1]; start += chunkSize) {
+                        final long chunkStart = start;
+                        final long chunkEnd = Math.min(range[1], start + chunkSize) + matcherBlockSize - 1;
+                        final BlockMatcher chunkMatcher = matcher.copy();
+                        scan.chunks.add(chunkMatcher);
+                        tasks.add(new Callable<Void>() {
+                            @Override
+                            public Void call() throws IOException {
+                                long scanned = 0;
+                                try {
+                                    // chunks still queued once the output file is complete are not read at all
+                                    if (targetFile.isComplete()) {
+                                        return null;
+                                    }
+                                    final long fileEnd = Math.min(chunkEnd, size);
+                                    final int zeros = (int) (chunkEnd - fileEnd);
+                                    final RollingReadableByteBuffer buffer;
+                                    if (options.isMapInputFiles()) {
+                                        buffer = new MappedRollingBuffer(fileChannel, chunkStart, fileEnd, zeros,
+                                                matcherBlockSize, Math.max(MAPPED_SEGMENT_SIZE, 2 * matcherBlockSize),
+                                                null);
+                                    } else {
+                                        final ReadableByteChannel c =
+                                                new FileRegionReadableByteChannel(fileChannel, chunkStart, fileEnd);
+                                        buffer = new RollingBuffer(
+                                                zeros == 0 ? c : new ZeroPaddedReadableByteChannel(c, zeros),
+                                                matcherBlockSize, 16 * matcherBlockSize);
+                                    }
+                                    scanned = match(targetFile, chunkMatcher, buffer);
+                                    if (scanned == -1) {
+                                        // count the bytes of the input file at window positions owned by this chunk
+                                        scanned = (chunkEnd == paddedSize ? size : chunkEnd - matcherBlockSize + 1)
+                                                - chunkStart;
+                                    }
+                                } finally {
+                                    scan.chunkDone(scanned);
+                                }
+                                return null;
+                            }
+                        });
+                    }
+                }
+                // input files matched entirely at aligned offsets are not scanned at all
+                if (scan.chunks.isEmpty()) {
+                    events.inputFileScanned(inputFile, size, 0, scan.matcher);
+                }
+            }
+            for (Future<Void> future : pool.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning input files");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdownNow();
+            for (FileChannel channel : channels) {
+                channel.close();
+            }
+        }
+        return targetFile.isComplete();
+    }
+
+    /**
+     * Matches the buffer until the end or until the target file is complete. The latter is checked after every match,
+     * since it is a single atomic read while a match may advance the window by up to two blocks.
+     *
+     * @return -1 if the buffer was matched to the end, otherwise the number of bytes the window was advanced by
+     */
+    private static long match(OutputFileWriter targetFile, BlockMatcher matcher, RollingReadableByteBuffer buffer)
+            throws IOException {
+        long advanced = 0;
+        int bytes;
+        while (true) {
+            bytes = matcher.match(targetFile, buffer);
+            if (!buffer.advance(bytes)) {
+                return -1;
+            }
+            advanced += bytes;
+            if (targetFile.isComplete()) {
+                return advanced;
+            }
+        }
+    }
+
+    /**
+     * Tracks the chunks of an input file being scanned concurrently and reports the events of reading the file when the
+     * last chunk is done.
+     */
+    private static final class InputFileScan {
+
+        final File file;
+        final long size;
+        final BlockMatcher matcher;
+        final EventDispatcher events;
+        final List<BlockMatcher> chunks = new ArrayList<>();
+        private long scanned;
+        private int done;
+
+        InputFileScan(File file, long size, BlockMatcher matcher, EventDispatcher events) {
+            this.file = file;
+            this.size = size;
+            this.matcher = matcher;
+            this.events = events;
+        }
+
+        synchronized void chunkDone(long scanned) {
+            this.scanned += scanned;
+            if (++this.done == this.chunks.size()) {
+                for (BlockMatcher chunk : this.chunks) {
+                    this.matcher.addRsumLookupStatistics(chunk);
+                }
+                this.events.inputFileScanned(this.file, this.size, this.scanned, this.matcher);
+            }
+        }
+    }
+
     /**
      * Optional arguments to the zsync client.
      *
@@ -364,6 +611,16 @@ public class Zsync {
         private File saveZsyncFile;
         private URI zsyncUri;
         private Map<String, Credentials> credentials = new HashMap<>(2);
+        private Integer rsumFilterBits;
+        private boolean mapInputFiles;
+        private int threads = 1;
+        private int rangeRequestConcurrency = 1;
+        private RangeCostModel rangeCostModel = RangeCostModel.DEFAULT;
+        private boolean resumable;
+        private long journalSyncIntervalMillis = 1000;
+        private File seedChecksumCache;
+        private long seedChecksumCacheSize = 256 * 1024 * 1024;
+        private boolean alignedMatching;
 
         public Options() {
             super();
@@ -376,6 +633,16 @@ public class Zsync {
                 this.saveZsyncFile = other.saveZsyncFile;
                 this.zsyncUri = other.zsyncUri;
                 this.credentials.putAll(other.credentials);
+                this.rsumFilterBits = other.rsumFilterBits;
+                this.mapInputFiles = other.mapInputFiles;
+                this.threads = other.threads;
+                this.rangeRequestConcurrency = other.rangeRequestConcurrency;
+                this.rangeCostModel = other.rangeCostModel;
+                this.resumable = other.resumable;
+                this.journalSyncIntervalMillis = other.journalSyncIntervalMillis;
+                this.seedChecksumCache = other.seedChecksumCache;
+                this.seedChecksumCacheSize = other.seedChecksumCacheSize;
+                this.alignedMatching = other.alignedMatching;
             }
         }
 
@@ -499,5 +766,251 @@ public class Zsync {
             return this.credentials;
         }
 
+        /**
+         * Log2 of the size in bits of the prefilter consulted before looking up weak checksums, may be null
+         *
+         * @return
+         */
+        public Integer getRsumFilterBits() {
+            return this.rsumFilterBits;
+        }
+
+        /**
+         * Sets the size of the bit table used to reject rolling checksums of input file data that cannot match any block
+         * of the target file before probing the full weak checksum table. The size is given as log2 of the number of bits
+         * in [6, 30]. Larger filters have lower false positive rates, but take up more cache. If not set, the filter is
+         * sized to 8 to 16 bits per block. A value of 0 disables the filter.
+         *
+         * @param rsumFilterBits
+         * @return
+         */
+        public Options setRsumFilterBits(Integer rsumFilterBits) {
+            if (rsumFilterBits != null && rsumFilterBits != 0
+                    && (rsumFilterBits < BitHashFilter.MIN_BITS || rsumFilterBits > BitHashFilter.MAX_BITS)) {
+                throw new IllegalArgumentException("Filter bits must be 0 or in interval [" + BitHashFilter.MIN_BITS + ", "
+                        + BitHashFilter.MAX_BITS + "]");
+            }
+            this.rsumFilterBits = rsumFilterBits;
+            return this;
+        }
+
+        /**
+         * Whether input files are memory mapped
+         *
+         * @return
+         */
+        public boolean isMapInputFiles() {
+            return this.mapInputFiles;
+        }
+
+        /**
+         * If set, input files are scanned through memory mapped segments rather than read into a heap buffer, which
+         * avoids copying input file data. Disabled by default: on some platforms, notably Windows, a mapped input file
+         * cannot be replaced until the mapping is garbage collected, which affects the output file when it is also used as
+         * an input file.
+         *
+         * @param mapInputFiles
+         * @return
+         */
+        public Options setMapInputFiles(boolean mapInputFiles) {
+            this.mapInputFiles = mapInputFiles;
+            return this;
+        }
+
+        /**
+         * Number of threads used to scan input files
+         *
+         * @return
+         */
+        public int getThreads() {
+            return this.threads;
+        }
+
+        /**
+         * Sets the number of threads used to scan input files for blocks of the target file. If greater than one, all
+         * input files are scanned concurrently, input files of sufficient size are split into chunks that are scanned in
+         * parallel, and scanning stops as soon as the output file is complete. Defaults to 1, i.e. input files are scanned
+         * serially one after another.
+         *
+         * @param threads
+         * @return
+         */
+        public Options setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Number of threads must be positive");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Maximum number of concurrent range requests to the remote file
+         *
+         * @return
+         */
+        public int getRangeRequestConcurrency() {
+            return this.rangeRequestConcurrency;
+        }
+
+        /**
+         * Sets the maximum number of range requests sent to the remote server concurrently. Missing ranges are requested
+         * in batches of up to 100 ranges per request; with a concurrency greater than one, batches are requested in
+         * parallel over multiple connections, which avoids paying the round-trip latency once per batch when many ranges
+         * are missing. Defaults to 1, i.e. one request after another.
+         *
+         * @param rangeRequestConcurrency
+         * @return
+         */
+        public Options setRangeRequestConcurrency(int rangeRequestConcurrency) {
+            if (rangeRequestConcurrency < 1) {
+                throw new IllegalArgumentException("Range request concurrency must be positive");
+            }
+            this.rangeRequestConcurrency = rangeRequestConcurrency;
+            return this;
+        }
+
+        /**
+         * Cost model used to coalesce missing ranges of the remote file, or null if ranges are not coalesced
+         *
+         * @return
+         */
+        public RangeCostModel getRangeCostModel() {
+            return this.rangeCostModel;
+        }
+
+        /**
+         * Sets the cost model used to coalesce missing ranges before requesting them from the remote server. Ranges
+         * separated by a gap of already available blocks are merged if downloading the gap is estimated to be cheaper
+         * than the overhead of requesting the ranges separately. Defaults to {@link RangeCostModel#DEFAULT}; set to null
+         * to request exactly the missing ranges.
+         *
+         * @param rangeCostModel
+         * @return
+         */
+        public Options setRangeCostModel(RangeCostModel rangeCostModel) {
+            this.rangeCostModel = rangeCostModel;
+            return this;
+        }
+
+        /**
+         * Whether an interrupted zsync can be resumed
+         *
+         * @return
+         */
+        public boolean isResumable() {
+            return this.resumable;
+        }
+
+        /**
+         * If set, the blocks written to the partial output file are recorded in a journal next to it. If the zsync is
+         * interrupted, a later zsync of the same target file to the same output file resumes from the blocks recorded in
+         * the journal instead of matching or fetching them again. Disabled by default.
+         *
+         * @param resumable
+         * @return
+         */
+        public Options setResumable(boolean resumable) {
+            this.resumable = resumable;
+            return this;
+        }
+
+        /**
+         * Minimum interval between syncs of the journal of a resumable zsync
+         *
+         * @return
+         */
+        public long getJournalSyncIntervalMillis() {
+            return this.journalSyncIntervalMillis;
+        }
+
+        /**
+         * Sets the minimum interval between syncs of the journal of a resumable zsync. Each sync forces the partial output
+         * file and the journal to disk, so shorter intervals lose less progress if the process dies, but slow down the
+         * zsync. Defaults to one second.
+         *
+         * @param journalSyncIntervalMillis
+         * @return
+         */
+        public Options setJournalSyncIntervalMillis(long journalSyncIntervalMillis) {
+            if (journalSyncIntervalMillis < 0) {
+                throw new IllegalArgumentException("Journal sync interval must not be negative");
+            }
+            this.journalSyncIntervalMillis = journalSyncIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Whether input files are matched at aligned offsets before they are scanned
+         *
+         * @return
+         */
+        public boolean isAlignedMatching() {
+            return this.alignedMatching;
+        }
+
+        /**
+         * If set, the blocks of the input files at offsets aligned to the block size of the target file are hashed in
+         * parallel on {@link #getThreads()} threads and with sequential reads, and looked up in the control file before
+         * any input file is scanned. The rolling scan then covers only the parts of the input files around blocks that
+         * did not match, and is skipped if the output file is complete. This greatly reduces the work for input files
+         * that are previous versions of the target file with data modified in place or appended, but may miss blocks
+         * that moved to unaligned offsets within otherwise matching parts of an input file. Disabled by default.
+         *
+         * @param alignedMatching
+         * @return
+         */
+        public Options setAlignedMatching(boolean alignedMatching) {
+            this.alignedMatching = alignedMatching;
+            return this;
+        }
+
+        /**
+         * Directory of the seed checksum cache or null if disabled
+         *
+         * @return
+         */
+        public File getSeedChecksumCache() {
+            return this.seedChecksumCache;
+        }
+
+        /**
+         * If set, the rolling and strong checksums of the input file blocks at offsets aligned to the block size of the
+         * target file are cached in the given directory, keyed by path, size, last modified time, block size and checksum
+         * algorithm. Implies
+         * {@link #setAlignedMatching(boolean)}, which then reads only the matching blocks of input files whose checksums
+         * are cached. Disabled by default.
+         *
+         * @param seedChecksumCache
+         * @return
+         */
+        public Options setSeedChecksumCache(File seedChecksumCache) {
+            this.seedChecksumCache = seedChecksumCache;
+            return this;
+        }
+
+        /**
+         * Maximum size of the seed checksum cache in bytes
+         *
+         * @return
+         */
+        public long getSeedChecksumCacheSize() {
+            return this.seedChecksumCacheSize;
+        }
+
+        /**
+         * Sets the maximum size of the seed checksum cache in bytes. The least recently used entries are deleted when the
+         * cache grows beyond this size. An entry takes 20 bytes per block of the input file. Defaults to 256 MB.
+         *
+         * @param seedChecksumCacheSize
+         * @return
+         */
+        public Options setSeedChecksumCacheSize(long seedChecksumCacheSize) {
+            if (seedChecksumCacheSize < 0) {
+                throw new IllegalArgumentException("Seed checksum cache size must not be negative");
+            }
+            this.seedChecksumCacheSize = seedChecksumCacheSize;
+            return this;
+        }
+
     }
 }
@@ -112,6 +112,13 @@ public class ZsyncForwardingObserver extends ZsyncObserver {
         }
     }
 
+    @Override
+    public void weakChecksumLookupsCompleted(int filterBits, long lookups, long filterHits, long hits) {
+        for (ZsyncObserver observer : this.observers) {
+            observer.weakChecksumLookupsCompleted(filterBits, lookups, filterHits, hits);
+        }
+    }
+
     @Override
     public void remoteFileDownloadingInitiated(URI uri, List<ContentRange> ranges) {
         for (ZsyncObserver observer : this.observers) {
@@ -140,6 +147,13 @@ public class ZsyncForwardingObserver extends ZsyncObserver {
         }
     }
 
+    @Override
+    public void remoteFileDownloadingComplete(List<ContentRange> ranges) {
+        for (ZsyncObserver observer : this.observers) {
+            observer.remoteFileDownloadingComplete(ranges);
+        }
+    }
+
     @Override
     public void outputFileWritingStarted(File outputFile, long length) {
         for (ZsyncObserver observer : this.observers) {
@@ -23,9 +23,13 @@
  */
 package com.salesforce.zsync;
 
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.ChecksumGenerator;
+import com.salesforce.zsync.internal.ControlFile;
+import com.salesforce.zsync.internal.Header;
+import com.salesforce.zsync.internal.PreviousChecksums;
 import com.salesforce.zsync.internal.util.ZsyncUtil;
 
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -33,17 +37,34 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.channels.WritableByteChannel;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
-import java.util.Arrays;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
  * Constructs a zsync file for a given input file.
@@ -65,21 +86,59 @@ public class ZsyncMake {
 //            };
     public static String ZSYNC_VERSION = "0.6.2";
 
+    private static final String SHA1_HEADER_PREFIX = "SHA-1: ";
+    // written in place of the SHA-1 until it is known, a SHA-1 always has 40 hex digits
+    private static final String SHA1_PLACEHOLDER = "0000000000000000000000000000000000000000";
+    // headers of existing control files are read in pieces of this size, and considered corrupt beyond the maximum size
+    private static final int HEADER_READ_SIZE = 4096;
+    private static final int MAX_HEADER_SIZE = 1024 * 1024;
+
     public ZsyncMake() {
     }
 
     /**
-     * Creates a zsync control file for the specified input file in the same directory as the input file.
+     * Creates a zsync control file for the specified input file in the same directory as the input file. If a directory
+     * is given instead, creates control files for all files in its tree that lack an up to date one, see
+     * {@link #writeToFiles(Path, Options, BatchOptions)}, optionally with the given number of files made in parallel
+     * and of concurrent reads, and prints the time taken per file and the overall throughput.
      * <p>
      * Usage:
      * <p>
      * <pre>
      * java -classpath &lt;path-to-zsync4j-jar&gt; com.salesforce.zsync4j.ZsyncMake &lt;path-to-input-file&gt;
+     * java -classpath &lt;path-to-zsync4j-jar&gt; com.salesforce.zsync4j.ZsyncMake &lt;path-to-directory&gt;
+     *     [parallelism [read-concurrency]]
      * </pre>
      */
     public static void main(String[] args) {
         final Path inputFile = FileSystems.getDefault().getPath(args[0]);
-        new ZsyncMake().writeToFile(inputFile);
+        if (!Files.isDirectory(inputFile)) {
+            new ZsyncMake().writeToFile(inputFile);
+            return;
+        }
+        final BatchOptions batchOptions = new BatchOptions();
+        if (args.length > 1) {
+            batchOptions.setParallelism(Integer.parseInt(args[1]));
+        }
+        if (args.length > 2) {
+            batchOptions.setReadConcurrency(Integer.parseInt(args[2]));
+        }
+        final BatchResult result = new ZsyncMake().writeToFiles(inputFile, new Options(), batchOptions);
+        for (BatchFileResult fileResult : result.getFileResults()) {
+            System.out.println(String.format("%s: %d bytes in %.1f ms", fileResult.getInputFile(),
+                    fileResult.getLength(), fileResult.getElapsedNanoseconds() / 1e6));
+        }
+        for (Map.Entry<Path, RuntimeException> failure : result.getFailures().entrySet()) {
+            System.err.println(failure.getKey() + ": " + failure.getValue().getMessage());
+        }
+        System.out.println(String.format(
+                "%d files made, %d up to date, %d failed: %d bytes in %d ms, %.1f MB/s, %.1f files/s",
+                result.getFileResults().size(), result.getSkippedFiles().size(), result.getFailures().size(),
+                result.getTotalBytes(), result.getElapsedMilliseconds(), result.getMegabytesPerSecond(),
+                result.getFilesPerSecond()));
+        if (!result.getFailures().isEmpty()) {
+            System.exit(1);
+        }
     }
 
     /**
@@ -140,12 +199,19 @@ public class ZsyncMake {
     private static String getFormattedLastModifiedTime(Path file) {
         try {
             long lastModifiedTime = Files.readAttributes(file, BasicFileAttributes.class).lastModifiedTime().toMillis();
-            return ZsyncUtil.LAST_MODIFIED_TIME_FORMAT.format(new Date(lastModifiedTime));
+            return formatTime(new Date(lastModifiedTime));
         } catch (IOException exception) {
             throw new RuntimeException("Could not read last modified time from file: " + file.getFileName(), exception);
         }
     }
 
+    // the format is shared and not thread safe, control files may be made concurrently
+    private static String formatTime(Date date) {
+        synchronized (ZsyncUtil.LAST_MODIFIED_TIME_FORMAT) {
+            return ZsyncUtil.LAST_MODIFIED_TIME_FORMAT.format(date);
+        }
+    }
+
     /**
      * Creates a zsync file next to the given input file. The filename and URL headers will be set to the file name of the
      * input file and the block size will be automaticallydetermined based on the input file size.
@@ -233,7 +299,7 @@ public class ZsyncMake {
      * {@link Options}. The filename of the output file must end with .zsync.
      *
      * @param outputFile Specifies the file where the zsync control data will be written. If the file already exists it
-     *                   will be overwritten.
+     *                   will be replaced once the control data has been written completely.
      * @param inputFile  Specifies the file for which the corresponding .zsync file will be written.
      * @param options    Advanced options for the zsyncmake operation.
      * @return The {@link FileResult results} of the zsyncmake operation. The resulting .zsync file can be accessed via
@@ -247,16 +313,181 @@ public class ZsyncMake {
             throw new IllegalArgumentException(
                     "outputFile's filename must end with .zsync: " + outputFile.getFileName().toString());
         }
-        try (FileOutputStream outputStream = new FileOutputStream(outputFile.toFile())) {
-            Result result = this.writeToStream(inputFile, outputStream, options);
-            return new FileResult(result.getSha1(), outputFile);
+        try {
+            // written next to the output file first and moved into place once complete, so that a failed run does not
+            // replace the output file, which may also be the previous control file being read
+            final Path tempFile = createSiblingFile(outputFile);
+            try {
+                final FileResult result = this.writeToFile(inputFile, tempFile, outputFile, options);
+                // keep the permissions of a control file being replaced
+                if (Files.exists(outputFile)
+                        && Files.getFileAttributeView(outputFile, PosixFileAttributeView.class) != null) {
+                    Files.setPosixFilePermissions(tempFile, Files.getPosixFilePermissions(outputFile));
+                }
+                Files.move(tempFile, outputFile, REPLACE_EXISTING);
+                return result;
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
         } catch (IOException exception) {
             throw new RuntimeException("zsyncmake operation failed", exception);
         }
     }
 
+    // created with default permissions, unlike Files.createTempFile, which makes files only the owner can read
+    private static Path createSiblingFile(Path file) throws IOException {
+        final Path directory = file.toAbsolutePath().getParent();
+        while (true) {
+            final String prefix = "." + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".";
+            final Path siblingFile = directory.resolve(prefix + file.getFileName());
+            try {
+                return Files.createFile(siblingFile);
+            } catch (FileAlreadyExistsException e) {
+                // try another name
+            }
+        }
+    }
+
+    private FileResult writeToFile(Path inputFile, Path file, Path outputFile, Options options) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, WRITE, TRUNCATE_EXISTING)) {
+            Result result = this.writeToChannel(inputFile, channel, options);
+            return new FileResult(result.getSha1(), outputFile);
+        }
+    }
+
+    /**
+     * Writes zsync control data for every file in the given directory tree to a file next to it named the same but with
+     * ".zsync" on the end, see {@link #writeToFile(Path, Options)}, using default {@link Options} and
+     * {@link BatchOptions}.
+     *
+     * @param directory Specifies the root of the directory tree.
+     * @return The {@link BatchResult results} of the zsyncmake operations.
+     */
+    public BatchResult writeToFiles(Path directory) {
+        return this.writeToFiles(directory, new Options(), new BatchOptions());
+    }
+
+    /**
+     * Writes zsync control data for every file in the given directory tree to a file next to it named the same but with
+     * ".zsync" on the end, see {@link #writeToFile(Path, Options)}. Control files themselves are not processed, and
+     * files whose control file was modified after them are skipped. The filename and URL headers are derived from each
+     * file, and previous control files are not supported. Files are made in parallel on a work-stealing pool as
+     * configured by the supplied {@link BatchOptions}. The failure of a file does not stop the others from being made,
+     * but is reported in the result.
+     *
+     * @param directory    Specifies the root of the directory tree.
+     * @param options      Advanced options for the zsyncmake operation of each file.
+     * @param batchOptions Options for processing the files of the directory tree.
+     * @return The {@link BatchResult results} of the zsyncmake operations.
+     */
+    public BatchResult writeToFiles(Path directory, Options options, BatchOptions batchOptions) {
+        if (directory == null || !Files.isDirectory(directory)) {
+            throw new IllegalArgumentException("directory " + directory + " is not a directory");
+        }
+        if (options == null) {
+            options = new Options();
+        }
+        if (options.getPreviousControlFile() != null) {
+            throw new IllegalArgumentException("previous control file is not supported for directory trees");
+        }
+        if (batchOptions == null) {
+            batchOptions = new BatchOptions();
+        }
+        final long start = System.nanoTime();
+        final List<Path> inputFiles = new ArrayList<>();
+        final List<Path> skippedFiles = new ArrayList<>();
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    if (attrs.isRegularFile() && !file.getFileName().toString().endsWith(".zsync")) {
+                        if (isUpToDate(attrs, file.resolveSibling(file.getFileName() + ".zsync"))) {
+                            skippedFiles.add(file);
+                        } else {
+                            inputFiles.add(file);
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException exception) {
+            throw new RuntimeException("Failed to list files of " + directory, exception);
+        }
+
+        final Options fileOptions = new Options(options).setFilename(null).setUrl(null)
+                .setReadPermits(new Semaphore(batchOptions.getReadConcurrency()));
+        final BatchFileResult[] results = new BatchFileResult[inputFiles.size()];
+        final RuntimeException[] failures = new RuntimeException[inputFiles.size()];
+        final ForkJoinPool pool = new ForkJoinPool(batchOptions.getParallelism());
+        try {
+            pool.invoke(new WriteToFiles(inputFiles, 0, inputFiles.size(), fileOptions, results, failures));
+        } finally {
+            pool.shutdown();
+        }
+
+        final List<BatchFileResult> fileResults = new ArrayList<>(results.length);
+        final Map<Path, RuntimeException> failed = new LinkedHashMap<>();
+        for (int i = 0; i < results.length; i++) {
+            if (results[i] != null) {
+                fileResults.add(results[i]);
+            } else {
+                failed.put(inputFiles.get(i), failures[i]);
+            }
+        }
+        return new BatchResult(fileResults, skippedFiles, failed, System.nanoTime() - start);
+    }
+
+    /**
+     * Makes the control files of a range of input files, splitting the range in halves for idle workers to steal.
+     */
+    @SuppressWarnings("serial")
+    private final class WriteToFiles extends RecursiveAction {
+
+        private final List<Path> inputFiles;
+        private final int from;
+        private final int to;
+        private final Options options;
+        private final BatchFileResult[] results;
+        private final RuntimeException[] failures;
+
+        WriteToFiles(List<Path> inputFiles, int from, int to, Options options, BatchFileResult[] results,
+                RuntimeException[] failures) {
+            this.inputFiles = inputFiles;
+            this.from = from;
+            this.to = to;
+            this.options = options;
+            this.results = results;
+            this.failures = failures;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > 1) {
+                final int mid = (this.from + this.to) >>> 1;
+                invokeAll(new WriteToFiles(this.inputFiles, this.from, mid, this.options, this.results, this.failures),
+                        new WriteToFiles(this.inputFiles, mid, this.to, this.options, this.results, this.failures));
+            } else if (this.to > this.from) {
+                final Path inputFile = this.inputFiles.get(this.from);
+                final long start = System.nanoTime();
+                try {
+                    final long length = Files.size(inputFile);
+                    final FileResult result = ZsyncMake.this.writeToFile(inputFile, this.options);
+                    this.results[this.from] = new BatchFileResult(result.getSha1(), result.getOutputFile(), inputFile,
+                            length, System.nanoTime() - start);
+                } catch (IOException exception) {
+                    this.failures[this.from] =
+                            new RuntimeException("Unable to determine size of input file " + inputFile, exception);
+                } catch (RuntimeException exception) {
+                    this.failures[this.from] = exception;
+                }
+            }
+        }
+    }
+
     /*
-     * Everything funnels into here.
+     * Everything funnels into here. Checksums are written to seekable channels as they are computed, the SHA-1 header
+     * being filled in at the end, and spilled to a temporary file first for other channels, so memory use does not
+     * depend on the size of the input file.
      */
     public Result writeToChannel(Path inputFile, WritableByteChannel out, Options options) {
 
@@ -272,9 +503,10 @@ public class ZsyncMake {
         if (options == null) {
             options = new Options();
         }
-
-        final MessageDigest fileDigest = ZsyncUtil.newSHA1();
-        final MessageDigest blockDigest = ZsyncUtil.newMD4();
+        if (options.getPreviousControlFile() != null && options.getPreviousFile() == null
+                && options.getChangedRanges() == null) {
+            throw new IllegalArgumentException("previous control file requires a previous file or changed ranges");
+        }
 
         // We don't want to modify the Options object that was passed in, so we create a copy. We then
         // populate any missing
@@ -292,37 +524,144 @@ public class ZsyncMake {
         final int weakChecksumLength = weakChecksumLength(fileLength, blockSize, sequenceMatches);
         final int strongChecksumLength = strongChecksumLength(fileLength, blockSize, sequenceMatches);
 
-        final ByteBuffer checksums = this.computeChecksums(inputFile, blockSize, fileLength, weakChecksumLength,
-                strongChecksumLength, fileDigest, blockDigest);
+        final ChecksumGenerator generator = new ChecksumGenerator(blockSize, weakChecksumLength, strongChecksumLength,
+                options.getChecksumAlgorithm(), options.getThreads(), options.isMapInputFile(),
+                options.getReadPermits());
+        final String sha1;
+        try (FileChannel channel = FileChannel.open(inputFile, READ);
+                FileChannel previousFile = options.getPreviousFile() == null ? null
+                        : FileChannel.open(options.getPreviousFile(), READ)) {
+            final PreviousChecksums previous = previousChecksums(options, previousFile);
+            if (out instanceof SeekableByteChannel) {
+                // stream the checksums after the headers and fill in the SHA-1 once known, it has a fixed length
+                final SeekableByteChannel seekable = (SeekableByteChannel) out;
+                this.writeHeaders(out, inputFile, options, fileLength, sequenceMatches, weakChecksumLength,
+                        strongChecksumLength);
+                final long sha1Position = seekable.position() + SHA1_HEADER_PREFIX.length();
+                this.writeHeader(out, "SHA-1", SHA1_PLACEHOLDER);
+                this.writeHeader(out, "\n");
+                sha1 = ZsyncUtil
+                        .toHexString(ByteBuffer.wrap(generator.generate(channel, fileLength, out, previous)));
+                final long end = seekable.position();
+                seekable.position(sha1Position);
+                write(out, ByteBuffer.wrap(sha1.getBytes(US_ASCII)));
+                seekable.position(end);
+            } else {
+                // the SHA-1 header precedes the checksums, so they are spilled to a temporary file until it is known
+                try (FileChannel spill = FileChannel.open(Files.createTempFile("zsyncmake", ".checksums"), READ, WRITE,
+                        DELETE_ON_CLOSE)) {
+                    sha1 = ZsyncUtil
+                            .toHexString(ByteBuffer.wrap(generator.generate(channel, fileLength, spill, previous)));
+                    this.writeHeaders(out, inputFile, options, fileLength, sequenceMatches, weakChecksumLength,
+                            strongChecksumLength);
+                    this.writeHeader(out, "SHA-1", sha1);
+                    this.writeHeader(out, "\n");
+                    for (long position = 0, size = spill.size(); position < size; ) {
+                        position += spill.transferTo(position, size - position, out);
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            throw new RuntimeException("Failed to write zsync control file", exception);
+        }
+
+        return new Result(sha1);
+    }
+
+    // a control file is only up to date if it is newer than its file and was made in full for the current version of
+    // it, so that empty or truncated control files are made again. Only the header is read, the size of the block sums
+    // follows from it.
+    private static boolean isUpToDate(BasicFileAttributes attrs, Path outputFile) {
+        try {
+            if (!Files.exists(outputFile)
+                    || Files.getLastModifiedTime(outputFile).compareTo(attrs.lastModifiedTime()) <= 0) {
+                return false;
+            }
+            try (FileChannel channel = FileChannel.open(outputFile, READ)) {
+                final ByteBuffer buffer = readHeader(channel);
+                if (buffer == null) {
+                    return false;
+                }
+                final Header header = Header.read(buffer);
+                final long blockSumsSize =
+                        (long) header.getNumBlocks() * (header.getRsumBytes() + header.getChecksumBytes());
+                final Date mtime = header.getMtime();
+                return header.getLength() == attrs.size() && mtime != null
+                        && formatTime(mtime).equals(formatTime(new Date(attrs.lastModifiedTime().toMillis())))
+                        && channel.size() == buffer.position() + blockSumsSize;
+            }
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
 
-        // first read sha1 from end of buffer
-        final int pos = checksums.capacity() - fileDigest.getDigestLength();
-        checksums.position(pos);
-        final String sha1 = ZsyncUtil.toHexString(checksums);
+    /**
+     * Reads the header of the given control file up to and including the empty line terminating it.
+     *
+     * @param channel
+     * @return the header or null if it is not terminated within the file or {@link #MAX_HEADER_SIZE} bytes
+     * @throws IOException
+     */
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_READ_SIZE);
+        int scanned = 0;
+        while (true) {
+            if (!buffer.hasRemaining()) {
+                if (buffer.capacity() >= MAX_HEADER_SIZE) {
+                    return null;
+                }
+                final ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+                buffer.flip();
+                larger.put(buffer);
+                buffer = larger;
+            }
+            if (channel.read(buffer) < 0) {
+                return null;
+            }
+            for (; scanned < buffer.position(); scanned++) {
+                if (buffer.get(scanned) == '\n' && (scanned == 0 || buffer.get(scanned - 1) == '\n')) {
+                    buffer.limit(scanned + 1);
+                    buffer.position(0);
+                    return buffer;
+                }
+            }
+        }
+    }
 
-        // set buffer to read from beginning to start of fileDigest
-        checksums.clear().limit(pos);
+    // reads the previous control file, if any, checking that the previous file is the one it was made for
+    private static PreviousChecksums previousChecksums(Options options, FileChannel previousFile) throws IOException {
+        if (options.getPreviousControlFile() == null) {
+            return null;
+        }
+        final ControlFile controlFile;
+        try (InputStream in = Files.newInputStream(options.getPreviousControlFile())) {
+            controlFile = ControlFile.read(in);
+        }
+        if (previousFile == null) {
+            return PreviousChecksums.ofChangedRanges(controlFile, options.getChangedRanges());
+        }
+        final Date mtime = controlFile.getHeader().getMtime();
+        if (mtime != null && !formatTime(mtime).equals(getFormattedLastModifiedTime(options.getPreviousFile()))) {
+            throw new IllegalArgumentException(
+                    "Previous file " + options.getPreviousFile() + " does not match previous control file");
+        }
+        return PreviousChecksums.ofPreviousFile(controlFile, previousFile);
+    }
 
-        // first write headers
+    // writes the headers preceding the SHA-1 header
+    private void writeHeaders(WritableByteChannel out, Path inputFile, Options options, long fileLength,
+            int sequenceMatches, int weakChecksumLength, int strongChecksumLength) {
         this.writeHeader(out, "zsync", ZSYNC_VERSION);
         this.writeHeader(out, "Filename", options.getFilename());
         this.writeHeader(out, "MTime", getFormattedLastModifiedTime(inputFile));
-        this.writeHeader(out, "Blocksize", String.valueOf(blockSize));
+        this.writeHeader(out, "Blocksize", String.valueOf(options.getBlockSize()));
         this.writeHeader(out, "Length", String.valueOf(fileLength));
         this.writeHeader(out, "Hash-Lengths", sequenceMatches + "," + weakChecksumLength + "," + strongChecksumLength);
-        this.writeHeader(out, "URL", options.getUrl());
-        this.writeHeader(out, "SHA-1", sha1);
-        this.writeHeader(out, "\n");
-
-        try {
-            do {
-                out.write(checksums);
-            } while (checksums.hasRemaining());
-        } catch (IOException exception) {
-            throw new RuntimeException("Failed to write checksums", exception);
+        if (!ZsyncUtil.MD4.equals(options.getChecksumAlgorithm())) {
+            // only written if not the default, so that stock zsync can read the control file otherwise
+            this.writeHeader(out, "Hash-Algorithm", options.getChecksumAlgorithm());
         }
-
-        return new Result(sha1);
+        this.writeHeader(out, "URL", options.getUrl());
     }
 
     private void writeHeader(WritableByteChannel out, String name, String value) {
@@ -333,80 +672,16 @@ public class ZsyncMake {
 
     private void writeHeader(WritableByteChannel out, String header) {
         try {
-            out.write(ByteBuffer.wrap(header.getBytes(US_ASCII)));
+            write(out, ByteBuffer.wrap(header.getBytes(US_ASCII)));
         } catch (IOException exception) {
             throw new RuntimeException("Unable to write header to zsync control file: " + header, exception);
         }
     }
 
-    /**
-     * Computes block- and file-level checksums for the inputFile according to the given weak and strong checksum lengths.
-     * The returned buffer contains block-level checksum, each (weakLen + strongLen) bytes in size, followed by the
-     * file-level checksum, which for SHA-1 is 20 bytes.
-     *
-     * @param fileLength Length of the inputFile in bytes
-     * @param weakLen    Number of bytes to store for weak checksum in bytes
-     * @param strongLen  Number of bytes to store for strong checksum in bytes
-     * @return byte buffer containing both block and file checksums. The block is returned ready for reading: position at
-     * 0 and limit at capacity.
-     * @throws IOException
-     */
-    private ByteBuffer computeChecksums(final Path inputFile, final int blockSize, final long fileLength,
-                                        final int weakLen, final int strongLen, MessageDigest fileDigest, MessageDigest blockDigest) {
-        if (weakLen < 1 || weakLen > 4) {
-            throw new IllegalArgumentException("weak checksum length must be in interval [1, 4]");
-        }
-        if (strongLen < 1 || strongLen > 16) {
-            throw new IllegalArgumentException("strong checksum length must be in interval [1, 16]");
-        }
-
-        // capacity of buffer is number of blocks times checksum bytes per block
-        final int capacity = ((int) (fileLength / blockSize) + (fileLength % blockSize > 0 ? 1 : 0)) * (weakLen + strongLen)
-                + fileDigest.getDigestLength();
-
-        // output buffer: may want to write to disk at certain size
-        final ByteBuffer checksums = ByteBuffer.allocate(capacity);
-
-        // buffer for converting weak checksum int to bytes
-        final ByteBuffer weakBytes = ByteBuffer.allocate(4);
-
-        // buffer for each block read from input file
-        final byte[] block = new byte[blockSize];
-
-        try {
-            // wrap file input stream with digest input stream to compute SHA-1 while reading file
-            try (final InputStream in = new DigestInputStream(Files.newInputStream(inputFile), fileDigest)) {
-                int read;
-                while ((read = in.read(block)) != -1) {
-                    // pad last block with 0s
-                    if (read < blockSize) {
-                        Arrays.fill(block, read, blockSize, (byte) 0);
-                    }
-
-                    // write trailing bytes of weak checksum
-                    weakBytes.clear();
-                    weakBytes.putInt(ZsyncUtil.computeRsum(block));
-                    weakBytes.position(weakBytes.limit() - weakLen);
-                    checksums.put(weakBytes);
-
-                    // write leading bytes of strong checksum
-                    final ByteBuffer strongBytes = ByteBuffer.wrap(blockDigest.digest(block));
-                    strongBytes.limit(strongLen);
-                    checksums.put(strongBytes);
-                }
-            }
-        } catch (IOException exception) {
-            throw new RuntimeException("Failed calculating zsync checksum", exception);
+    private static void write(WritableByteChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
         }
-
-        // finally add file checksum
-        final ByteBuffer checksum = ByteBuffer.wrap(fileDigest.digest());
-        checksums.put(checksum);
-
-        // flip to allow reading from buffer
-        checksums.flip();
-
-        return checksums;
     }
 
     /**
@@ -426,6 +701,13 @@ public class ZsyncMake {
         private Integer blockSize;
         private String filename;
         private String url;
+        private String checksumAlgorithm = ZsyncUtil.MD4;
+        private int threads = 1;
+        private boolean mapInputFile;
+        private Path previousControlFile;
+        private Path previousFile;
+        private List<ContentRange> changedRanges;
+        private Semaphore readPermits;
 
         public Options() {
         }
@@ -434,6 +716,13 @@ public class ZsyncMake {
             this.blockSize = other.getBlockSize();
             this.filename = other.getFilename();
             this.url = other.getUrl();
+            this.checksumAlgorithm = other.getChecksumAlgorithm();
+            this.threads = other.getThreads();
+            this.mapInputFile = other.isMapInputFile();
+            this.previousControlFile = other.getPreviousControlFile();
+            this.previousFile = other.getPreviousFile();
+            this.changedRanges = other.getChangedRanges();
+            this.readPermits = other.getReadPermits();
         }
 
         public Integer getBlockSize() {
@@ -476,6 +765,135 @@ public class ZsyncMake {
             return this;
         }
 
+        public String getChecksumAlgorithm() {
+            return this.checksumAlgorithm;
+        }
+
+        /**
+         * Sets the algorithm of the strong block checksums. Defaults to {@link ZsyncUtil#MD4}, as required by the zsync
+         * control file format. {@link ZsyncUtil#MURMUR3_128} is several times faster to compute, both here and when
+         * matching blocks, but is recorded in a Hash-Algorithm header that stock zsync rejects, so it should only be
+         * used for control files consumed by this library.
+         *
+         * @param checksumAlgorithm
+         * @return
+         */
+        public Options setChecksumAlgorithm(String checksumAlgorithm) {
+            if (!ZsyncUtil.isChecksumAlgorithm(checksumAlgorithm)) {
+                throw new IllegalArgumentException("Unsupported checksum algorithm " + checksumAlgorithm);
+            }
+            this.checksumAlgorithm = checksumAlgorithm;
+            return this;
+        }
+
+        public int getThreads() {
+            return this.threads;
+        }
+
+        /**
+         * Sets the number of threads computing block checksums. If greater than one, the input file is read in chunks
+         * whose block checksums are computed in parallel, while the SHA-1 of the file is computed on a separate thread.
+         * Defaults to 1.
+         *
+         * @param threads
+         * @return
+         */
+        public Options setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Number of threads must be positive");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public boolean isMapInputFile() {
+            return this.mapInputFile;
+        }
+
+        /**
+         * If set, the input file is memory mapped in segments from which the SHA-1 and the block checksums are computed
+         * directly, rather than read into heap buffers. Disabled by default: on some platforms, notably Windows, a
+         * mapped file cannot be replaced until the mapping is garbage collected.
+         *
+         * @param mapInputFile
+         * @return
+         */
+        public Options setMapInputFile(boolean mapInputFile) {
+            this.mapInputFile = mapInputFile;
+            return this;
+        }
+
+        public Path getPreviousControlFile() {
+            return this.previousControlFile;
+        }
+
+        /**
+         * Sets the control file of a previous version of the input file, from which the checksums of blocks that have
+         * not changed since are taken rather than recomputed. Which blocks are unchanged is determined from either the
+         * {@link #setPreviousFile(Path) previous version of the input file} or the {@link #setChangedRanges(List)
+         * changed ranges}, one of which must be set. The SHA-1 of the input file is computed in full regardless. The
+         * checksums are only reused if the previous control file has the block size, checksum lengths and checksum
+         * algorithm the new control file would have. The output file may be the previous control file.
+         *
+         * @param previousControlFile
+         * @return
+         */
+        public Options setPreviousControlFile(Path previousControlFile) {
+            this.previousControlFile = previousControlFile;
+            return this;
+        }
+
+        public Path getPreviousFile() {
+            return this.previousFile;
+        }
+
+        /**
+         * Sets the previous version of the input file that the {@link #setPreviousControlFile(Path) previous control
+         * file} was made for. Blocks whose bytes are the same in both versions are considered unchanged. Its length and
+         * last modified time must match those recorded in the previous control file.
+         *
+         * @param previousFile
+         * @return
+         */
+        public Options setPreviousFile(Path previousFile) {
+            this.previousFile = previousFile;
+            return this;
+        }
+
+        public List<ContentRange> getChangedRanges() {
+            return this.changedRanges;
+        }
+
+        /**
+         * Sets the ranges of the input file that changed since the version the {@link #setPreviousControlFile(Path)
+         * previous control file} was made for, so that blocks outside of them are considered unchanged without reading
+         * the previous version of the input file. The ranges must cover every changed byte.
+         *
+         * @param changedRanges
+         * @return
+         */
+        public Options setChangedRanges(List<ContentRange> changedRanges) {
+            this.changedRanges = changedRanges == null ? null : new ArrayList<>(changedRanges);
+            return this;
+        }
+
+        Semaphore getReadPermits() {
+            return this.readPermits;
+        }
+
+        /**
+         * Sets the permits to acquire for reading input files, shared by the control files of a directory tree made in
+         * parallel to limit concurrent reads, see {@link BatchOptions#setReadConcurrency(int)}. Not set by default, in
+         * which case reads are not limited.
+         *
+         * @param readPermits
+         * @return
+         */
+        Options setReadPermits(Semaphore readPermits) {
+            this.readPermits = readPermits;
+            return this;
+        }
+
         /**
          * Resolves option values which are required for the zsyncmake operation but which were not supplied.
          */
@@ -537,4 +955,168 @@ public class ZsyncMake {
             return this.outputFile;
         }
     }
+
+    /**
+     * Used to supply options for making the control files of a directory tree, see
+     * {@link ZsyncMake#writeToFiles(Path, Options, BatchOptions)}.
+     */
+    public static class BatchOptions {
+
+        private int parallelism = Runtime.getRuntime().availableProcessors();
+        private int readConcurrency = Integer.MAX_VALUE;
+
+        public BatchOptions() {
+        }
+
+        public BatchOptions(BatchOptions other) {
+            this.parallelism = other.getParallelism();
+            this.readConcurrency = other.getReadConcurrency();
+        }
+
+        public int getParallelism() {
+            return this.parallelism;
+        }
+
+        /**
+         * Sets the number of files made in parallel. Defaults to the number of available processors.
+         *
+         * @param parallelism
+         * @return
+         */
+        public BatchOptions setParallelism(int parallelism) {
+            if (parallelism < 1) {
+                throw new IllegalArgumentException("Parallelism must be positive");
+            }
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        public int getReadConcurrency() {
+            return this.readConcurrency;
+        }
+
+        /**
+         * Sets the maximum number of chunks of input files read at the same time, across all files made in parallel,
+         * so that files can be hashed in parallel without overloading storage that performs best with few concurrent
+         * reads. Does not limit memory mapped input files, which are read as they are hashed. Unlimited by default.
+         *
+         * @param readConcurrency
+         * @return
+         */
+        public BatchOptions setReadConcurrency(int readConcurrency) {
+            if (readConcurrency < 1) {
+                throw new IllegalArgumentException("Read concurrency must be positive");
+            }
+            this.readConcurrency = readConcurrency;
+            return this;
+        }
+    }
+
+    /**
+     * The results of a <code>writeToFiles(...)</code> zsyncmake operation, including the time taken per file and the
+     * throughput of the whole operation.
+     */
+    public static class BatchResult {
+
+        private final List<BatchFileResult> fileResults;
+        private final List<Path> skippedFiles;
+        private final Map<Path, RuntimeException> failures;
+        private final long elapsedNanoseconds;
+        private final long totalBytes;
+
+        private BatchResult(List<BatchFileResult> fileResults, List<Path> skippedFiles,
+                Map<Path, RuntimeException> failures, long elapsedNanoseconds) {
+            this.fileResults = Collections.unmodifiableList(fileResults);
+            this.skippedFiles = Collections.unmodifiableList(skippedFiles);
+            this.failures = Collections.unmodifiableMap(failures);
+            this.elapsedNanoseconds = elapsedNanoseconds;
+            long totalBytes = 0;
+            for (BatchFileResult fileResult : fileResults) {
+                totalBytes += fileResult.getLength();
+            }
+            this.totalBytes = totalBytes;
+        }
+
+        /**
+         * Results of the files whose control file was made, in the order the directory tree was walked
+         *
+         * @return
+         */
+        public List<BatchFileResult> getFileResults() {
+            return this.fileResults;
+        }
+
+        /**
+         * Files skipped because their control file was modified after them
+         *
+         * @return
+         */
+        public List<Path> getSkippedFiles() {
+            return this.skippedFiles;
+        }
+
+        /**
+         * Failures by the file whose control file could not be made
+         *
+         * @return
+         */
+        public Map<Path, RuntimeException> getFailures() {
+            return this.failures;
+        }
+
+        /**
+         * Total length of the files whose control file was made
+         *
+         * @return
+         */
+        public long getTotalBytes() {
+            return this.totalBytes;
+        }
+
+        public long getElapsedMilliseconds() {
+            return this.elapsedNanoseconds / 1000000;
+        }
+
+        public double getMegabytesPerSecond() {
+            return this.totalBytes / (1024d * 1024d) / (this.elapsedNanoseconds / 1e9);
+        }
+
+        public double getFilesPerSecond() {
+            return this.fileResults.size() / (this.elapsedNanoseconds / 1e9);
+        }
+    }
+
+    /**
+     * The results of making the control file of one file of a directory tree
+     */
+    public static class BatchFileResult extends FileResult {
+
+        private final Path inputFile;
+        private final long length;
+        private final long elapsedNanoseconds;
+
+        private BatchFileResult(String sha1, Path outputFile, Path inputFile, long length, long elapsedNanoseconds) {
+            super(sha1, outputFile);
+            this.inputFile = inputFile;
+            this.length = length;
+            this.elapsedNanoseconds = elapsedNanoseconds;
+        }
+
+        public Path getInputFile() {
+            return this.inputFile;
+        }
+
+        public long getLength() {
+            return this.length;
+        }
+
+        /**
+         * Time taken to make the control file, including time spent waiting to read
+         *
+         * @return
+         */
+        public long getElapsedNanoseconds() {
+            return this.elapsedNanoseconds;
+        }
+    }
 }
@@ -69,6 +69,19 @@ public class ZsyncObserver {
     public void inputFileReadingComplete() {
     }
 
+    /**
+     * Reports weak checksum lookup statistics for the input file currently being read, just before reading completes.
+     * Lookups rejected by the prefilter avoid probing the weak checksum table; filter hits that do not turn out to be
+     * weak checksum hits are false positives.
+     *
+     * @param filterBits log2 of the size of the prefilter in bits, 0 if the prefilter is disabled
+     * @param lookups number of weak checksums looked up
+     * @param filterHits number of lookups that passed the prefilter
+     * @param hits number of lookups that matched the weak checksum of at least one block
+     */
+    public void weakChecksumLookupsCompleted(int filterBits, long lookups, long filterHits, long hits) {
+    }
+
     public void remoteFileDownloadingInitiated(URI uri, List<ContentRange> ranges) {
     }
 
@@ -81,6 +94,17 @@ public class ZsyncObserver {
     public void remoteFileDownloadingComplete() {
     }
 
+    /**
+     * Signals that the request for the given ranges of the remote file is complete. If ranges are requested
+     * concurrently (see {@link Options#setRangeRequestConcurrency(int)}), the events of different requests interleave and
+     * this method identifies which request completed. Delegates to {@link #remoteFileDownloadingComplete()} by default.
+     *
+     * @param ranges the ranges passed to {@link #remoteFileDownloadingInitiated(URI, List)} for the request
+     */
+    public void remoteFileDownloadingComplete(List<ContentRange> ranges) {
+        this.remoteFileDownloadingComplete();
+    }
+
     public void bytesRead(long bytes) {
     }
 
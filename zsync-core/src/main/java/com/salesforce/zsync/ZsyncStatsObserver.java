@@ -33,6 +33,8 @@ import com.salesforce.zsync.http.ContentRange;
 
 import java.io.File;
 import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -46,7 +48,8 @@ public class ZsyncStatsObserver extends ZsyncObserver {
 
     // time
     private final Stopwatch downloadStopwatch = Stopwatch.createUnstarted();
-    private final Builder<List<ContentRange>, Long> elapsedMillisByRangeRequest = ImmutableMap.builder();
+    private final Map<List<ContentRange>, Stopwatch> rangeRequestStopwatches = new HashMap<>();
+    private final Map<List<ContentRange>, Long> elapsedMillisByRangeRequest = new LinkedHashMap<>();
     private final Builder<File, Long> bytesWrittenByInputFile = ImmutableMap.builder();
     private final Builder<File, Long> bytesReadByInputFile = ImmutableMap.builder();
     private long elapsedMillisDownloading = 0;
@@ -54,7 +57,7 @@ public class ZsyncStatsObserver extends ZsyncObserver {
     private long elapsedMillisDownloadingRemoteFile = 0;
 
     // data
-    private List<ContentRange> ranges;
+    private int activeRangeRequests = 0;
     private long bytesRead = 0;
     private long bytesWritten = 0;
     private long bytesDownloaded = 0;
@@ -66,6 +69,9 @@ public class ZsyncStatsObserver extends ZsyncObserver {
     private File inputFile;
     private long bytesReadBefore;
     private long bytesWrittenBefore;
+    private long weakChecksumLookups = 0;
+    private long weakChecksumFilterHits = 0;
+    private long weakChecksumHits = 0;
 
     @Override
     public void zsyncStarted(URI requestedZsyncUri, Options options) {
@@ -122,6 +128,13 @@ public class ZsyncStatsObserver extends ZsyncObserver {
         this.bytesRead = 0;
     }
 
+    @Override
+    public void weakChecksumLookupsCompleted(int filterBits, long lookups, long filterHits, long hits) {
+        this.weakChecksumLookups += lookups;
+        this.weakChecksumFilterHits += filterHits;
+        this.weakChecksumHits += hits;
+    }
+
     @Override
     public void outputFileWritingStarted(File outputFile, long length) {
         this.bytesWritten = 0;
@@ -135,26 +148,32 @@ public class ZsyncStatsObserver extends ZsyncObserver {
 
     @Override
     public void remoteFileDownloadingInitiated(URI uri, List<ContentRange> ranges) {
-        this.downloadStopwatch.start();
-        this.ranges = ranges;
-    }
-
-    @Override
-    public void remoteFileDownloadingStarted(URI uri, long length) {
-        this.bytesDownloaded = 0;
+        // range requests may run concurrently, so measure wall-clock time from the first request being initiated until
+        // no request is active anymore rather than summing up individual request times
+        if (this.activeRangeRequests++ == 0) {
+            this.downloadStopwatch.start();
+        }
+        this.rangeRequestStopwatches.put(ranges, Stopwatch.createStarted());
     }
 
     @Override
-    public void remoteFileDownloadingComplete() {
-        final long millis = this.downloadStopwatch.stop().elapsed(MILLISECONDS);
-        this.downloadStopwatch.reset();
-        this.elapsedMillisDownloadingRemoteFile += millis;
-        this.elapsedMillisDownloading += millis;
-        this.elapsedMillisByRangeRequest.put(this.ranges, millis);
-        this.ranges = null;
-        this.bytesDownloadedFromRemoteTarget += this.bytesDownloaded;
-        this.totalBytesDownloaded += this.bytesDownloaded;
-        this.bytesDownloaded = 0;
+    public void remoteFileDownloadingComplete(List<ContentRange> ranges) {
+        final Stopwatch requestStopwatch = this.rangeRequestStopwatches.remove(ranges);
+        if (requestStopwatch != null) {
+            // a retried request may ask for the same ranges again
+            final Long before = this.elapsedMillisByRangeRequest.get(ranges);
+            final long millis = requestStopwatch.stop().elapsed(MILLISECONDS);
+            this.elapsedMillisByRangeRequest.put(ranges, before == null ? millis : before + millis);
+        }
+        if (--this.activeRangeRequests == 0) {
+            final long millis = this.downloadStopwatch.stop().elapsed(MILLISECONDS);
+            this.downloadStopwatch.reset();
+            this.elapsedMillisDownloadingRemoteFile += millis;
+            this.elapsedMillisDownloading += millis;
+            this.bytesDownloadedFromRemoteTarget += this.bytesDownloaded;
+            this.totalBytesDownloaded += this.bytesDownloaded;
+            this.bytesDownloaded = 0;
+        }
     }
 
     @Override
@@ -184,12 +203,15 @@ public class ZsyncStatsObserver extends ZsyncObserver {
         final long elapsedMillisecondsDownloading = this.elapsedMillisDownloading;
         final long elapsedMillisecondsDownloadingControlFile = this.elapsedMillisDownloadingControlFile;
         final long elapsedMillisecondsDownloadingRemoteFile = this.elapsedMillisDownloadingRemoteFile;
-        final Map<List<ContentRange>, Long> elapsedMillisByRangeRequest = this.elapsedMillisByRangeRequest.build();
+        final Map<List<ContentRange>, Long> elapsedMillisByRangeRequest = ImmutableMap.copyOf(this.elapsedMillisByRangeRequest);
         final long totalBytesDownloaded = this.totalBytesDownloaded;
         final long bytesDownloadedForControlFile = this.bytesDownloadedForControlFile;
         final long bytesDownloadedFromRemoteTarget = this.bytesDownloadedFromRemoteTarget;
         final long totalBytesRead = this.totalBytesRead;
         final long totalBytesWritten = this.totalBytesWritten;
+        final long weakChecksumLookups = this.weakChecksumLookups;
+        final long weakChecksumFilterHits = this.weakChecksumFilterHits;
+        final long weakChecksumHits = this.weakChecksumHits;
 
         return new ZsyncStats() {
             @Override
@@ -251,6 +273,27 @@ public class ZsyncStatsObserver extends ZsyncObserver {
             public Map<List<ContentRange>, Long> getElapsedMillisecondsDownloadingRemoteFileByRequest() {
                 return elapsedMillisByRangeRequest;
             }
+
+            @Override
+            public long getWeakChecksumLookups() {
+                return weakChecksumLookups;
+            }
+
+            @Override
+            public long getWeakChecksumFilterHits() {
+                return weakChecksumFilterHits;
+            }
+
+            @Override
+            public long getWeakChecksumHits() {
+                return weakChecksumHits;
+            }
+
+            @Override
+            public double getWeakChecksumFilterFalsePositiveRate() {
+                final long negatives = weakChecksumLookups - weakChecksumHits;
+                return negatives == 0 ? 0 : (double) (weakChecksumFilterHits - weakChecksumHits) / negatives;
+            }
         };
     }
 
@@ -280,5 +323,18 @@ public class ZsyncStatsObserver extends ZsyncObserver {
 
         Map<List<ContentRange>, Long> getElapsedMillisecondsDownloadingRemoteFileByRequest();
 
+        long getWeakChecksumLookups();
+
+        long getWeakChecksumFilterHits();
+
+        long getWeakChecksumHits();
+
+        /**
+         * Fraction of weak checksum lookups without a matching block that were not rejected by the prefilter.
+         *
+         * @return
+         */
+        double getWeakChecksumFilterFalsePositiveRate();
+
     }
 }
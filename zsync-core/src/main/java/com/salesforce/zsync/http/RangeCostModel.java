@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.http;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Estimates the cost of fetching ranges of a remote file in bytes, so that ranges separated by small gaps can be
+ * coalesced when downloading the gap is cheaper than the overhead of requesting the ranges separately. Each range costs
+ * a fixed number of bytes for its Range header entry and multipart part headers and each request costs the number of
+ * bytes that could have been transferred during one round trip.
+ */
+public class RangeCostModel {
+
+    /**
+     * 100 bytes per range, 50ms round trip time and 10MB/s bandwidth
+     */
+    public static final RangeCostModel DEFAULT = new RangeCostModel(100, 50, 10 * 1024 * 1024);
+
+    private final long rangeOverheadBytes;
+    private final long roundTripMillis;
+    private final long bytesPerSecond;
+
+    /**
+     * @param rangeOverheadBytes bytes of headers and boundaries per range
+     * @param roundTripMillis    round trip time of a request in milliseconds
+     * @param bytesPerSecond     estimated bandwidth
+     */
+    public RangeCostModel(long rangeOverheadBytes, long roundTripMillis, long bytesPerSecond) {
+        checkArgument(rangeOverheadBytes >= 0, "range overhead must not be negative");
+        checkArgument(roundTripMillis >= 0, "round trip time must not be negative");
+        checkArgument(bytesPerSecond > 0, "bandwidth must be positive");
+        this.rangeOverheadBytes = rangeOverheadBytes;
+        this.roundTripMillis = roundTripMillis;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getRangeOverheadBytes() {
+        return this.rangeOverheadBytes;
+    }
+
+    public long getRoundTripMillis() {
+        return this.roundTripMillis;
+    }
+
+    public long getBytesPerSecond() {
+        return this.bytesPerSecond;
+    }
+
+    /**
+     * Returns the cost of an additional request in bytes, i.e. the number of bytes that can be transferred in one round
+     * trip.
+     *
+     * @return
+     */
+    public long getRequestOverheadBytes() {
+        return this.roundTripMillis * this.bytesPerSecond / 1000;
+    }
+
+    /**
+     * Returns the estimated cost in bytes of fetching the given number of bytes in the given number of ranges and
+     * requests.
+     *
+     * @param bytes
+     * @param ranges
+     * @param requests
+     * @return
+     */
+    public long cost(long bytes, long ranges, long requests) {
+        return bytes + ranges * this.rangeOverheadBytes + requests * this.getRequestOverheadBytes();
+    }
+
+    @Override
+    public String toString() {
+        return "RangeCostModel [rangeOverheadBytes=" + this.rangeOverheadBytes + ", roundTripMillis=" + this.roundTripMillis
+                + ", bytesPerSecond=" + this.bytesPerSecond + "]";
+    }
+
+}
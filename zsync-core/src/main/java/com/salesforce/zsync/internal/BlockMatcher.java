@@ -25,17 +25,95 @@
  */
 package com.salesforce.zsync.internal;
 
+import com.salesforce.zsync.internal.util.BitHashFilter;
 import com.salesforce.zsync.internal.util.ReadableByteBuffer;
 
 public abstract class BlockMatcher {
 
     public static BlockMatcher create(ControlFile controlFile) {
-        return controlFile.getHeader().isSeqMatches() ? new DoubleBlockMatcher(controlFile) : new SingleBlockMatcher(
-                controlFile);
+        return create(controlFile, null);
     }
 
+    /**
+     * Creates a block matcher for the given control file
+     *
+     * @param controlFile
+     * @param rsumFilterBits log2 of the size of the weak checksum prefilter in bits, null to size it based on the number
+     *          of blocks, or 0 to disable the prefilter
+     * @return
+     */
+    public static BlockMatcher create(ControlFile controlFile, Integer rsumFilterBits) {
+        return controlFile.getHeader().isSeqMatches() ? new DoubleBlockMatcher(controlFile, rsumFilterBits)
+                : new SingleBlockMatcher(controlFile, rsumFilterBits);
+    }
+
+    static BitHashFilter newRsumFilter(int count, Integer rsumFilterBits) {
+        if (rsumFilterBits == null) {
+            return new BitHashFilter(BitHashFilter.defaultBits(count));
+        }
+        return rsumFilterBits.intValue() == 0 ? null : new BitHashFilter(rsumFilterBits);
+    }
+
+    // weak checksum lookup statistics, maintained by subclasses
+    long rsumLookups;
+    long rsumFilterHits;
+    long rsumHits;
+
     public abstract int getMatcherBlockSize();
 
+    /**
+     * Returns a new matcher in initial state that shares the immutable lookup tables of this matcher, e.g. to match
+     * different parts of an input file concurrently. Lookup statistics are not copied.
+     *
+     * @return
+     */
+    public abstract BlockMatcher copy();
+
+    /**
+     * Adds the lookup statistics of the given matcher to the statistics of this matcher
+     *
+     * @param other
+     */
+    public void addRsumLookupStatistics(BlockMatcher other) {
+        this.rsumLookups += other.rsumLookups;
+        this.rsumFilterHits += other.rsumFilterHits;
+        this.rsumHits += other.rsumHits;
+    }
+
+    /**
+     * Returns log2 of the size of the weak checksum prefilter in bits or 0 if the prefilter is disabled
+     *
+     * @return
+     */
+    public abstract int getRsumFilterBits();
+
+    /**
+     * Number of weak checksums looked up so far
+     *
+     * @return
+     */
+    public long getRsumLookups() {
+        return this.rsumLookups;
+    }
+
+    /**
+     * Number of weak checksum lookups that passed the prefilter, including false positives
+     *
+     * @return
+     */
+    public long getRsumFilterHits() {
+        return this.rsumFilterHits;
+    }
+
+    /**
+     * Number of weak checksum lookups that matched at least one block of the target file
+     *
+     * @return
+     */
+    public long getRsumHits() {
+        return this.rsumHits;
+    }
+
     public abstract int match(OutputFileWriter targetFile, ReadableByteBuffer data);
 
 }
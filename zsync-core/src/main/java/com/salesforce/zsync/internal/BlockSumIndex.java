@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import java.util.Arrays;
+
+/**
+ * Maps block sums to the positions of the target file blocks they occur at. Positions are chained in flat int arrays
+ * bucketed by a hash of the rolling checksum and a prefix of the strong checksum, so that building the index creates no
+ * per-block objects and lookups do not allocate. Matching positions are iterated in ascending order via
+ * {@link #first(BlockSum)} and {@link #next(int, BlockSum)}:
+ *
+ * <pre>
+ * for (int p = index.first(sum); p != -1; p = index.next(p, sum)) {
+ *     ...
+ * }
+ * </pre>
+ */
+final class BlockSumIndex {
+
+    private final BlockSums blockSums;
+    // first position per bucket or -1
+    private final int[] head;
+    // next position in the same bucket per position or -1
+    private final int[] next;
+    private final int shift;
+
+    BlockSumIndex(BlockSums blockSums) {
+        this.blockSums = blockSums;
+        final int size = blockSums.size();
+        int bits = 1;
+        while (bits < 30 && (1 << bits) < size) {
+            bits++;
+        }
+        this.shift = 32 - bits;
+        this.head = new int[1 << bits];
+        this.next = new int[size];
+        Arrays.fill(this.head, -1);
+        // insert in reverse so that chains are in ascending position order
+        for (int i = size - 1; i >= 0; i--) {
+            final int bucket = this.bucket(blockSums.getRsum(i), blockSums.getChecksumPrefix(i));
+            this.next[i] = this.head[bucket];
+            this.head[bucket] = i;
+        }
+    }
+
+    /**
+     * Returns the first position of a block matching the given sum or -1 if there is none
+     *
+     * @param sum
+     * @return
+     */
+    int first(BlockSum sum) {
+        return this.find(this.head[this.bucket(sum.getRsum(), checksumPrefix(sum))], sum);
+    }
+
+    /**
+     * Returns the position of the next block after the given position that matches the given sum or -1 if there is none
+     *
+     * @param position a position previously returned for the same sum
+     * @param sum
+     * @return
+     */
+    int next(int position, BlockSum sum) {
+        return this.find(this.next[position], sum);
+    }
+
+    private int find(int position, BlockSum sum) {
+        while (position != -1 && !this.blockSums.matches(position, sum)) {
+            position = this.next[position];
+        }
+        return position;
+    }
+
+    private int bucket(int rsum, int checksumPrefix) {
+        return ((rsum * 0x9E3779B9 ^ checksumPrefix) * 0x85EBCA6B) >>> this.shift;
+    }
+
+    // must agree with BlockSums.getChecksumPrefix
+    private static int checksumPrefix(BlockSum sum) {
+        final byte[] checksum = sum.getChecksum();
+        final int length = Math.min(4, sum.getChecksumLength());
+        int prefix = 0;
+        for (int i = 0; i < length; i++) {
+            prefix = prefix << 8 | checksum[i] & 0xFF;
+        }
+        return prefix;
+    }
+
+}
@@ -0,0 +1,237 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Block sums of a control file in columnar form: rolling checksums in an int array and strong checksums in a single
+ * buffer at a fixed stride. This avoids an object and a byte array per block. {@link #get(int)} returns a flyweight
+ * view to support the {@link BlockSum} API; performance sensitive code should use the primitive accessors instead.
+ */
+public final class BlockSums extends AbstractList<BlockSum> implements RandomAccess {
+
+    private final int[] rsums;
+    private final ByteBuffer checksums;
+    private final int offset;
+    private final int stride;
+    private final int checksumLength;
+
+    /**
+     * Creates block sums backed by the given arrays
+     *
+     * @param rsums rolling checksums, one per block
+     * @param checksums buffer containing the strong checksums, accessed by absolute index
+     * @param offset index of the first byte of the first strong checksum in the buffer
+     * @param stride distance in bytes between the starts of two consecutive strong checksums
+     * @param checksumLength length of each strong checksum
+     */
+    BlockSums(int[] rsums, ByteBuffer checksums, int offset, int stride, int checksumLength) {
+        if (stride < checksumLength) {
+            throw new IllegalArgumentException("Stride must not be less than checksum length");
+        }
+        if (rsums.length > 0 && offset + (long) (rsums.length - 1) * stride + checksumLength > checksums.limit()) {
+            throw new IllegalArgumentException("Checksum buffer too small for " + rsums.length + " blocks");
+        }
+        this.rsums = rsums;
+        this.checksums = checksums;
+        this.offset = offset;
+        this.stride = stride;
+        this.checksumLength = checksumLength;
+    }
+
+    /**
+     * Reads the block sums section of a control file, where each block is described by <code>rsumBytes</code> big
+     * endian bytes of its rolling checksum followed by <code>checksumBytes</code> bytes of its strong checksum.
+     *
+     * @param in
+     * @param numBlocks
+     * @param rsumBytes
+     * @param checksumBytes
+     * @return
+     * @throws IOException
+     */
+    public static BlockSums read(InputStream in, int numBlocks, int rsumBytes, int checksumBytes) throws IOException {
+        final int[] rsums = new int[numBlocks];
+        final byte[] checksums = new byte[numBlocks * checksumBytes];
+        final int entryLength = rsumBytes + checksumBytes;
+        final byte[] buf = new byte[entryLength * Math.max(1, Math.min(numBlocks, 4096))];
+        int block = 0;
+        while (block < numBlocks) {
+            final int blocks = Math.min(numBlocks - block, buf.length / entryLength);
+            final int len = blocks * entryLength;
+            int read = 0;
+            int r;
+            while (read < len && (r = in.read(buf, read, len - read)) != -1) {
+                read += r;
+            }
+            if (read != len) {
+                throw new IOException("Failed to read block checksums: premature end of file");
+            }
+            for (int i = 0, p = 0; i < blocks; i++, block++, p += entryLength) {
+                int rsum = 0;
+                for (int j = 0; j < rsumBytes; j++) {
+                    rsum = rsum << 8 | buf[p + j] & 0xFF;
+                }
+                rsums[block] = rsum;
+                System.arraycopy(buf, p + rsumBytes, checksums, block * checksumBytes, checksumBytes);
+            }
+        }
+        return new BlockSums(rsums, ByteBuffer.wrap(checksums), 0, checksumBytes, checksumBytes);
+    }
+
+    /**
+     * Copies the given block sums into columnar form
+     *
+     * @param blockSums
+     * @param checksumLength
+     * @return
+     */
+    static BlockSums copyOf(List<? extends BlockSum> blockSums, int checksumLength) {
+        final int[] rsums = new int[blockSums.size()];
+        final byte[] checksums = new byte[rsums.length * checksumLength];
+        for (int i = 0; i < rsums.length; i++) {
+            final BlockSum blockSum = blockSums.get(i);
+            if (blockSum.getChecksumLength() != checksumLength) {
+                throw new IllegalArgumentException("Block " + i + " has checksum length " + blockSum.getChecksumLength());
+            }
+            rsums[i] = blockSum.getRsum();
+            System.arraycopy(blockSum.getChecksum(), 0, checksums, i * checksumLength, checksumLength);
+        }
+        return new BlockSums(rsums, ByteBuffer.wrap(checksums), 0, checksumLength, checksumLength);
+    }
+
+    @Override
+    public int size() {
+        return this.rsums.length;
+    }
+
+    /**
+     * Returns a view of the block sum at the given index. The strong checksum of the view is copied on access.
+     */
+    @Override
+    public BlockSum get(final int index) {
+        if (index < 0 || index >= this.rsums.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.rsums.length);
+        }
+        return new BlockSum() {
+            @Override
+            int getRsum() {
+                return BlockSums.this.rsums[index];
+            }
+
+            @Override
+            byte[] getChecksum() {
+                final byte[] checksum = new byte[BlockSums.this.checksumLength];
+                final int p = BlockSums.this.offset + index * BlockSums.this.stride;
+                for (int i = 0; i < checksum.length; i++) {
+                    checksum[i] = BlockSums.this.checksums.get(p + i);
+                }
+                return checksum;
+            }
+
+            @Override
+            int getChecksumLength() {
+                return BlockSums.this.checksumLength;
+            }
+        };
+    }
+
+    int getChecksumLength() {
+        return this.checksumLength;
+    }
+
+    int getRsum(int index) {
+        return this.rsums[index];
+    }
+
+    /**
+     * Returns the rolling checksums of all blocks. The returned array is shared and must not be modified.
+     *
+     * @return
+     */
+    int[] getRsums() {
+        return this.rsums;
+    }
+
+    /**
+     * Copies the first length bytes of the strong checksum of the given block into the given array.
+     *
+     * @param index
+     * @param dst
+     * @param offset
+     * @param length
+     */
+    void getChecksum(int index, byte[] dst, int offset, int length) {
+        final int p = this.offset + index * this.stride;
+        for (int i = 0; i < length; i++) {
+            dst[offset + i] = this.checksums.get(p + i);
+        }
+    }
+
+    /**
+     * Returns up to the first four bytes of the strong checksum of the given block as a big endian int.
+     *
+     * @param index
+     * @return
+     */
+    int getChecksumPrefix(int index) {
+        final int p = this.offset + index * this.stride;
+        final int length = Math.min(4, this.checksumLength);
+        int prefix = 0;
+        for (int i = 0; i < length; i++) {
+            prefix = prefix << 8 | this.checksums.get(p + i) & 0xFF;
+        }
+        return prefix;
+    }
+
+    /**
+     * Returns whether the block at the given index has the same rolling and strong checksum as the given block sum.
+     *
+     * @param index
+     * @param sum
+     * @return
+     */
+    boolean matches(int index, BlockSum sum) {
+        if (this.rsums[index] != sum.getRsum() || this.checksumLength != sum.getChecksumLength()) {
+            return false;
+        }
+        final byte[] checksum = sum.getChecksum();
+        final int p = this.offset + index * this.stride;
+        for (int i = 0; i < this.checksumLength; i++) {
+            if (this.checksums.get(p + i) != checksum[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -81,7 +81,7 @@ class Checksum {
         this.writableMessageDigest.getMessageDigest().reset();
         try {
             buffer.write(this.writableMessageDigest, offset, length);
-            this.writableMessageDigest.getMessageDigest().digest(this.bytes, 0, this.bytes.length);
+            this.writableMessageDigest.getMessageDigest().digest(this.bytes, 0, this.length);
         } catch (IOException | DigestException e) {
             throw new RuntimeException("Unexpected error during digest computation", e);
         }
@@ -0,0 +1,417 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * Computes the block checksums and the SHA-1 of the file a control file is made for. The file is read in chunks of whole
+ * blocks. With more than one thread, the block checksums of several chunks are computed in parallel on a fork-join pool
+ * while the SHA-1 is computed on a thread of its own, and the checksums are written out in the order of the blocks as
+ * chunks complete. The number of chunks in flight is bounded, so memory use does not depend on the size of the file.
+ * <p>
+ * Chunks are either read into heap buffers or, if the input is mapped, sliced from memory mapped segments of the file,
+ * from which both the SHA-1 and the block checksums are computed without copying.
+ */
+public class ChecksumGenerator {
+
+    // size of the chunks of the input file read at once, rounded down to whole blocks
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    // maximum size of the segments the input file is mapped in, rounded down to whole chunks
+    private static final int MAPPED_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private final int blockSize;
+    private final int weakLength;
+    private final int strongLength;
+    private final String checksumAlgorithm;
+    private final int threads;
+    private final boolean mapInput;
+    private final Semaphore readPermits;
+    private final int chunkSize;
+    private final int segmentSize;
+
+    /**
+     * Creates a generator reading the input into heap buffers.
+     *
+     * @param blockSize         size of the blocks
+     * @param weakLength        number of trailing bytes of the rolling checksum written per block
+     * @param strongLength      number of leading bytes of the strong checksum written per block
+     * @param checksumAlgorithm algorithm of the strong checksum, see {@link ZsyncUtil#newChecksumDigest(String)}
+     * @param threads           number of threads computing block checksums
+     */
+    public ChecksumGenerator(int blockSize, int weakLength, int strongLength, String checksumAlgorithm, int threads) {
+        this(blockSize, weakLength, strongLength, checksumAlgorithm, threads, false);
+    }
+
+    /**
+     * @param blockSize         size of the blocks
+     * @param weakLength        number of trailing bytes of the rolling checksum written per block
+     * @param strongLength      number of leading bytes of the strong checksum written per block
+     * @param checksumAlgorithm algorithm of the strong checksum, see {@link ZsyncUtil#newChecksumDigest(String)}
+     * @param threads           number of threads computing block checksums
+     * @param mapInput          whether to memory map the input rather than read it into heap buffers
+     */
+    public ChecksumGenerator(int blockSize, int weakLength, int strongLength, String checksumAlgorithm, int threads,
+            boolean mapInput) {
+        this(blockSize, weakLength, strongLength, checksumAlgorithm, threads, mapInput, null);
+    }
+
+    /**
+     * @param blockSize         size of the blocks
+     * @param weakLength        number of trailing bytes of the rolling checksum written per block
+     * @param strongLength      number of leading bytes of the strong checksum written per block
+     * @param checksumAlgorithm algorithm of the strong checksum, see {@link ZsyncUtil#newChecksumDigest(String)}
+     * @param threads           number of threads computing block checksums
+     * @param mapInput          whether to memory map the input rather than read it into heap buffers
+     * @param readPermits       permits acquired while reading a chunk into a heap buffer, shared between generators to
+     *                          limit concurrent reads, or null
+     */
+    public ChecksumGenerator(int blockSize, int weakLength, int strongLength, String checksumAlgorithm, int threads,
+            boolean mapInput, Semaphore readPermits) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        if (weakLength < 1 || weakLength > 4) {
+            throw new IllegalArgumentException("weak checksum length must be in interval [1, 4]");
+        }
+        if (strongLength < 1 || strongLength > 16) {
+            throw new IllegalArgumentException("strong checksum length must be in interval [1, 16]");
+        }
+        if (!ZsyncUtil.isChecksumAlgorithm(checksumAlgorithm)) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm " + checksumAlgorithm);
+        }
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive");
+        }
+        this.blockSize = blockSize;
+        this.weakLength = weakLength;
+        this.strongLength = strongLength;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.threads = threads;
+        this.mapInput = mapInput;
+        this.readPermits = readPermits;
+        this.chunkSize = Math.max(1, CHUNK_SIZE / blockSize) * blockSize;
+        this.segmentSize = Math.max(1, MAPPED_SEGMENT_SIZE / this.chunkSize) * this.chunkSize;
+    }
+
+    /**
+     * Reads the first length bytes of the given channel, writes the rolling and strong checksum of each block to the
+     * output channel in order, and returns the SHA-1 of the bytes read. The last block is padded with zeros.
+     *
+     * @param input
+     * @param length
+     * @param out
+     * @return SHA-1 of the first length bytes of the input
+     * @throws IOException
+     */
+    public byte[] generate(FileChannel input, long length, WritableByteChannel out) throws IOException {
+        return this.generate(input, length, out, null);
+    }
+
+    /**
+     * Like {@link #generate(FileChannel, long, WritableByteChannel)}, but takes the checksums of blocks that have not
+     * changed since a previous version of the input from the given previous checksums, if compatible. The SHA-1 is
+     * still computed over the whole input, but strong checksums are only computed for changed blocks.
+     *
+     * @param input
+     * @param length
+     * @param out
+     * @param previous checksums of a previous version of the input, or null to compute all checksums
+     * @return SHA-1 of the first length bytes of the input
+     * @throws IOException
+     */
+    public byte[] generate(FileChannel input, long length, WritableByteChannel out, PreviousChecksums previous)
+            throws IOException {
+        if (previous != null && !previous.isCompatible(this.blockSize, this.weakLength, this.strongLength,
+                this.checksumAlgorithm)) {
+            previous = null;
+        }
+        return this.threads == 1 ? this.generateSerially(input, length, out, previous)
+                : this.generateConcurrently(input, length, out, previous);
+    }
+
+    private byte[] generateSerially(FileChannel channel, long length, WritableByteChannel out,
+            PreviousChecksums previous) throws IOException {
+        final MessageDigest sha1 = ZsyncUtil.newSHA1();
+        final MessageDigest digest = ZsyncUtil.newChecksumDigest(this.checksumAlgorithm);
+        final Input input = new Input(channel, length);
+        for (long position = 0; position < length; ) {
+            final ByteBuffer buffer = input.read(position);
+            update(sha1, buffer);
+            write(out, this.computeChecksums(buffer, position, digest, previous));
+            position += buffer.limit();
+            input.release(buffer);
+        }
+        return sha1.digest();
+    }
+
+    private byte[] generateConcurrently(FileChannel channel, long length, WritableByteChannel out,
+            final PreviousChecksums previous) throws IOException {
+        final MessageDigest sha1 = ZsyncUtil.newSHA1();
+        final ForkJoinPool pool = new ForkJoinPool(this.threads);
+        final ExecutorService sha1Executor = Executors.newSingleThreadExecutor();
+        // two chunks per thread, so that threads do not wait for the next chunk to be read
+        final int maxChunks = 2 * this.threads + 1;
+        final Input input = new Input(channel, length);
+        final Deque<Chunk> chunks = new ArrayDeque<>();
+        try {
+            for (long position = 0; position < length; ) {
+                if (chunks.size() == maxChunks) {
+                    input.release(complete(chunks.remove(), out));
+                }
+                final ByteBuffer buffer = input.read(position);
+                final long chunkPosition = position;
+                position += buffer.limit();
+                final Future<?> sha1Update = sha1Executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        update(sha1, buffer);
+                    }
+                });
+                final Future<byte[]> checksums = pool.submit(new Callable<byte[]>() {
+                    @Override
+                    public byte[] call() throws IOException {
+                        return ChecksumGenerator.this.computeChecksums(buffer, chunkPosition,
+                                ZsyncUtil.newChecksumDigest(ChecksumGenerator.this.checksumAlgorithm), previous);
+                    }
+                });
+                chunks.add(new Chunk(buffer, sha1Update, checksums));
+            }
+            while (!chunks.isEmpty()) {
+                input.release(complete(chunks.remove(), out));
+            }
+            // all updates have completed
+            return sha1.digest();
+        } finally {
+            pool.shutdownNow();
+            sha1Executor.shutdownNow();
+        }
+    }
+
+    // writes the checksums of the given chunk once computed and returns its buffer once digested
+    private static ByteBuffer complete(Chunk chunk, WritableByteChannel out) throws IOException {
+        write(out, get(chunk.checksums));
+        get(chunk.sha1Update);
+        return chunk.buffer;
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while computing checksums");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    // heap buffers are digested from their backing array, which is much faster than through a view of the buffer
+    private static void update(MessageDigest sha1, ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            sha1.update(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        } else {
+            sha1.update(buffer.duplicate());
+        }
+    }
+
+    // computes the checksums of the blocks between position 0 and the limit of the buffer, padding the last one, unless
+    // unchanged since the previous version
+    private byte[] computeChecksums(ByteBuffer buffer, long position, MessageDigest digest, PreviousChecksums previous)
+            throws IOException {
+        final int length = buffer.limit();
+        final int numBlocks = (length + this.blockSize - 1) / this.blockSize;
+        final byte[] checksums = new byte[numBlocks * (this.weakLength + this.strongLength)];
+        final boolean[] unchanged = previous == null ? null : previous.unchanged(position, buffer, this.blockSize);
+        final int firstBlock = (int) (position / this.blockSize);
+        final int weakMask = this.weakLength == 4 ? -1 : (1 << (this.weakLength << 3)) - 1;
+        byte[] padded = null;
+        try {
+            for (int block = 0, off = 0; block < numBlocks; block++) {
+                final int start = block * this.blockSize;
+                final boolean full = start + this.blockSize <= length;
+                if (!full) {
+                    padded = new byte[this.blockSize];
+                    for (int i = start; i < length; i++) {
+                        padded[i - start] = buffer.get(i);
+                    }
+                }
+                final int rsum =
+                        full ? ZsyncUtil.computeRsum(buffer, start, this.blockSize) : ZsyncUtil.computeRsum(padded);
+                // trailing bytes of the rolling checksum, leading bytes of the strong checksum
+                for (int i = this.weakLength - 1; i >= 0; i--, off++) {
+                    checksums[off] = (byte) (rsum >>> (i << 3));
+                }
+                if (unchanged != null && unchanged[block]
+                        && previous.getRsum(firstBlock + block) == (rsum & weakMask)) {
+                    previous.getChecksum(firstBlock + block, checksums, off);
+                } else {
+                    if (full) {
+                        final ByteBuffer view = buffer.duplicate();
+                        view.limit(start + this.blockSize).position(start);
+                        digest.update(view);
+                    } else {
+                        digest.update(padded);
+                    }
+                    digest.digest(checksums, off, this.strongLength);
+                }
+                off += this.strongLength;
+            }
+        } catch (DigestException e) {
+            throw new RuntimeException("Failed to compute " + this.checksumAlgorithm, e);
+        }
+        return checksums;
+    }
+
+    private static void write(WritableByteChannel out, byte[] bytes) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Supplies the chunks of the input file, either read into reused heap buffers or sliced from the current mapped
+     * segment. Segments consist of whole chunks, so that no chunk spans two segments, and are mapped one after the other
+     * as the file is read, so files larger than 2 GB are supported.
+     */
+    private final class Input {
+
+        private final FileChannel channel;
+        private final long length;
+        private final Deque<ByteBuffer> buffers;
+        private MappedByteBuffer segment;
+        private long segmentPosition;
+
+        Input(FileChannel channel, long length) {
+            this.channel = channel;
+            this.length = length;
+            this.buffers = new ArrayDeque<>();
+        }
+
+        // returns the chunk starting at the given position, which must be the end of the previous chunk
+        ByteBuffer read(long position) throws IOException {
+            final int size = (int) Math.min(ChecksumGenerator.this.chunkSize, this.length - position);
+            return ChecksumGenerator.this.mapInput ? this.slice(position, size) : this.read(position, size);
+        }
+
+        // makes the given chunk's buffer available to subsequent chunks
+        void release(ByteBuffer buffer) {
+            if (!ChecksumGenerator.this.mapInput) {
+                this.buffers.add(buffer);
+            }
+        }
+
+        private ByteBuffer read(long position, int size) throws IOException {
+            ByteBuffer buffer = this.buffers.poll();
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(ChecksumGenerator.this.chunkSize);
+            }
+            buffer.clear().limit(size);
+            final Semaphore permits = ChecksumGenerator.this.readPermits;
+            if (permits != null) {
+                try {
+                    permits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting to read");
+                }
+            }
+            try {
+                while (buffer.hasRemaining()) {
+                    if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                        throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+                    }
+                }
+            } finally {
+                if (permits != null) {
+                    permits.release();
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private ByteBuffer slice(long position, int size) throws IOException {
+            if (this.segment == null || position >= this.segmentPosition + this.segment.limit()) {
+                final long segmentSize = Math.min(ChecksumGenerator.this.segmentSize, this.length - position);
+                final long fileSize = this.channel.size();
+                if (fileSize < position + segmentSize) {
+                    throw new IOException("Unexpected end of file at " + fileSize);
+                }
+                this.segment = this.channel.map(READ_ONLY, position, segmentSize);
+                this.segmentPosition = position;
+            }
+            final ByteBuffer view = this.segment.duplicate();
+            final int offset = (int) (position - this.segmentPosition);
+            view.limit(offset + size).position(offset);
+            return view.slice();
+        }
+    }
+
+    private static final class Chunk {
+
+        final ByteBuffer buffer;
+        final Future<?> sha1Update;
+        final Future<byte[]> checksums;
+
+        Chunk(ByteBuffer buffer, Future<?> sha1Update, Future<byte[]> checksums) {
+            this.buffer = buffer;
+            this.sha1Update = sha1Update;
+            this.checksums = checksums;
+        }
+    }
+}
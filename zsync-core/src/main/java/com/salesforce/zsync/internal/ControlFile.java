@@ -26,17 +26,23 @@
 package com.salesforce.zsync.internal;
 
 import com.salesforce.zsync.internal.util.SplitInputStream;
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.List;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 
 public class ControlFile {
 
     private final Header header;
-    private final List<? extends BlockSum> blockSums;
+    private final BlockSums blockSums;
 
-    public ControlFile(Header header, List<? extends BlockSum> blockSums) {
+    public ControlFile(Header header, BlockSums blockSums) {
         super();
         this.header = header;
         this.blockSums = blockSums;
@@ -45,17 +51,61 @@ public class ControlFile {
     public static ControlFile read(final InputStream in) throws IOException {
         final SplitInputStream firstPart = new SplitInputStream(in, new byte[]{'\n', '\n'});
         final Header header = Header.read(firstPart);
-        final List<? extends BlockSum> blockSums =
-                ImmutableBlockSum.readSums(firstPart.next(), header.getNumBlocks(), header.getRsumBytes(),
-                        header.getChecksumBytes());
+        final BlockSums blockSums =
+                BlockSums.read(firstPart.next(), header.getNumBlocks(), header.getRsumBytes(), header.getChecksumBytes());
         return new ControlFile(header, blockSums);
     }
 
+    /**
+     * Reads a local control file by mapping it into memory. The header is parsed from the mapping and the strong
+     * checksums of the returned block sums point into the mapping rather than being copied to the heap; only the
+     * rolling checksums are decoded into an array. Control files too large to be mapped in one piece are read as a
+     * stream instead.
+     *
+     * @param file
+     * @param listener
+     * @return
+     * @throws IOException
+     */
+    public static ControlFile map(File file, ResourceTransferListener<File> listener) throws IOException {
+        try (final FileChannel channel = new FileInputStream(file).getChannel()) {
+            final long size = channel.size();
+            listener.start(file, size);
+            if (size > Integer.MAX_VALUE) {
+                final ControlFile controlFile = read(Channels.newInputStream(channel));
+                listener.transferred(size);
+                return controlFile;
+            }
+            final MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, size);
+            final Header header = Header.read(buffer);
+            final int numBlocks = header.getNumBlocks();
+            final int rsumBytes = header.getRsumBytes();
+            final int stride = rsumBytes + header.getChecksumBytes();
+            final int start = buffer.position();
+            if ((long) numBlocks * stride > size - start) {
+                throw new IOException("Failed to read block checksums: premature end of file");
+            }
+            final int[] rsums = new int[numBlocks];
+            for (int i = 0, p = start; i < numBlocks; i++, p += stride) {
+                int rsum = 0;
+                for (int j = 0; j < rsumBytes; j++) {
+                    rsum = rsum << 8 | buffer.get(p + j) & 0xFF;
+                }
+                rsums[i] = rsum;
+            }
+            listener.transferred(size);
+            return new ControlFile(header,
+                    new BlockSums(rsums, buffer, start + rsumBytes, stride, header.getChecksumBytes()));
+        } finally {
+            listener.close();
+        }
+    }
+
     public Header getHeader() {
         return this.header;
     }
 
-    public List<? extends BlockSum> getBlockSums() {
+    public BlockSums getBlockSums() {
         return this.blockSums;
     }
 
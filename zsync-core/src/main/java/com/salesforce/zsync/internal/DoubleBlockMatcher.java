@@ -25,55 +25,85 @@
  */
 package com.salesforce.zsync.internal;
 
-import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableSet;
+import com.salesforce.zsync.internal.util.BitHashFilter;
+import com.salesforce.zsync.internal.util.LongHashSet;
 import com.salesforce.zsync.internal.util.ReadableByteBuffer;
+import com.salesforce.zsync.internal.util.RollingReadableByteBuffer;
 import com.salesforce.zsync.internal.util.ZsyncUtil;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.List;
-import java.util.Set;
+import java.util.Arrays;
 
 import static com.salesforce.zsync.internal.DoubleBlockMatcher.State.*;
 import static com.salesforce.zsync.internal.util.ZsyncUtil.toLong;
 
 public class DoubleBlockMatcher extends BlockMatcher {
 
+    private final Header header;
     private final int blockSize;
-    private final Set<Long> rsumHashSet;
+    private final BlockSums blockSums;
+    private final LongHashSet rsumHashSet;
+    private final BitHashFilter rsumFilter;
     private final MutableBlockSum currentBlockSum;
     private final MutableBlockSum nextBlockSum;
     // mutable state, carried over across invocations
     private State state;
-    private List<Integer> matches;
+    // positions matched by the last invocation, reused to avoid allocation
+    private int[] matches = new int[4];
+    private int numMatches;
     private byte firstByte;
 
     public DoubleBlockMatcher(ControlFile controlFile) {
-        final Header header = controlFile.getHeader();
-        this.blockSize = header.getBlocksize();
+        this(controlFile, null);
+    }
+
+    public DoubleBlockMatcher(ControlFile controlFile, Integer rsumFilterBits) {
+        this.header = controlFile.getHeader();
+        this.blockSize = this.header.getBlocksize();
 
         this.state = INIT;
-        final MessageDigest digest = ZsyncUtil.newMD4();
+        final MessageDigest digest = ZsyncUtil.newChecksumDigest(this.header.getChecksumAlgorithm());
         this.currentBlockSum =
-                new MutableBlockSum(digest, this.blockSize, header.getRsumBytes(), header.getChecksumBytes());
-        this.nextBlockSum = new MutableBlockSum(digest, this.blockSize, header.getRsumBytes(), header.getChecksumBytes());
-        this.rsumHashSet = computeRsumHashSet(controlFile.getBlockSums());
-    }
-
-    static Set<Long> computeRsumHashSet(Iterable<? extends BlockSum> blockSums) {
-        final ImmutableSet.Builder<Long> b = ImmutableSet.builder();
-        final Iterator<? extends BlockSum> it = blockSums.iterator();
-        if (it.hasNext()) {
-            BlockSum prev = it.next();
-            while (it.hasNext()) {
-                final BlockSum cur = it.next();
-                b.add(toLong(prev.getRsum(), cur.getRsum()));
-                prev = cur;
+                new MutableBlockSum(digest, this.blockSize, this.header.getRsumBytes(), this.header.getChecksumBytes());
+        this.nextBlockSum =
+                new MutableBlockSum(digest, this.blockSize, this.header.getRsumBytes(), this.header.getChecksumBytes());
+        this.blockSums = controlFile.getBlockSums();
+        final long[] pairs = computeRsumPairs(this.blockSums.getRsums());
+        this.rsumHashSet = LongHashSet.copyOf(pairs, pairs.length);
+        this.rsumFilter = newRsumFilter(pairs.length, rsumFilterBits);
+        if (this.rsumFilter != null) {
+            for (long pair : pairs) {
+                this.rsumFilter.add(pair);
             }
         }
-        return b.build();
+    }
+
+    private DoubleBlockMatcher(DoubleBlockMatcher other) {
+        this.header = other.header;
+        this.blockSize = other.blockSize;
+        this.blockSums = other.blockSums;
+        this.rsumHashSet = other.rsumHashSet;
+        this.rsumFilter = other.rsumFilter;
+        this.state = INIT;
+        final MessageDigest digest = ZsyncUtil.newChecksumDigest(this.header.getChecksumAlgorithm());
+        this.currentBlockSum =
+                new MutableBlockSum(digest, this.blockSize, this.header.getRsumBytes(), this.header.getChecksumBytes());
+        this.nextBlockSum =
+                new MutableBlockSum(digest, this.blockSize, this.header.getRsumBytes(), this.header.getChecksumBytes());
+    }
+
+    @Override
+    public BlockMatcher copy() {
+        return new DoubleBlockMatcher(this);
+    }
+
+    static long[] computeRsumPairs(int[] rsums) {
+        final long[] pairs = new long[Math.max(0, rsums.length - 1)];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = toLong(rsums[i], rsums[i + 1]);
+        }
+        return pairs;
     }
 
     @Override
@@ -81,6 +111,11 @@ public class DoubleBlockMatcher extends BlockMatcher {
         return 2 * this.blockSize;
     }
 
+    @Override
+    public int getRsumFilterBits() {
+        return this.rsumFilter == null ? 0 : this.rsumFilter.getBits();
+    }
+
     @Override
     public int match(OutputFileWriter outputFile, ReadableByteBuffer buffer) {
         switch (this.state) {
@@ -88,8 +123,8 @@ public class DoubleBlockMatcher extends BlockMatcher {
                 // initially we have to compute the rsum from scratch for both blocks
                 this.currentBlockSum.rsum.init(buffer, 0, this.blockSize);
                 this.nextBlockSum.rsum.init(buffer, this.blockSize, this.blockSize);
-                this.matches = this.tryMatchBoth(outputFile, buffer);
-                return this.matches.isEmpty() ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
+                this.numMatches = this.tryMatchBoth(outputFile, buffer);
+                return this.numMatches == 0 ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
             case MISSED:
                 // if we missed last time, update rolling sums by one byte and reset checksums
                 final byte newByte = buffer.get(this.blockSize - 1);
@@ -97,8 +132,12 @@ public class DoubleBlockMatcher extends BlockMatcher {
                 this.currentBlockSum.checksum.unset();
                 this.nextBlockSum.rsum.update(newByte, buffer.get(buffer.length() - 1));
                 this.nextBlockSum.checksum.unset();
-                this.matches = this.tryMatchBoth(outputFile, buffer);
-                return this.matches.isEmpty() ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
+                this.numMatches = this.tryMatchBoth(outputFile, buffer);
+                return this.numMatches == 0 ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
+            case ROLLED:
+                // the rolling sums were rolled forward to this window by roll
+                this.numMatches = this.tryMatchBoth(outputFile, buffer);
+                return this.numMatches == 0 ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
             case MATCHED_FIRST:
                 // if we matched the first block last time, reuse rolling sum for current block
                 this.currentBlockSum.rsum.init(this.nextBlockSum.rsum);
@@ -108,15 +147,15 @@ public class DoubleBlockMatcher extends BlockMatcher {
                 if (this.nextBlockSum.checksum.isSet()) {
                     this.currentBlockSum.checksum.setChecksum(this.nextBlockSum.checksum);
                     this.nextBlockSum.checksum.unset();
-                    this.matches = this.tryMatchNext(outputFile, buffer);
+                    this.numMatches = this.tryMatchNext(outputFile, buffer);
                 }
                 // Otherwise, try to match a double block based on the combined rolling sum
                 else {
                     this.currentBlockSum.checksum.unset();
                     this.nextBlockSum.checksum.unset();
-                    this.matches = this.tryMatchBoth(outputFile, buffer);
+                    this.numMatches = this.tryMatchBoth(outputFile, buffer);
                 }
-                return this.matches.isEmpty() ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
+                return this.numMatches == 0 ? this.missed(buffer) : this.matchedBoth(outputFile, buffer);
             case MATCHED_BOTH:
                 // if we matched both blocks last time, reuse rolling sum and checksum for current block
                 this.currentBlockSum.rsum.init(this.nextBlockSum.rsum);
@@ -124,26 +163,90 @@ public class DoubleBlockMatcher extends BlockMatcher {
                 this.nextBlockSum.rsum.init(buffer, this.blockSize, this.blockSize);
                 this.nextBlockSum.checksum.unset();
                 // now try to find where current and next match (may overlap with previous matches)
-                this.matches = this.tryMatchNext(outputFile, buffer);
-                return this.matches.isEmpty() ? this.matchedFirst() : this.matchedBoth(outputFile, buffer);
+                this.numMatches = this.tryMatchNext(outputFile, buffer);
+                return this.numMatches == 0 ? this.matchedFirst() : this.matchedBoth(outputFile, buffer);
             default:
                 throw new RuntimeException("unmatched state");
         }
     }
 
     private int missed(ReadableByteBuffer buffer) {
+        if (buffer instanceof RollingReadableByteBuffer) {
+            final ByteBuffer view = ((RollingReadableByteBuffer) buffer).lookahead();
+            final int max = Math.min(view.limit() - 2 * this.blockSize, buffer.length());
+            if (max > 0) {
+                this.currentBlockSum.checksum.unset();
+                this.nextBlockSum.checksum.unset();
+                this.state = ROLLED;
+                return this.roll(view, max);
+            }
+        }
         this.state = MISSED;
         this.firstByte = buffer.get(0);
         return 1;
     }
 
+    /**
+     * Rolls the rolling sums of the two blocks of the window at the start of the given view forward one byte at a time
+     * until they are the sums of some pair of consecutive blocks of the target file, or until they have been rolled by
+     * the given maximum number of bytes. Only the sums rolled over are looked up, not the ones rolled to, which are left
+     * to {@link #match(OutputFileWriter, ReadableByteBuffer)} once the window has been advanced.
+     *
+     * @param view window and bytes following it
+     * @param max  maximum number of bytes to roll by, at least one
+     * @return number of bytes rolled by
+     */
+    private int roll(ByteBuffer view, int max) {
+        final Rsum current = this.currentBlockSum.rsum;
+        final Rsum next = this.nextBlockSum.rsum;
+        final int bitmask = current.bitmask;
+        final int blockShift = current.blockShift;
+        final int blockSize = this.blockSize;
+        final BitHashFilter filter = this.rsumFilter;
+        final LongHashSet pairs = this.rsumHashSet;
+        int a1 = current.a;
+        int b1 = current.b;
+        int a2 = next.a;
+        int b2 = next.b;
+        long lookups = 0;
+        long filterHits = 0;
+        int i = 0;
+        while (true) {
+            final int o = view.get(i) & 0xFF;
+            final int m = view.get(i + blockSize) & 0xFF;
+            a1 += m - o;
+            b1 += a1 - (o << blockShift);
+            a2 += (view.get(i + 2 * blockSize) & 0xFF) - m;
+            b2 += a2 - (m << blockShift);
+            if (++i == max) {
+                break;
+            }
+            final long r = toLong(((a1 << 16) | (b1 & 0xffff)) & bitmask, ((a2 << 16) | (b2 & 0xffff)) & bitmask);
+            if (filter == null || filter.mightContain(r)) {
+                if (pairs.contains(r)) {
+                    break;
+                }
+                filterHits++;
+            }
+            lookups++;
+        }
+        current.a = (short) a1;
+        current.b = (short) b1;
+        next.a = (short) a2;
+        next.b = (short) b2;
+        this.rsumLookups += lookups;
+        this.rsumFilterHits += filterHits;
+        return i;
+    }
+
     private int matchedFirst() {
         this.state = MATCHED_FIRST;
         return this.blockSize;
     }
 
     private int matchedBoth(OutputFileWriter outputFile, ReadableByteBuffer buffer) {
-        for (int p : this.matches) {
+        for (int i = 0; i < this.numMatches; i++) {
+            int p = this.matches[i];
             outputFile.writeBlock(p, buffer, 0);
             if (++p != outputFile.getNumBlocks()) {
                 outputFile.writeBlock(p, buffer, this.blockSize);
@@ -153,57 +256,63 @@ public class DoubleBlockMatcher extends BlockMatcher {
         return this.blockSize;
     }
 
-    private List<Integer> tryMatchBoth(final OutputFileWriter outputFile, final ReadableByteBuffer buffer) {
-        final List<Integer> matches;
-        final Long r = toLong(this.currentBlockSum.rsum.toInt(), this.nextBlockSum.rsum.toInt());
-        // cheap negative check followed by more expensive check
-        if (this.rsumHashSet.contains(r)) {
+    private int tryMatchBoth(final OutputFileWriter outputFile, final ReadableByteBuffer buffer) {
+        final long r = toLong(this.currentBlockSum.rsum.toInt(), this.nextBlockSum.rsum.toInt());
+        // cheap negative checks followed by more expensive check
+        if (this.mightContain(r) && this.rsumHashSet.contains(r)) {
+            this.rsumHits++;
             // need to compute current block sum
             this.currentBlockSum.checksum.setChecksum(buffer, 0, this.blockSize);
-            matches = this.tryMatchNext(outputFile, buffer);
-        } else {
-            matches = Collections.emptyList();
+            return this.tryMatchNext(outputFile, buffer);
         }
-        return matches;
+        return 0;
     }
 
-    private List<Integer> tryMatchNext(final OutputFileWriter outputFile, final ReadableByteBuffer buffer) {
-        final List<Integer> positions = outputFile.getPositions(this.currentBlockSum);
-        return positions.isEmpty() ? Collections.<Integer>emptyList() : this.filterMatches(outputFile, buffer, positions);
+    private boolean mightContain(long r) {
+        this.rsumLookups++;
+        if (this.rsumFilter == null || this.rsumFilter.mightContain(r)) {
+            this.rsumFilterHits++;
+            return true;
+        }
+        return false;
     }
 
-    private List<Integer> filterMatches(final OutputFileWriter outputFile, ReadableByteBuffer buffer, List<Integer> positions) {
-        // optimize common case
-        if (positions.size() == 1) {
-            return this.isNextMatch(outputFile, buffer, positions.get(0)) ? positions : Collections.<Integer>emptyList();
-        } else {
-            final ImmutableList.Builder<Integer> b = ImmutableList.builder();
-            for (Integer position : positions) {
-                if (this.isNextMatch(outputFile, buffer, position)) {
-                    b.add(position);
+    /**
+     * Collects positions at which the current block matches and the next block matches the successor into
+     * {@link #matches}.
+     *
+     * @return number of matches
+     */
+    private int tryMatchNext(final OutputFileWriter outputFile, final ReadableByteBuffer buffer) {
+        int n = 0;
+        for (int p = outputFile.getFirstPosition(this.currentBlockSum); p != -1; p =
+                outputFile.getNextPosition(p, this.currentBlockSum)) {
+            if (this.isNextMatch(outputFile, buffer, p)) {
+                if (n == this.matches.length) {
+                    this.matches = Arrays.copyOf(this.matches, 2 * n);
                 }
+                this.matches[n++] = p;
             }
-            return b.build();
         }
+        return n;
     }
 
-    private boolean isNextMatch(OutputFileWriter outputFile, ReadableByteBuffer buffer, Integer position) {
-        final Integer next = position + 1;
+    private boolean isNextMatch(OutputFileWriter outputFile, ReadableByteBuffer buffer, int position) {
+        final int next = position + 1;
         if (next == outputFile.getNumBlocks()) {
             return true;
         }
-        final BlockSum nextTargetBlock = outputFile.get(next);
-        if (nextTargetBlock.getRsum() == this.nextBlockSum.rsum.toInt()) {
+        if (this.blockSums.getRsum(next) == this.nextBlockSum.rsum.toInt()) {
             // compute next block sum only once
             if (!this.nextBlockSum.checksum.isSet()) {
                 this.nextBlockSum.checksum.setChecksum(buffer, this.blockSize, this.blockSize);
             }
-            return nextTargetBlock.equals(this.nextBlockSum);
+            return this.blockSums.matches(next, this.nextBlockSum);
         }
         return false;
     }
 
     static enum State {
-        INIT, MISSED, MATCHED_FIRST, MATCHED_BOTH;
+        INIT, MISSED, ROLLED, MATCHED_FIRST, MATCHED_BOTH;
     }
 }
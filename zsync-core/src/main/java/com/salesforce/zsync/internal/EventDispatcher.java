@@ -34,17 +34,18 @@ import com.salesforce.zsync.internal.util.HttpClient.RangeTransferListener;
 import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
 import okhttp3.Request;
 import okhttp3.Response;
+import okio.Source;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.util.List;
 
 
 /**
  * A {@link ZsyncObserver} that forwards observed events to a configurable list of additional zsync
- * observers.
+ * observers. Byte counts written to the output file and read from input files may be reported concurrently
+ * by parallel scans and are serialized before being passed on to the observer.
  *
  * @author bstclair
  */
@@ -130,7 +131,9 @@ public class EventDispatcher {
 
             @Override
             public void transferred(long bytes) {
-                EventDispatcher.this.observer.bytesWritten(bytes);
+                synchronized (EventDispatcher.this) {
+                    EventDispatcher.this.observer.bytesWritten(bytes);
+                }
             }
 
             @Override
@@ -149,7 +152,9 @@ public class EventDispatcher {
 
             @Override
             public void transferred(long bytes) {
-                EventDispatcher.this.observer.bytesRead(bytes);
+                synchronized (EventDispatcher.this) {
+                    EventDispatcher.this.observer.bytesRead(bytes);
+                }
             }
 
             @Override
@@ -159,6 +164,33 @@ public class EventDispatcher {
         };
     }
 
+    /**
+     * Reports the events of reading an input file that has been scanned concurrently with other input files in one go,
+     * so that the observer sees the events of one input file at a time.
+     *
+     * @param inputFile
+     * @param length
+     * @param bytesRead
+     * @param matcher
+     */
+    public synchronized void inputFileScanned(File inputFile, long length, long bytesRead, BlockMatcher matcher) {
+        this.observer.inputFileReadingStarted(inputFile, length);
+        this.observer.bytesRead(bytesRead);
+        this.weakChecksumLookupsCompleted(matcher);
+        this.observer.inputFileReadingComplete();
+    }
+
+    public void weakChecksumLookupsCompleted(BlockMatcher matcher) {
+        this.observer.weakChecksumLookupsCompleted(matcher.getRsumFilterBits(), matcher.getRsumLookups(),
+                matcher.getRsumFilterHits(), matcher.getRsumHits());
+    }
+
+    /**
+     * Returns a listener for range requests to the remote file. Requests may be executed concurrently, so events are
+     * passed on to the observer one at a time.
+     *
+     * @return
+     */
     public RangeTransferListener getRemoteFileDownloadListener() {
         return new RangeTransferListener() {
             @Override
@@ -167,7 +199,9 @@ public class EventDispatcher {
                     @Override
                     public void initiating(Request request) {
                         try {
-                            EventDispatcher.this.observer.remoteFileDownloadingInitiated(request.url().uri(), ranges);
+                            synchronized (EventDispatcher.this) {
+                                EventDispatcher.this.observer.remoteFileDownloadingInitiated(request.url().uri(), ranges);
+                            }
                         } catch (Exception e) {
                             throw new RuntimeException(e);
                         }
@@ -176,8 +210,10 @@ public class EventDispatcher {
                     @Override
                     public void start(Response resource, long length) {
                         try {
-                            EventDispatcher.this.observer.remoteFileDownloadingStarted(resource.request().url().uri(), resource.body()
-                                    .contentLength());
+                            synchronized (EventDispatcher.this) {
+                                EventDispatcher.this.observer.remoteFileDownloadingStarted(resource.request().url().uri(),
+                                        resource.body().contentLength());
+                            }
                         } catch (Exception e) {
                             throw new RuntimeException(e);
                         }
@@ -185,12 +221,16 @@ public class EventDispatcher {
 
                     @Override
                     public void transferred(long bytes) {
-                        EventDispatcher.this.observer.bytesDownloaded(bytes);
+                        synchronized (EventDispatcher.this) {
+                            EventDispatcher.this.observer.bytesDownloaded(bytes);
+                        }
                     }
 
                     @Override
                     public void close() throws IOException {
-                        EventDispatcher.this.observer.remoteFileDownloadingComplete();
+                        synchronized (EventDispatcher.this) {
+                            EventDispatcher.this.observer.remoteFileDownloadingComplete(ranges);
+                        }
                     }
                 };
             }
@@ -200,9 +240,11 @@ public class EventDispatcher {
     public RangeReceiver getRangeReceiverListener(final RangeReceiver rangeReceiver) {
         return new RangeReceiver() {
             @Override
-            public void receive(ContentRange range, InputStream in) throws IOException {
-                rangeReceiver.receive(range, in);
-                EventDispatcher.this.observer.remoteFileRangeReceived(range);
+            public void receive(ContentRange range, Source source) throws IOException {
+                rangeReceiver.receive(range, source);
+                synchronized (EventDispatcher.this) {
+                    EventDispatcher.this.observer.remoteFileRangeReceived(range);
+                }
             }
         };
     }
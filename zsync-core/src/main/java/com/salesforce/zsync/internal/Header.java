@@ -31,6 +31,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 import java.util.Date;
 
@@ -49,9 +51,16 @@ public class Header {
     private final boolean seqMatches;
     private final String url;
     private final String sha1;
+    private final String checksumAlgorithm;
 
     public Header(String version, String filename, Date mtime, int blocksize, long length, int checksumBytes,
                   int rsumBytes, boolean seqMatches, String url, String sha1) {
+        this(version, filename, mtime, blocksize, length, checksumBytes, rsumBytes, seqMatches, url, sha1,
+                ZsyncUtil.MD4);
+    }
+
+    public Header(String version, String filename, Date mtime, int blocksize, long length, int checksumBytes,
+                  int rsumBytes, boolean seqMatches, String url, String sha1, String checksumAlgorithm) {
         this.version = version;
         this.filename = filename;
         this.mtime = mtime;
@@ -62,9 +71,47 @@ public class Header {
         this.seqMatches = seqMatches;
         this.url = url;
         this.sha1 = sha1;
+        this.checksumAlgorithm = checksumAlgorithm;
     }
 
     public static Header read(InputStream in) throws IOException {
+        return read(new BufferedReader(new InputStreamReader(in, US_ASCII)));
+    }
+
+    /**
+     * Reads the header starting at the position of the given buffer, e.g. a mapped control file, and advances the
+     * position past the empty line terminating the header, i.e. to the start of the block sums.
+     *
+     * @param buffer
+     * @return
+     */
+    public static Header read(ByteBuffer buffer) {
+        final int start = buffer.position();
+        int end = -1;
+        if (start < buffer.limit() && buffer.get(start) == '\n') {
+            end = start + 1;
+        } else {
+            for (int i = start; i < buffer.limit() - 1; i++) {
+                if (buffer.get(i) == '\n' && buffer.get(i + 1) == '\n') {
+                    end = i + 2;
+                    break;
+                }
+            }
+        }
+        if (end == -1) {
+            throw new IllegalArgumentException("Invalid header: terminating line feed missing.");
+        }
+        final ByteBuffer header = buffer.duplicate();
+        header.limit(end);
+        buffer.position(end);
+        try {
+            return read(new BufferedReader(new StringReader(US_ASCII.decode(header).toString())));
+        } catch (IOException e) {
+            throw new RuntimeException("Unexpected error reading from string", e);
+        }
+    }
+
+    private static Header read(BufferedReader reader) throws IOException {
         String version = null;
         String filename = null;
         Date mtime = null;
@@ -76,10 +123,10 @@ public class Header {
         boolean seqMatches = false;
         String url = null;
         String sha1 = null;
+        String checksumAlgorithm = ZsyncUtil.MD4;
 
         boolean terminated = false;
         String line;
-        BufferedReader reader = new BufferedReader(new InputStreamReader(in, US_ASCII));
         while ((line = reader.readLine()) != null) {
             if (line.length() == 0) {
                 terminated = true;
@@ -141,6 +188,12 @@ public class Header {
                 } catch (NumberFormatException e) {
                     throwInvalidHeaderValue(name, value);
                 }
+            } else if ("Hash-Algorithm".equals(name)) {
+                // not understood by stock zsync, so that it rejects control files with checksums it cannot verify
+                if (!ZsyncUtil.isChecksumAlgorithm(value)) {
+                    throwInvalidHeaderValue(name, value);
+                }
+                checksumAlgorithm = value;
             } else if ("SHA-1".equals(name)) {
                 if (value.length() != 40) {
                     throwInvalidHeaderValue(name, value);
@@ -148,7 +201,10 @@ public class Header {
                 sha1 = value;
             } else if ("MTime".equals(name)) {
                 try {
-                    mtime = ZsyncUtil.LAST_MODIFIED_TIME_FORMAT.parse(value);
+                    // the format is shared and not thread safe
+                    synchronized (ZsyncUtil.LAST_MODIFIED_TIME_FORMAT) {
+                        mtime = ZsyncUtil.LAST_MODIFIED_TIME_FORMAT.parse(value);
+                    }
                 } catch (ParseException e) {
                     throwInvalidHeaderValue(name, value);
                 }
@@ -175,7 +231,8 @@ public class Header {
         if (sha1 == null) {
             throwMissingHeader("SHA-1");
         }
-        return new Header(version, filename, mtime, blocksize, length, checksumBytes, rsumBytes, seqMatches, url, sha1);
+        return new Header(version, filename, mtime, blocksize, length, checksumBytes, rsumBytes, seqMatches, url, sha1,
+                checksumAlgorithm);
     }
 
     private static void throwInvalidHeaderValue(String name, String value) {
@@ -226,6 +283,14 @@ public class Header {
         return this.sha1;
     }
 
+    /**
+     * @return name of the algorithm of the strong block checksums, {@link ZsyncUtil#MD4} unless specified by the
+     * Hash-Algorithm header
+     */
+    public String getChecksumAlgorithm() {
+        return this.checksumAlgorithm;
+    }
+
     public int getNumBlocks() {
         return (int) ((this.length + this.blocksize - 1) / this.blocksize);
     }
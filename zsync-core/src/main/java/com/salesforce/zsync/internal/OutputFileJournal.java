@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.internal.util.AtomicBitSet;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Sidecar file of the partial output file that records which blocks have been written, so that an interrupted zsync can
+ * resume without fetching or matching those blocks again. The journal consists of a header identifying the target file
+ * by its length, block size and SHA-1 as given in the control file, followed by a bitmap of the blocks written.
+ * <p>
+ * Blocks are recorded in memory as they are written and the bitmap is written out at most once per sync interval. To
+ * make sure the journal never lists blocks whose data could be lost, the output file is forced to disk before the bitmap
+ * is written and forced in turn.
+ */
+final class OutputFileJournal implements Closeable {
+
+    private static final long MAGIC = 0x7a73796e634a726eL; // "zsyncJrn"
+    private static final int VERSION = 1;
+    // magic, version, length, block size, SHA-1 hex string
+    private static final int HEADER_SIZE = 8 + 4 + 8 + 4 + 40;
+
+    private final File file;
+    private final FileChannel channel;
+    private final FileChannel output;
+    private final AtomicBitSet written;
+    private final long syncIntervalNanos;
+    private volatile long lastSync;
+
+    private OutputFileJournal(File file, FileChannel channel, FileChannel output, AtomicBitSet written,
+                              long syncIntervalMillis) {
+        this.file = file;
+        this.channel = channel;
+        this.output = output;
+        this.written = written;
+        this.syncIntervalNanos = MILLISECONDS.toNanos(syncIntervalMillis);
+        this.lastSync = System.nanoTime();
+    }
+
+    /**
+     * Opens the journal in the given file for the output file written through the given channel. If the journal exists
+     * and belongs to the same target file, the blocks recorded in it are restored, otherwise it is reset.
+     *
+     * @param file               journal file
+     * @param output             channel of the partial output file
+     * @param header             header of the control file
+     * @param numBlocks          number of blocks of the target file
+     * @param syncIntervalMillis minimum interval between writes of the bitmap
+     * @return
+     * @throws IOException
+     */
+    static OutputFileJournal open(File file, FileChannel output, Header header, int numBlocks, long syncIntervalMillis)
+            throws IOException {
+        if (syncIntervalMillis < 0) {
+            throw new IllegalArgumentException("sync interval must not be negative");
+        }
+        final FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            final ByteBuffer expected = header(header);
+            final AtomicBitSet written = new AtomicBitSet(numBlocks);
+            final long[] words = read(channel, expected, numBlocks);
+            if (words == null) {
+                // new journal or one for a different target
+                channel.truncate(0);
+                channel.write(expected, 0);
+                channel.write(ByteBuffer.allocate(numWords(numBlocks) * 8), HEADER_SIZE);
+                channel.force(false);
+            } else {
+                for (int i = 0; i < numBlocks; i++) {
+                    if ((words[i >>> 6] & (1L << i)) != 0) {
+                        written.set(i);
+                    }
+                }
+            }
+            return new OutputFileJournal(file, channel, output, written, syncIntervalMillis);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static int numWords(int numBlocks) {
+        return (numBlocks + 63) >>> 6;
+    }
+
+    private static ByteBuffer header(Header header) {
+        final byte[] sha1 = header.getSha1().getBytes(US_ASCII);
+        if (sha1.length != 40) {
+            throw new IllegalArgumentException("Invalid SHA-1 " + header.getSha1());
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+        buffer.putLong(MAGIC).putInt(VERSION).putLong(header.getLength()).putInt(header.getBlocksize()).put(sha1);
+        buffer.flip();
+        return buffer;
+    }
+
+    // returns the bitmap words if the journal has the expected header and size, null otherwise
+    private static long[] read(FileChannel channel, ByteBuffer expected, int numBlocks) throws IOException {
+        final int numWords = numWords(numBlocks);
+        if (channel.size() != HEADER_SIZE + numWords * 8L) {
+            return null;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, buffer.position()) < 0) {
+                return null;
+            }
+        }
+        buffer.flip();
+        buffer.limit(HEADER_SIZE);
+        if (!buffer.equals(expected)) {
+            return null;
+        }
+        buffer.limit(buffer.capacity()).position(HEADER_SIZE);
+        final long[] words = new long[numWords];
+        buffer.asLongBuffer().get(words);
+        return words;
+    }
+
+    /**
+     * Returns the blocks recorded as written when the journal was opened and since
+     *
+     * @return
+     */
+    AtomicBitSet getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Records that the given block has been written to the output file and syncs the journal if the sync interval has
+     * elapsed.
+     *
+     * @param block
+     * @throws IOException
+     */
+    void written(int block) throws IOException {
+        this.written.set(block);
+        this.maybeSync();
+    }
+
+    /**
+     * Records that the given blocks have been written to the output file and syncs the journal if the sync interval has
+     * elapsed.
+     *
+     * @param first first block, inclusive
+     * @param last  last block, inclusive
+     * @throws IOException
+     */
+    void written(int first, int last) throws IOException {
+        for (int i = first; i <= last; i++) {
+            this.written.set(i);
+        }
+        this.maybeSync();
+    }
+
+    private void maybeSync() throws IOException {
+        if (System.nanoTime() - this.lastSync >= this.syncIntervalNanos) {
+            synchronized (this) {
+                if (System.nanoTime() - this.lastSync >= this.syncIntervalNanos) {
+                    this.sync();
+                }
+            }
+        }
+    }
+
+    /**
+     * Forces the output file to disk and writes the bitmap of blocks written so far.
+     *
+     * @throws IOException
+     */
+    synchronized void sync() throws IOException {
+        // blocks are recorded after they are written, so all blocks in the snapshot are durable once the output is forced
+        final long[] words = this.written.toLongArray();
+        this.output.force(false);
+        final ByteBuffer buffer = ByteBuffer.allocate(words.length * 8);
+        buffer.asLongBuffer().put(words);
+        while (buffer.hasRemaining()) {
+            this.channel.write(buffer, HEADER_SIZE + buffer.position());
+        }
+        this.channel.force(false);
+        this.lastSync = System.nanoTime();
+    }
+
+    /**
+     * Closes and deletes the journal, e.g. once the output file is complete
+     *
+     * @throws IOException
+     */
+    void delete() throws IOException {
+        this.channel.close();
+        if (!this.file.delete() && this.file.exists()) {
+            throw new IOException("Failed to delete journal " + this.file);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
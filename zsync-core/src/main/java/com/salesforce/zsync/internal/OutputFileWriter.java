@@ -26,23 +26,34 @@
 package com.salesforce.zsync.internal;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.ImmutableListMultimap;
-import com.google.common.collect.ListMultimap;
 import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.util.AtomicBitSet;
+import com.salesforce.zsync.internal.util.FileRegionWritableByteChannel;
 import com.salesforce.zsync.internal.util.HttpClient.RangeReceiver;
 import com.salesforce.zsync.internal.util.ReadableByteBuffer;
 import com.salesforce.zsync.internal.util.TransferListener;
 import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
 import com.salesforce.zsync.internal.util.ZsyncUtil;
+import okio.Buffer;
+import okio.Source;
 
 import java.io.*;
-import java.nio.channels.Channels;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.channels.ReadableByteChannel;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Writes blocks to the output file. Blocks may be written concurrently by multiple matchers and range receivers: all
+ * writes are positional and completion is tracked in an atomic bit set without locking.
+ */
 public class OutputFileWriter implements RangeReceiver, Closeable {
 
+    // size of the buffers range bodies are received through
+    static final int RECEIVE_BUFFER_SIZE = 64 * 1024;
+
     // immutable state
     private final File path;
     private final File tempPath;
@@ -52,16 +63,36 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
     private final long length;
     private final String sha1;
     private final long mtime;
-    private final List<BlockSum> blockSums;
-    private final ListMultimap<BlockSum, Integer> positions;
+    private final BlockSums blockSums;
+    private final BlockSumIndex positions;
     // mutable state
     private final FileChannel channel;
-    private final boolean[] completed;
-    private int blocksRemaining;
+    private final AtomicBitSet completed;
+    private final AtomicInteger blocksRemaining;
+    // buffers for receiving ranges, reused across requests and pooled since ranges may be received concurrently
+    private final Queue<ReceiveBuffer> receiveBuffers = new ConcurrentLinkedQueue<>();
+    // null if the output file is not resumable
+    private final OutputFileJournal journal;
     private TransferListener listener;
 
     public OutputFileWriter(File path, ControlFile controlFile, ResourceTransferListener<File> listener)
             throws IOException {
+        this(path, controlFile, listener, -1);
+    }
+
+    /**
+     * Creates a writer for the given output file. If the journal sync interval is not negative, the blocks written to
+     * the partial output file are recorded in a journal next to it, so that a later writer for the same target file can
+     * resume from the blocks recorded there.
+     *
+     * @param path
+     * @param controlFile
+     * @param listener
+     * @param journalSyncIntervalMillis minimum interval between journal syncs or negative to not keep a journal
+     * @throws IOException
+     */
+    public OutputFileWriter(File path, ControlFile controlFile, ResourceTransferListener<File> listener,
+                            long journalSyncIntervalMillis) throws IOException {
         this.path = path;
         this.listener = listener;
 
@@ -84,22 +115,33 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
         } else {
             this.tempPath = new File(tmpName);
         }
+        final File journalPath = new File(this.tempPath.getPath() + ".journal");
+        if (!this.tempPath.exists()) {
+            // journal is meaningless without the partial file it refers to
+            journalPath.delete();
+        }
         //this.channel = FileChannel.open(this.tempPath, CREATE, WRITE, READ);
         this.channel = new RandomAccessFile(this.tempPath, "rw").getChannel();
 
 
-        this.blockSums = ImmutableList.copyOf(controlFile.getBlockSums());
-        this.positions = indexPositions(this.blockSums);
-        this.completed = new boolean[this.blockSums.size()];
-        this.blocksRemaining = this.completed.length;
-    }
+        this.blockSums = controlFile.getBlockSums();
+        this.positions = new BlockSumIndex(this.blockSums);
+        this.completed = new AtomicBitSet(this.blockSums.size());
+        this.blocksRemaining = new AtomicInteger(this.completed.size());
 
-    static ListMultimap<BlockSum, Integer> indexPositions(List<BlockSum> blockSums) {
-        final ImmutableListMultimap.Builder<BlockSum, Integer> b = ImmutableListMultimap.builder();
-        for (int i = 0; i < blockSums.size(); i++) {
-            b.put(blockSums.get(i), i);
+        if (journalSyncIntervalMillis < 0) {
+            this.journal = null;
+        } else {
+            this.journal = OutputFileJournal.open(journalPath, this.channel, header, this.completed.size(),
+                    journalSyncIntervalMillis);
+            // resume from blocks written by a previous writer
+            final AtomicBitSet written = this.journal.getWritten();
+            for (int i = 0; i < written.size(); i++) {
+                if (written.get(i) && this.completed.set(i)) {
+                    this.blocksRemaining.decrementAndGet();
+                }
+            }
         }
-        return b.build();
     }
 
     public int getNumBlocks() {
@@ -110,35 +152,73 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
         return this.blockSums.get(index);
     }
 
-    public List<Integer> getPositions(BlockSum sum) {
-        return this.positions.get(sum);
+    /**
+     * Returns the first position of a block matching the given sum or -1 if there is none
+     *
+     * @param sum
+     * @return
+     */
+    public int getFirstPosition(BlockSum sum) {
+        return this.positions.first(sum);
+    }
+
+    /**
+     * Returns the next position after the given one of a block matching the given sum or -1 if there is none
+     *
+     * @param position
+     * @param sum
+     * @return
+     */
+    public int getNextPosition(int position, BlockSum sum) {
+        return this.positions.next(position, sum);
     }
 
     public boolean writeBlock(int position, ReadableByteBuffer data) {
         return this.writeBlock(position, data, 0);
     }
 
+    /**
+     * Writes the block at the given position from the given data unless the block has already been written.
+     *
+     * @param position
+     * @param data
+     * @param offset
+     * @return true if the block was written, false if it had already been written
+     */
     public boolean writeBlock(int position, ReadableByteBuffer data, int offset) {
-        if (this.completed[position]) {
+        // claim block first, so that concurrent matches of the same block write it only once
+        if (!this.completed.set(position)) {
             return false;
         }
-        final int l = position == this.completed.length - 1 ? this.lastBlockSize : this.blockSize;
+        final int l = position == this.completed.size() - 1 ? this.lastBlockSize : this.blockSize;
+        final long start = (long) position * this.blockSize;
+        boolean written = false;
         try {
-            this.channel.position(position * this.blockSize);
-            data.write(this.channel, offset, l);
+            data.write(new FileRegionWritableByteChannel(this.channel, start, start + l), offset, l);
             this.listener.transferred(l);
+            if (this.journal != null) {
+                this.journal.written(position);
+            }
+            written = true;
         } catch (IOException e) {
             throw new RuntimeException("Failed to read block at position " + position, e);
+        } finally {
+            if (!written) {
+                // release the claim, so that the block is still missing and may be written again
+                this.completed.clear(position);
+            }
         }
-        this.blocksRemaining--;
-        return this.completed[position] = true;
+        // decrement only after writing, so that a complete file is fully written
+        this.blocksRemaining.decrementAndGet();
+        return true;
     }
 
     public List<ContentRange> getMissingRanges() {
         final ImmutableList.Builder<ContentRange> b = ImmutableList.builder();
         long start = -1;
-        for (int i = 0; i < this.completed.length; i++) {
-            if (this.completed[i]) {
+        final int numBlocks = this.completed.size();
+        for (int i = 0; i < numBlocks; i++) {
+            if (this.completed.get(i)) {
                 // if we're in a range, end it
                 if (start != -1) {
                     b.add(new ContentRange(start, i * this.blockSize - 1));
@@ -150,7 +230,7 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
                     start = i * this.blockSize;
                 }
                 // if this is the last block in the file map, we need to end the range
-                if (i == this.completed.length - 1) {
+                if (i == numBlocks - 1) {
                     b.add(new ContentRange(start, this.length - 1));
                 }
             }
@@ -159,11 +239,11 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
     }
 
     public boolean isComplete() {
-        return this.blocksRemaining == 0;
+        return this.blocksRemaining.get() == 0;
     }
 
     @Override
-    public void receive(ContentRange range, InputStream in) throws IOException {
+    public void receive(ContentRange range, Source source) throws IOException {
         if (range.first() % this.blockSize != 0) {
             throw new RuntimeException("Invalid range received: first byte not block aligned");
         }
@@ -171,36 +251,85 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
             throw new RuntimeException("Invalid range received: last byte not block aligned");
         }
 
-        final ReadableByteChannel src = Channels.newChannel(in);
-        final long length = range.length();
-        long remaining = length;
-        long position = range.first();
-        do {
-            long transferred = this.channel.transferFrom(src, position, length);
-            remaining -= transferred;
-            position += transferred;
-            this.listener.transferred(transferred);
-        } while (remaining > 0);
+        ReceiveBuffer buffer = this.receiveBuffers.poll();
+        if (buffer == null) {
+            buffer = new ReceiveBuffer();
+        }
+        try {
+            final long end = range.last() + 1;
+            long position = range.first();
+            while (position < end) {
+                // sources may return as little as one segment per read, so fill the buffer to write in larger chunks
+                final long chunk = Math.min(RECEIVE_BUFFER_SIZE, end - position);
+                while (buffer.segments.size() < chunk) {
+                    if (source.read(buffer.segments, chunk - buffer.segments.size()) == -1) {
+                        position += this.write(buffer, position);
+                        throw new EOFException("Range " + range + " ended after " + (position - range.first()) + " bytes");
+                    }
+                }
+                position += this.write(buffer, position);
+            }
+        } finally {
+            buffer.segments.clear();
+            this.receiveBuffers.offer(buffer);
+        }
 
         final int first = (int) (range.first() / this.blockSize);
         final int last =
-                (int) (range.last() + 1 == this.length ? this.completed.length - 1 : (range.last() + 1) / this.blockSize - 1);
+                (int) (range.last() + 1 == this.length ? this.completed.size() - 1 : (range.last() + 1) / this.blockSize - 1);
         for (int i = first; i <= last; i++) {
-            if (!this.completed[i]) {
-                this.blocksRemaining--;
-                this.completed[i] = true;
+            if (this.completed.set(i)) {
+                this.blocksRemaining.decrementAndGet();
+            }
+        }
+        if (this.journal != null) {
+            this.journal.written(first, last);
+        }
+    }
+
+    /**
+     * Writes the bytes read into the given buffer to the output file at the given position
+     *
+     * @param buffer
+     * @param position
+     * @return number of bytes written
+     * @throws IOException
+     */
+    private long write(ReceiveBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.segments.size() > 0) {
+            final int n = buffer.segments.read(buffer.bytes, 0, (int) Math.min(buffer.bytes.length, buffer.segments.size()));
+            buffer.direct.clear();
+            buffer.direct.put(buffer.bytes, 0, n);
+            buffer.direct.flip();
+            while (buffer.direct.hasRemaining()) {
+                written += this.channel.write(buffer.direct, position + written);
             }
+            this.listener.transferred(n);
         }
+        return written;
     }
 
     @Override
     public void close() throws IOException {
         try {
+            final boolean complete = this.isComplete();
+            if (this.journal != null && !complete) {
+                // keep journal to resume from
+                this.journal.sync();
+            }
             this.channel.position(0); // reset channel to beginning to compute full SHA1
             String calculatedSha1 = ZsyncUtil.computeSha1(this.channel);
             if (!this.sha1.equals(calculatedSha1)) {
+                if (this.journal != null && complete) {
+                    // blocks recorded in the journal cannot be trusted
+                    this.journal.delete();
+                }
                 throw new ChecksumValidationIOException(this.sha1, calculatedSha1);
             }
+            if (this.journal != null) {
+                this.journal.delete();
+            }
             try {
                 //Files.move(this.tempPath, this.path, REPLACE_EXISTING, ATOMIC_MOVE);
                 this.tempPath.renameTo(this.path);
@@ -214,8 +343,21 @@ public class OutputFileWriter implements RangeReceiver, Closeable {
             this.path.setLastModified(this.mtime);
         } finally {
             this.channel.close();
+            if (this.journal != null) {
+                this.journal.close();
+            }
             this.listener.close();
         }
     }
 
+    /**
+     * Segments read from a range body are copied through a heap array into a direct buffer, which the file channel writes
+     * from without copying again.
+     */
+    private static final class ReceiveBuffer {
+        final Buffer segments = new Buffer();
+        final byte[] bytes = new byte[RECEIVE_BUFFER_SIZE];
+        final ByteBuffer direct = ByteBuffer.allocateDirect(RECEIVE_BUFFER_SIZE);
+    }
+
 }
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.http.ContentRange;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+
+/**
+ * Block checksums of a previous version of a file, from which the checksums of blocks that have not changed since are
+ * reused rather than recomputed. Which blocks may be unchanged is decided by a cheap first pass, either comparing the
+ * bytes of each block with those of the previous version of the file or excluding blocks that overlap ranges known to
+ * have changed. A block is only reused if, in addition, its rolling checksum is the same as in the previous version.
+ */
+public abstract class PreviousChecksums {
+
+    private final Header header;
+    private final BlockSums blockSums;
+
+    PreviousChecksums(ControlFile controlFile) {
+        this.header = controlFile.getHeader();
+        this.blockSums = controlFile.getBlockSums();
+    }
+
+    /**
+     * Returns the checksums of the given control file of a previous version of a file, reused for blocks whose bytes
+     * are the same as in the given previous version of the file.
+     *
+     * @param controlFile control file of the previous version of the file
+     * @param previousFile previous version of the file
+     * @return
+     * @throws IOException
+     * @throws IllegalArgumentException if the length of the previous file differs from the one in the control file
+     */
+    public static PreviousChecksums ofPreviousFile(ControlFile controlFile, final FileChannel previousFile)
+            throws IOException {
+        final long length = controlFile.getHeader().getLength();
+        if (previousFile.size() != length) {
+            throw new IllegalArgumentException(
+                    "Previous file length " + previousFile.size() + " does not match control file length " + length);
+        }
+        return new PreviousChecksums(controlFile) {
+            @Override
+            void compare(long position, ByteBuffer chunk, int blockSize, boolean[] unchanged) throws IOException {
+                final long size = Math.min(chunk.limit(), length - position);
+                if (size <= 0) {
+                    return;
+                }
+                final ByteBuffer previous = previousFile.map(READ_ONLY, position, size);
+                for (int i = 0; i < unchanged.length; i++) {
+                    if (unchanged[i]) {
+                        final int start = i * blockSize;
+                        final int end = Math.min(start + blockSize, chunk.limit());
+                        unchanged[i] = slice(chunk, start, end).equals(slice(previous, start, end));
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns the checksums of the given control file of a previous version of a file, reused for blocks that do not
+     * overlap any of the given ranges. The ranges must include every byte that changed, though changes that alter the
+     * rolling checksum of a block are detected regardless.
+     *
+     * @param controlFile control file of the previous version of the file
+     * @param changedRanges ranges of the file that changed since the previous version
+     * @return
+     */
+    public static PreviousChecksums ofChangedRanges(ControlFile controlFile, List<ContentRange> changedRanges) {
+        final List<ContentRange> ranges = new ArrayList<>(changedRanges);
+        return new PreviousChecksums(controlFile) {
+            @Override
+            void compare(long position, ByteBuffer chunk, int blockSize, boolean[] unchanged) {
+                final long end = position + chunk.limit();
+                for (ContentRange range : ranges) {
+                    if (range.first() < end && range.last() >= position) {
+                        final int first = (int) ((Math.max(range.first(), position) - position) / blockSize);
+                        final int last = (int) ((Math.min(range.last(), end - 1) - position) / blockSize);
+                        for (int i = first; i <= last; i++) {
+                            unchanged[i] = false;
+                        }
+                    }
+                }
+            }
+        };
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int start, int end) {
+        final ByteBuffer view = buffer.duplicate();
+        view.limit(end).position(start);
+        return view;
+    }
+
+    /**
+     * Whether checksums computed with the given parameters can be taken from the previous version
+     *
+     * @param blockSize
+     * @param weakLength
+     * @param strongLength
+     * @param checksumAlgorithm
+     * @return
+     */
+    public boolean isCompatible(int blockSize, int weakLength, int strongLength, String checksumAlgorithm) {
+        return this.header.getBlocksize() == blockSize && this.header.getRsumBytes() == weakLength
+                && this.header.getChecksumBytes() == strongLength
+                && this.header.getChecksumAlgorithm().equals(checksumAlgorithm);
+    }
+
+    /**
+     * Returns for each block of the given chunk of the file whether it may be unchanged since the previous version. A
+     * block may only be unchanged if it has the same length in both versions, which excludes blocks at or after the end
+     * of either version unless they are the last block of both.
+     *
+     * @param position position of the chunk in the file, a multiple of the block size
+     * @param chunk bytes of the file between position 0 and the limit of the buffer
+     * @param blockSize
+     * @return
+     * @throws IOException
+     */
+    boolean[] unchanged(long position, ByteBuffer chunk, int blockSize) throws IOException {
+        final int length = chunk.limit();
+        final long firstBlock = position / blockSize;
+        final boolean[] unchanged = new boolean[(length + blockSize - 1) / blockSize];
+        boolean any = false;
+        for (int i = 0; i < unchanged.length; i++) {
+            final long block = firstBlock + i;
+            if (block < this.header.getNumBlocks()) {
+                final long previousLength = Math.min(blockSize, this.header.getLength() - block * blockSize);
+                final int blockLength = Math.min(blockSize, length - i * blockSize);
+                unchanged[i] = previousLength == blockLength;
+                any |= unchanged[i];
+            }
+        }
+        if (any) {
+            this.compare(position, chunk, blockSize, unchanged);
+        }
+        return unchanged;
+    }
+
+    /**
+     * Clears the flags of the blocks of the given chunk that changed since the previous version
+     *
+     * @param position position of the chunk in the file
+     * @param chunk bytes of the file between position 0 and the limit of the buffer
+     * @param blockSize
+     * @param unchanged flags of blocks which may be unchanged
+     * @throws IOException
+     */
+    abstract void compare(long position, ByteBuffer chunk, int blockSize, boolean[] unchanged) throws IOException;
+
+    /**
+     * Returns the trailing bytes of the rolling checksum of the given block in the previous version
+     *
+     * @param block
+     * @return
+     */
+    int getRsum(int block) {
+        return this.blockSums.getRsum(block);
+    }
+
+    /**
+     * Copies the strong checksum of the given block in the previous version into the given array
+     *
+     * @param block
+     * @param dst
+     * @param offset
+     */
+    void getChecksum(int block, byte[] dst, int offset) {
+        this.blockSums.getChecksum(block, dst, offset, this.header.getChecksumBytes());
+    }
+
+}
@@ -29,8 +29,9 @@ import com.salesforce.zsync.internal.util.ReadableByteBuffer;
 
 class Rsum {
 
-    private final int bitmask;
-    private final int blockShift;
+    // read directly by the rolling loops of the block matchers
+    final int bitmask;
+    final int blockShift;
     public short a;
     public short b;
 
@@ -64,13 +65,9 @@ class Rsum {
     }
 
     void init(ReadableByteBuffer buffer, int offset, int length) {
-        this.a = 0;
-        this.b = 0;
-        for (int i = 0, l = length; i < length; i++, l--) {
-            final short val = unsigned(buffer.get(i + offset));
-            this.a += val;
-            this.b += l * val;
-        }
+        final int rsum = buffer.rsum(offset, length);
+        this.a = (short) (rsum >>> 16);
+        this.b = (short) rsum;
     }
 
     void update(byte o, byte n) {
@@ -0,0 +1,224 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import static com.salesforce.zsync.internal.util.ZsyncUtil.newSHA1;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.toHexString;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * On-disk cache of the {@link SeedChecksums} of input files, keyed by canonical path, size, last modified time, block
+ * size and checksum algorithm. Each entry is stored in its own file in the cache directory, so that the cache can be
+ * shared by concurrent processes: entries are written to a temporary file and moved into place, and entries that cannot
+ * be read or do not match their key are recomputed. When the entries exceed the size limit of the cache, the least
+ * recently used entries are deleted, using the last modified time of the entry files as access time.
+ */
+public final class SeedChecksumCache {
+
+    private static final long MAGIC = 0x7a73796e63537573L; // "zsyncSus"
+    private static final int VERSION = 2;
+    private static final String SUFFIX = ".sums";
+
+    private final File directory;
+    private final long maxSize;
+
+    /**
+     * @param directory directory to store the entries in, created if it does not exist
+     * @param maxSize   maximum total size of the entries in bytes
+     */
+    public SeedChecksumCache(File directory, long maxSize) {
+        if (directory == null) {
+            throw new IllegalArgumentException("Cache directory must not be null");
+        }
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size must not be negative");
+        }
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached checksums of the current version of the given input file for the given block size and checksum
+     * algorithm or null if the cache does not contain them.
+     *
+     * @param inputFile
+     * @param blockSize
+     * @param checksumAlgorithm
+     * @return
+     * @throws IOException
+     */
+    public SeedChecksums get(File inputFile, int blockSize, String checksumAlgorithm) throws IOException {
+        final String path = inputFile.getCanonicalPath();
+        final long size = inputFile.length();
+        final long lastModified = inputFile.lastModified();
+        final File entry =
+                new File(this.directory, key(path, size, lastModified, blockSize, checksumAlgorithm) + SUFFIX);
+        final SeedChecksums checksums = read(entry, path, size, lastModified, blockSize, checksumAlgorithm);
+        if (checksums != null) {
+            entry.setLastModified(System.currentTimeMillis());
+        }
+        return checksums;
+    }
+
+    /**
+     * Caches the given checksums of the given input file, unless the file has changed since the given last modified
+     * time at which the computation of the checksums started. Evicts the least recently used entries if the cache
+     * exceeds its size limit.
+     *
+     * @param inputFile
+     * @param lastModified
+     * @param checksums
+     * @throws IOException
+     */
+    public void put(File inputFile, long lastModified, SeedChecksums checksums) throws IOException {
+        if (inputFile.lastModified() != lastModified || inputFile.length() != checksums.getLength()) {
+            return;
+        }
+        final String path = inputFile.getCanonicalPath();
+        final File entry = new File(this.directory, key(path, checksums.getLength(), lastModified,
+                checksums.getBlockSize(), checksums.getChecksumAlgorithm()) + SUFFIX);
+        this.write(entry, path, lastModified, checksums);
+        this.evict();
+    }
+
+    private static String key(String path, long size, long lastModified, int blockSize, String checksumAlgorithm) {
+        final MessageDigest sha1 = newSHA1();
+        sha1.update(path.getBytes(UTF_8));
+        sha1.update(ByteBuffer.allocate(8 + 8 + 4).putLong(size).putLong(lastModified).putInt(blockSize).array());
+        sha1.update(checksumAlgorithm.getBytes(UTF_8));
+        return toHexString(ByteBuffer.wrap(sha1.digest()));
+    }
+
+    private static SeedChecksums read(File entry, String path, long size, long lastModified, int blockSize,
+                                      String checksumAlgorithm) {
+        if (!entry.isFile()) {
+            return null;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(entry)))) {
+            if (in.readLong() != MAGIC || in.readInt() != VERSION || !path.equals(in.readUTF()) || in.readLong() != size
+                    || in.readLong() != lastModified || in.readInt() != blockSize
+                    || !checksumAlgorithm.equals(in.readUTF())) {
+                return null;
+            }
+            final int numBlocks = SeedChecksums.numBlocks(size, blockSize);
+            final int[] rsums = new int[numBlocks];
+            for (int i = 0; i < numBlocks; i++) {
+                rsums[i] = in.readInt();
+            }
+            final byte[] checksums = new byte[numBlocks * SeedChecksums.CHECKSUM_LENGTH];
+            in.readFully(checksums);
+            return new SeedChecksums(size, blockSize, checksumAlgorithm, rsums, checksums);
+        } catch (IOException | IllegalArgumentException e) {
+            // truncated or otherwise corrupt entry, recompute
+            return null;
+        }
+    }
+
+    private void write(File entry, String path, long lastModified, SeedChecksums checksums) throws IOException {
+        if (!this.directory.isDirectory() && !this.directory.mkdirs() && !this.directory.isDirectory()) {
+            throw new IOException("Failed to create cache directory " + this.directory);
+        }
+        final File tmp = File.createTempFile(entry.getName(), ".tmp", this.directory);
+        try {
+            try (final DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(path);
+                out.writeLong(checksums.getLength());
+                out.writeLong(lastModified);
+                out.writeInt(checksums.getBlockSize());
+                out.writeUTF(checksums.getChecksumAlgorithm());
+                for (int rsum : checksums.getRsums()) {
+                    out.writeInt(rsum);
+                }
+                out.write(checksums.getChecksums());
+            }
+            Files.move(tmp.toPath(), entry.toPath(), REPLACE_EXISTING, ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the total size of the entries is within the limit.
+     */
+    void evict() {
+        final File[] entries = this.directory.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(SUFFIX);
+            }
+        });
+        if (entries == null) {
+            return;
+        }
+        final long[] lastModified = new long[entries.length];
+        long size = 0;
+        for (int i = 0; i < entries.length; i++) {
+            size += entries[i].length();
+        }
+        if (size <= this.maxSize) {
+            return;
+        }
+        // snapshot access times, since they may change while sorting
+        final Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            lastModified[i] = entries[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(lastModified[a], lastModified[b]);
+            }
+        });
+        for (int i = 0; i < order.length && size > this.maxSize; i++) {
+            final File entry = entries[order[i]];
+            final long length = entry.length();
+            if (entry.delete()) {
+                size -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.internal.util.ReadableByteBuffer;
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+
+/**
+ * Rolling and strong checksums of the blocks of an input file at offsets aligned to a given block size. The last block is
+ * padded with zeros like the last block of a target file. If the target file shares the block alignment of an input
+ * file, for example because it is a later version of the same file with modifications that do not shift data, the
+ * blocks of the input file can be matched by looking up these checksums instead of rolling over every byte of the file.
+ */
+public final class SeedChecksums {
+
+    static final int CHECKSUM_LENGTH = 16;
+
+    // size of the reads when computing checksums
+    private static final int READ_SIZE = 1024 * 1024;
+
+    private final long length;
+    private final int blockSize;
+    private final String checksumAlgorithm;
+    private final int[] rsums;
+    private final byte[] checksums;
+
+    SeedChecksums(long length, int blockSize, String checksumAlgorithm, int[] rsums, byte[] checksums) {
+        if (rsums.length != numBlocks(length, blockSize) || checksums.length != rsums.length * CHECKSUM_LENGTH) {
+            throw new IllegalArgumentException("Number of checksums does not match length and block size");
+        }
+        this.length = length;
+        this.blockSize = blockSize;
+        this.checksumAlgorithm = checksumAlgorithm;
+        this.rsums = rsums;
+        this.checksums = checksums;
+    }
+
+    static int numBlocks(long length, int blockSize) {
+        final long numBlocks = (length + blockSize - 1) / blockSize;
+        if (numBlocks > Integer.MAX_VALUE / CHECKSUM_LENGTH) {
+            throw new IllegalArgumentException("Too many blocks: " + numBlocks);
+        }
+        return (int) numBlocks;
+    }
+
+    /**
+     * Computes the checksums of the aligned blocks of the first length bytes read from the given channel.
+     *
+     * @param channel
+     * @param length
+     * @param blockSize
+     * @param checksumAlgorithm algorithm of the strong checksums, see {@link ZsyncUtil#newChecksumDigest(String)}
+     * @return
+     * @throws IOException
+     */
+    public static SeedChecksums compute(FileChannel channel, long length, int blockSize, String checksumAlgorithm)
+            throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        if (!ZsyncUtil.isChecksumAlgorithm(checksumAlgorithm)) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm " + checksumAlgorithm);
+        }
+        final int numBlocks = numBlocks(length, blockSize);
+        final int[] rsums = new int[numBlocks];
+        final byte[] checksums = new byte[numBlocks * CHECKSUM_LENGTH];
+        compute(channel, length, blockSize, checksumAlgorithm, 0, numBlocks, rsums, checksums);
+        return new SeedChecksums(length, blockSize, checksumAlgorithm, rsums, checksums);
+    }
+
+    /**
+     * Computes the checksums of the aligned blocks of the first length bytes read from the given channel on the given
+     * executor. The blocks are split into the given number of contiguous parts, each of which is read sequentially.
+     *
+     * @param channel
+     * @param length
+     * @param blockSize
+     * @param checksumAlgorithm algorithm of the strong checksums, see {@link ZsyncUtil#newChecksumDigest(String)}
+     * @param executor
+     * @param parts
+     * @return
+     * @throws IOException
+     */
+    public static SeedChecksums compute(final FileChannel channel, final long length, final int blockSize,
+                                        final String checksumAlgorithm, ExecutorService executor, int parts)
+            throws IOException {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive");
+        }
+        if (!ZsyncUtil.isChecksumAlgorithm(checksumAlgorithm)) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm " + checksumAlgorithm);
+        }
+        if (parts <= 0) {
+            throw new IllegalArgumentException("Number of parts must be positive");
+        }
+        final int numBlocks = numBlocks(length, blockSize);
+        final int[] rsums = new int[numBlocks];
+        final byte[] checksums = new byte[numBlocks * CHECKSUM_LENGTH];
+        // parts of at least one read each
+        final int partSize = Math.max(READ_SIZE / blockSize + 1, (numBlocks + parts - 1) / parts);
+        final List<Callable<Void>> tasks = new ArrayList<>();
+        for (int first = 0; first < numBlocks; first += partSize) {
+            final int start = first;
+            final int end = Math.min(numBlocks, first + partSize);
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    compute(channel, length, blockSize, checksumAlgorithm, start, end, rsums, checksums);
+                    return null;
+                }
+            });
+        }
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while computing checksums");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        return new SeedChecksums(length, blockSize, checksumAlgorithm, rsums, checksums);
+    }
+
+    // computes the checksums of the blocks from start inclusive to end exclusive
+    private static void compute(FileChannel channel, long length, int blockSize, String checksumAlgorithm, int start,
+                                int end, int[] rsums, byte[] checksums) throws IOException {
+        final MessageDigest digest = ZsyncUtil.newChecksumDigest(checksumAlgorithm);
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.max(1, READ_SIZE / blockSize) * blockSize);
+        final byte[] bytes = buffer.array();
+        int block = start;
+        long position = (long) start * blockSize;
+        final long endPosition = Math.min(length, (long) end * blockSize);
+        while (block < end) {
+            // fill the buffer with whole blocks, except at the end of the file
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), endPosition - position));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+                }
+            }
+            final int n = buffer.position();
+            // pad the last block with zeros
+            final int blocksEnd = (n + blockSize - 1) / blockSize * blockSize;
+            Arrays.fill(bytes, n, blocksEnd, (byte) 0);
+            for (int off = 0; off < blocksEnd; off += blockSize, block++) {
+                rsums[block] = ZsyncUtil.computeRsum(bytes, off, blockSize);
+                digest.update(bytes, off, blockSize);
+                try {
+                    digest.digest(checksums, block * CHECKSUM_LENGTH, CHECKSUM_LENGTH);
+                } catch (DigestException e) {
+                    throw new RuntimeException("Failed to compute " + checksumAlgorithm, e);
+                }
+            }
+            position += n;
+        }
+    }
+
+    public long getLength() {
+        return this.length;
+    }
+
+    public int getBlockSize() {
+        return this.blockSize;
+    }
+
+    public String getChecksumAlgorithm() {
+        return this.checksumAlgorithm;
+    }
+
+    public int getNumBlocks() {
+        return this.rsums.length;
+    }
+
+    int[] getRsums() {
+        return this.rsums;
+    }
+
+    byte[] getChecksums() {
+        return this.checksums;
+    }
+
+    /**
+     * Writes the aligned blocks of the given input file that match blocks of the target file. Only the blocks that are
+     * written are read from the input file. If the control file requires sequential matches, a block matches only if its
+     * predecessor or successor matches the corresponding block of the target file as well.
+     *
+     * @param targetFile
+     * @param inputFile  channel of the input file these checksums were computed from
+     * @param header
+     * @return indexes of the blocks of the input file that match a block of the target file
+     */
+    public BitSet match(OutputFileWriter targetFile, FileChannel inputFile, Header header) {
+        if (header.getBlocksize() != this.blockSize) {
+            throw new IllegalArgumentException("Block size " + header.getBlocksize() + " does not match " + this.blockSize);
+        }
+        if (!header.getChecksumAlgorithm().equals(this.checksumAlgorithm)) {
+            throw new IllegalArgumentException("Checksum algorithm " + header.getChecksumAlgorithm() + " does not match "
+                    + this.checksumAlgorithm);
+        }
+        final int rsumBytes = header.getRsumBytes();
+        final int mask = rsumBytes == 4 ? 0xffffffff : (1 << 8 * rsumBytes) - 1;
+        final int checksumBytes = header.getChecksumBytes();
+        final boolean seqMatches = header.isSeqMatches();
+        final int numBlocks = this.rsums.length;
+        final int numTargetBlocks = targetFile.getNumBlocks();
+        final BitSet matched = new BitSet(numBlocks);
+        BlockSum previous = null;
+        BlockSum current = numBlocks == 0 ? null : this.blockSum(0, mask, checksumBytes);
+        for (int i = 0; i < numBlocks && !targetFile.isComplete(); i++) {
+            final BlockSum next = i + 1 < numBlocks ? this.blockSum(i + 1, mask, checksumBytes) : null;
+            // read when it first matches, and written to every position it matches
+            InputFileBlock block = null;
+            for (int p = targetFile.getFirstPosition(current); p != -1; p = targetFile.getNextPosition(p, current)) {
+                if (!seqMatches || next != null && p + 1 < numTargetBlocks && next.equals(targetFile.get(p + 1))
+                        || previous != null && p > 0 && previous.equals(targetFile.get(p - 1))) {
+                    if (block == null) {
+                        block = this.readBlock(inputFile, i);
+                    }
+                    targetFile.writeBlock(p, block);
+                    matched.set(i);
+                }
+            }
+            previous = current;
+            current = next;
+        }
+        return matched;
+    }
+
+    /**
+     * Returns the ranges of window positions a rolling scan of the input file has to cover to find the blocks that were
+     * not matched at aligned offsets, that is the positions of all windows overlapping a block that did not match. The
+     * ranges are sorted, disjoint and given as pairs of start inclusive and end exclusive positions.
+     *
+     * @param matched    blocks of the input file matched at aligned offsets
+     * @param paddedSize size of the input file including the zeros the scan pads it with
+     * @param windowSize size of the window of the rolling scan
+     * @return
+     */
+    public List<long[]> getUnmatchedWindows(BitSet matched, long paddedSize, int windowSize) {
+        final long windows = paddedSize - windowSize + 1;
+        final List<long[]> ranges = new ArrayList<>();
+        final int numBlocks = this.rsums.length;
+        if (numBlocks == 0 && windows > 0) {
+            ranges.add(new long[]{0, windows});
+        }
+        for (int i = matched.nextClearBit(0); i < numBlocks; i = matched.nextClearBit(i)) {
+            int j = matched.nextSetBit(i);
+            if (j < 0 || j > numBlocks) {
+                j = numBlocks;
+            }
+            // padding beyond the last block is unmatched if the last block is
+            final long end = j == numBlocks ? paddedSize : (long) j * this.blockSize;
+            final long first = Math.max(0, (long) i * this.blockSize - windowSize + 1);
+            final long last = Math.min(windows, end);
+            if (first < last) {
+                final long[] previous = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+                if (previous != null && previous[1] >= first) {
+                    previous[1] = Math.max(previous[1], last);
+                } else {
+                    ranges.add(new long[]{first, last});
+                }
+            }
+            i = j;
+        }
+        return ranges;
+    }
+
+    private InputFileBlock readBlock(FileChannel inputFile, int index) {
+        final long start = (long) index * this.blockSize;
+        try {
+            return InputFileBlock.read(inputFile, start, this.blockSize, this.length);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to read input file block at " + start, e);
+        }
+    }
+
+    private BlockSum blockSum(int index, int mask, int checksumBytes) {
+        final int p = index * CHECKSUM_LENGTH;
+        return new ImmutableBlockSum(this.rsums[index] & mask, Arrays.copyOfRange(this.checksums, p, p + checksumBytes));
+    }
+
+    /**
+     * Block of an input file read into a heap buffer, padded with zeros beyond the end of the file
+     */
+    private static final class InputFileBlock implements ReadableByteBuffer {
+
+        private final ByteBuffer buffer;
+
+        private InputFileBlock(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        static InputFileBlock read(FileChannel channel, long start, int blockSize, long end) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.allocate(blockSize);
+            buffer.limit((int) Math.max(0, Math.min(blockSize, end - start)));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of input file at " + (start + buffer.position()));
+                }
+            }
+            buffer.clear();
+            return new InputFileBlock(buffer);
+        }
+
+        @Override
+        public int length() {
+            return this.buffer.limit();
+        }
+
+        @Override
+        public byte get(int i) {
+            return this.buffer.get(i);
+        }
+
+        @Override
+        public int rsum(int offset, int length) {
+            return ZsyncUtil.computeRsum(this.buffer, offset, length);
+        }
+
+        @Override
+        public void write(WritableByteChannel channel) throws IOException {
+            this.write(channel, 0, this.length());
+        }
+
+        @Override
+        public void write(WritableByteChannel channel, int offset, int length) throws IOException {
+            final ByteBuffer view = this.buffer.duplicate();
+            view.limit(offset + length).position(offset);
+            while (view.hasRemaining()) {
+                channel.write(view);
+            }
+        }
+    }
+}
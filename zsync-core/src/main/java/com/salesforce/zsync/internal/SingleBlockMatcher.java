@@ -25,31 +25,61 @@
  */
 package com.salesforce.zsync.internal;
 
-import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Iterables;
+import com.salesforce.zsync.internal.util.BitHashFilter;
+import com.salesforce.zsync.internal.util.IntHashSet;
 import com.salesforce.zsync.internal.util.ReadableByteBuffer;
+import com.salesforce.zsync.internal.util.RollingReadableByteBuffer;
 
-import java.util.List;
-import java.util.Set;
+import java.nio.ByteBuffer;
 
-import static com.salesforce.zsync.internal.BlockSum.getRsum;
 import static com.salesforce.zsync.internal.SingleBlockMatcher.State.*;
-import static com.salesforce.zsync.internal.util.ZsyncUtil.newMD4;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.newChecksumDigest;
 
 public class SingleBlockMatcher extends BlockMatcher {
 
+    private final Header header;
     private final int blockSize;
-    private final Set<Integer> rsumHashSet;
+    private final IntHashSet rsumHashSet;
+    private final BitHashFilter rsumFilter;
     private State state;
     private MutableBlockSum blockSum;
     private byte firstByte;
 
     public SingleBlockMatcher(ControlFile controlFile) {
-        final Header header = controlFile.getHeader();
-        this.blockSize = header.getBlocksize();
-        this.rsumHashSet = ImmutableSet.copyOf(Iterables.transform(controlFile.getBlockSums(), getRsum));
+        this(controlFile, null);
+    }
+
+    public SingleBlockMatcher(ControlFile controlFile, Integer rsumFilterBits) {
+        this.header = controlFile.getHeader();
+        this.blockSize = this.header.getBlocksize();
+        final int[] rsums = controlFile.getBlockSums().getRsums();
+        this.rsumHashSet = IntHashSet.copyOf(rsums, rsums.length);
+        this.rsumFilter = newRsumFilter(rsums.length, rsumFilterBits);
+        if (this.rsumFilter != null) {
+            for (int rsum : rsums) {
+                this.rsumFilter.add(rsum);
+            }
+        }
         this.state = INIT;
-        this.blockSum = new MutableBlockSum(newMD4(), this.blockSize, header.getRsumBytes(), header.getChecksumBytes());
+        this.blockSum =
+                new MutableBlockSum(newChecksumDigest(this.header.getChecksumAlgorithm()), this.blockSize,
+                        this.header.getRsumBytes(), this.header.getChecksumBytes());
+    }
+
+    private SingleBlockMatcher(SingleBlockMatcher other) {
+        this.header = other.header;
+        this.blockSize = other.blockSize;
+        this.rsumHashSet = other.rsumHashSet;
+        this.rsumFilter = other.rsumFilter;
+        this.state = INIT;
+        this.blockSum =
+                new MutableBlockSum(newChecksumDigest(this.header.getChecksumAlgorithm()), this.blockSize,
+                        this.header.getRsumBytes(), this.header.getChecksumBytes());
+    }
+
+    @Override
+    public BlockMatcher copy() {
+        return new SingleBlockMatcher(this);
     }
 
     @Override
@@ -57,6 +87,11 @@ public class SingleBlockMatcher extends BlockMatcher {
         return this.blockSize;
     }
 
+    @Override
+    public int getRsumFilterBits() {
+        return this.rsumFilter == null ? 0 : this.rsumFilter.getBits();
+    }
+
     @Override
     public int match(OutputFileWriter targetFile, ReadableByteBuffer buffer) {
         switch (this.state) {
@@ -69,31 +104,101 @@ public class SingleBlockMatcher extends BlockMatcher {
             case MISSED:
                 this.blockSum.rsum.update(this.firstByte, buffer.get(buffer.length() - 1));
                 break;
+            case ROLLED:
+                // the rolling sum was rolled forward to this window by roll
+                break;
             default:
                 throw new RuntimeException("Unhandled case");
         }
 
         final int r = this.blockSum.rsum.toInt();
-        // cheap negative check followed by more expensive positive check
-        if (this.rsumHashSet.contains(r)) {
+        // cheap negative checks followed by more expensive positive check
+        if (this.mightContain(r) && this.rsumHashSet.contains(r)) {
+            this.rsumHits++;
             // only compute strong checksum if weak matched some block
             this.blockSum.checksum.setChecksum(buffer);
-            final List<Integer> matches = targetFile.getPositions(this.blockSum);
-            if (!matches.isEmpty()) {
-                for (Integer position : matches) {
+            int position = targetFile.getFirstPosition(this.blockSum);
+            if (position != -1) {
+                do {
                     targetFile.writeBlock(position, buffer);
-                }
+                } while ((position = targetFile.getNextPosition(position, this.blockSum)) != -1);
                 this.state = MATCHED;
                 return this.blockSize;
             }
         }
+        return this.missed(buffer);
+    }
+
+    private int missed(ReadableByteBuffer buffer) {
+        if (buffer instanceof RollingReadableByteBuffer) {
+            final ByteBuffer view = ((RollingReadableByteBuffer) buffer).lookahead();
+            final int max = Math.min(view.limit() - this.blockSize, buffer.length());
+            if (max > 0) {
+                this.state = ROLLED;
+                return this.roll(view, max);
+            }
+        }
         this.state = MISSED;
         this.firstByte = buffer.get(0);
         return 1;
     }
 
+    /**
+     * Rolls the rolling sum of the window at the start of the given view forward one byte at a time until it is the sum
+     * of some block of the target file, or until it has been rolled by the given maximum number of bytes. Only the sums
+     * rolled over are looked up, not the one rolled to, which is left to {@link #match(OutputFileWriter,
+     * ReadableByteBuffer)} once the window has been advanced.
+     *
+     * @param view window and bytes following it
+     * @param max  maximum number of bytes to roll by, at least one
+     * @return number of bytes rolled by
+     */
+    private int roll(ByteBuffer view, int max) {
+        final Rsum rsum = this.blockSum.rsum;
+        final int bitmask = rsum.bitmask;
+        final int blockShift = rsum.blockShift;
+        final int blockSize = this.blockSize;
+        final BitHashFilter filter = this.rsumFilter;
+        final IntHashSet rsums = this.rsumHashSet;
+        int a = rsum.a;
+        int b = rsum.b;
+        long lookups = 0;
+        long filterHits = 0;
+        int i = 0;
+        while (true) {
+            final int o = view.get(i) & 0xFF;
+            a += (view.get(i + blockSize) & 0xFF) - o;
+            b += a - (o << blockShift);
+            if (++i == max) {
+                break;
+            }
+            final int r = ((a << 16) | (b & 0xffff)) & bitmask;
+            if (filter == null || filter.mightContain(r)) {
+                if (rsums.contains(r)) {
+                    break;
+                }
+                filterHits++;
+            }
+            lookups++;
+        }
+        rsum.a = (short) a;
+        rsum.b = (short) b;
+        this.rsumLookups += lookups;
+        this.rsumFilterHits += filterHits;
+        return i;
+    }
+
+    private boolean mightContain(int r) {
+        this.rsumLookups++;
+        if (this.rsumFilter == null || this.rsumFilter.mightContain(r)) {
+            this.rsumFilterHits++;
+            return true;
+        }
+        return false;
+    }
+
     static enum State {
-        INIT, MATCHED, MISSED;
+        INIT, MATCHED, MISSED, ROLLED;
     }
 
 }
@@ -0,0 +1,115 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed size bit set that can be updated concurrently without locks.
+ */
+public final class AtomicBitSet {
+
+    private final AtomicLongArray words;
+    private final int size;
+
+    public AtomicBitSet(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative");
+        }
+        this.words = new AtomicLongArray((size + 63) >>> 6);
+        this.size = size;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean get(int index) {
+        this.checkIndex(index);
+        return (this.words.get(index >>> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Sets the bit at the given index
+     *
+     * @param index
+     * @return true if this call set the bit, false if it was already set
+     */
+    public boolean set(int index) {
+        this.checkIndex(index);
+        final int i = index >>> 6;
+        final long mask = 1L << index;
+        long word;
+        do {
+            word = this.words.get(i);
+            if ((word & mask) != 0) {
+                return false;
+            }
+        } while (!this.words.compareAndSet(i, word, word | mask));
+        return true;
+    }
+
+    /**
+     * Clears the bit at the given index
+     *
+     * @param index
+     * @return true if this call cleared the bit, false if it was not set
+     */
+    public boolean clear(int index) {
+        this.checkIndex(index);
+        final int i = index >>> 6;
+        final long mask = 1L << index;
+        long word;
+        do {
+            word = this.words.get(i);
+            if ((word & mask) == 0) {
+                return false;
+            }
+        } while (!this.words.compareAndSet(i, word, word & ~mask));
+        return true;
+    }
+
+    /**
+     * Returns a copy of the bits as words of 64 bits each, where bit i is stored in bit i % 64 of word i / 64. Each word
+     * is read atomically, but concurrent updates of different words may or may not be reflected.
+     *
+     * @return
+     */
+    public long[] toLongArray() {
+        final long[] words = new long[this.words.length()];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = this.words.get(i);
+        }
+        return words;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= this.size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.size);
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+/**
+ * Compact bit table used to reject most rolling checksum lookups before probing the full rsum set, modeled after the
+ * <code>bithash</code> in the original C implementation of zsync. Each value sets a single bit in a table of
+ * 2<sup>bits</sup> bits, so a lookup costs one load from a table small enough to stay in cache. A clear bit proves
+ * absence; a set bit may be a false positive.
+ */
+public final class BitHashFilter {
+
+    /**
+     * The minimum table size of 2^6 bits fills exactly one long word.
+     */
+    public static final int MIN_BITS = 6;
+    public static final int MAX_BITS = 30;
+
+    // bits to add per block beyond log2(blocks), i.e. the default filter allocates 8 to 16 bits per block
+    private static final int DEFAULT_EXTRA_BITS = 3;
+
+    private final long[] table;
+    private final int bits;
+    private final int intShift;
+    private final int longShift;
+
+    /**
+     * Creates an empty filter
+     *
+     * @param bits log2 of the number of bits in the filter, must be in [{@link #MIN_BITS}, {@link #MAX_BITS}]
+     */
+    public BitHashFilter(int bits) {
+        if (bits < MIN_BITS || bits > MAX_BITS) {
+            throw new IllegalArgumentException("Filter bits must be in interval [" + MIN_BITS + ", " + MAX_BITS + "]");
+        }
+        this.table = new long[1 << (bits - MIN_BITS)];
+        this.bits = bits;
+        this.intShift = 32 - bits;
+        this.longShift = 64 - bits;
+    }
+
+    /**
+     * Returns the default filter size for the given number of values: the next power of two of the number of values
+     * times 8.
+     *
+     * @param count number of values to be added to the filter
+     * @return log2 of the number of bits in the filter
+     */
+    public static int defaultBits(int count) {
+        int bits = 0;
+        while (bits < 31 && (1 << bits) < count) {
+            bits++;
+        }
+        return Math.max(MIN_BITS, Math.min(MAX_BITS, bits + DEFAULT_EXTRA_BITS));
+    }
+
+    public int getBits() {
+        return this.bits;
+    }
+
+    public void add(int value) {
+        set((value * 0x61C88647) >>> this.intShift);
+    }
+
+    public void add(long value) {
+        set((int) ((value * 0x61C8864680B583EBL) >>> this.longShift));
+    }
+
+    /**
+     * Returns false if the value has definitely not been added to this filter, true if it may have been added.
+     */
+    public boolean mightContain(int value) {
+        return isSet((value * 0x61C88647) >>> this.intShift);
+    }
+
+    /**
+     * Returns false if the value has definitely not been added to this filter, true if it may have been added.
+     */
+    public boolean mightContain(long value) {
+        return isSet((int) ((value * 0x61C8864680B583EBL) >>> this.longShift));
+    }
+
+    private void set(int bit) {
+        this.table[bit >>> MIN_BITS] |= 1L << bit;
+    }
+
+    private boolean isSet(int bit) {
+        return (this.table[bit >>> MIN_BITS] & (1L << bit)) != 0;
+    }
+
+}
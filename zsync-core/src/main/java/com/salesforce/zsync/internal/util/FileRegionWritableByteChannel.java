@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Writes to a region of a file channel using positional writes, so that multiple regions of the same channel can be
+ * written concurrently. Closing this channel does not close the underlying file channel.
+ */
+public class FileRegionWritableByteChannel implements WritableByteChannel {
+
+    private final FileChannel channel;
+    private final long end;
+    private long position;
+    private boolean open;
+
+    /**
+     * Constructs a channel over the given region
+     *
+     * @param channel underlying file channel
+     * @param start   start of the region
+     * @param end     end of the region (exclusive)
+     */
+    public FileRegionWritableByteChannel(FileChannel channel, long start, long end) {
+        if (channel == null) {
+            throw new IllegalArgumentException("underlying channel must not be null");
+        }
+        if (start < 0 || start > end) {
+            throw new IllegalArgumentException("Invalid region [" + start + ", " + end + ")");
+        }
+        this.channel = channel;
+        this.position = start;
+        this.end = end;
+        this.open = true;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        if (src.remaining() > this.end - this.position) {
+            throw new IOException("Write of " + src.remaining() + " bytes exceeds end of region " + this.end);
+        }
+        final int written = this.channel.write(src, this.position);
+        this.position += written;
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return this.open && this.channel.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.open = false;
+    }
+
+}
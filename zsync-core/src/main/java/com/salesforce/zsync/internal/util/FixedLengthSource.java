@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Source;
+import okio.Timeout;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * A slice of the given number of bytes of a buffered source, e.g. the body of one part of a multipart response. Reads
+ * move buffered segments from the underlying source into the sink without copying. Closing the slice does not close the
+ * underlying source.
+ */
+public final class FixedLengthSource implements Source {
+
+    private final BufferedSource source;
+    private long remaining;
+
+    public FixedLengthSource(BufferedSource source, long length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("length must not be negative");
+        }
+        this.source = source;
+        this.remaining = length;
+    }
+
+    /**
+     * Number of bytes of this slice not read yet
+     *
+     * @return
+     */
+    public long remaining() {
+        return this.remaining;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+        if (this.remaining == 0) {
+            return -1;
+        }
+        final long read = this.source.read(sink, Math.min(byteCount, this.remaining));
+        if (read == -1) {
+            throw new EOFException("Source ended " + this.remaining + " bytes before end of slice");
+        }
+        this.remaining -= read;
+        return read;
+    }
+
+    @Override
+    public Timeout timeout() {
+        return this.source.timeout();
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+
+}
@@ -25,27 +25,33 @@
  */
 package com.salesforce.zsync.internal.util;
 
-import com.google.common.io.ByteStreams;
 import com.google.common.net.MediaType;
 import com.salesforce.zsync.http.ContentRange;
 import com.salesforce.zsync.http.Credentials;
 import com.salesforce.zsync.internal.util.ObservableInputStream.ObservableResourceInputStream;
+import com.salesforce.zsync.internal.util.ObservableSource.ObservableResourceSource;
 import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
 import okhttp3.*;
 import okhttp3.Request.Builder;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
 
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URI;
 import java.text.ParseException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.*;
 
 import static com.google.common.base.Joiner.on;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.collect.ImmutableList.copyOf;
-import static com.google.common.collect.Iterables.limit;
+import static com.google.common.collect.Lists.partition;
 import static java.lang.Math.min;
 import static java.net.HttpURLConnection.*;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
@@ -59,7 +65,10 @@ import static java.util.Collections.newSetFromMap;
  */
 public class HttpClient {
 
-    private static final int MAXIMUM_RANGES_PER_HTTP_REQUEST = 100;
+    public static final int MAXIMUM_RANGES_PER_HTTP_REQUEST = 100;
+    private static final ByteString DASH_DASH = ByteString.encodeUtf8("--");
+    private static final ByteString CONTENT_RANGE = ByteString.encodeUtf8("content-range:");
+    private static final int MAXIMUM_ATTEMPTS_PER_HTTP_REQUEST = 3;
     private final OkHttpClient okHttpClient;
     private final Set<String> basicChallengeReceived;
 
@@ -116,26 +125,33 @@ public class HttpClient {
         } catch (ParseException e) {
             throw new IOException("Failed to parse Content-Range header " + contentRange, e);
         }
-        if (!remaining.remove(range)) {
+        if (!remaining.contains(range)) {
             throw new IOException("Received range " + range + " not one of requested " + remaining);
         }
 
-        InputStream in = inputStream(response, listener);
-        receiver.receive(range, in);
+        try (BufferedSource source = source(response, listener)) {
+            receiver.receive(range, new FixedLengthSource(source, range.length()));
+        }
+        remaining.remove(range);
     }
 
     static void handleMultiPartBody(Response response, RangeReceiver receiver, final Set<ContentRange> remaining,
                                     HttpTransferListener listener, byte[] boundary) throws IOException {
-        try (InputStream in = inputStream(response, listener)) {
+        final ByteString delimiter = new Buffer().write(DASH_DASH).write(boundary).readByteString();
+        try (BufferedSource source = source(response, listener)) {
             ContentRange range;
-            while ((range = nextPart(in, boundary)) != null) {
+            while ((range = nextPart(source, delimiter)) != null) {
                 // technically it's OK for server to combine or re-order ranges. However, since we
                 // already combine and sort ranges, this should not happen
-                if (!remaining.remove(range)) {
+                if (!remaining.contains(range)) {
                     throw new IOException("Received range " + range + " not one of requested " + remaining);
                 }
-                final InputStream part = ByteStreams.limit(in, range.length());
+                final FixedLengthSource part = new FixedLengthSource(source, range.length());
                 receiver.receive(range, part);
+                // skip whatever the receiver did not consume to get to the next delimiter
+                source.skip(part.remaining());
+                // only remove once received in full, so that a retry requests partially received ranges again
+                remaining.remove(range);
             }
         }
     }
@@ -146,29 +162,41 @@ public class HttpClient {
         return new ObservableResourceInputStream<>(in, listener, response, response.body().contentLength());
     }
 
-    static ContentRange nextPart(InputStream in, byte[] boundary) throws IOException {
-        int c = in.read();
-        if (c == '\r') {
-            if (!(in.read() == '\n' && in.read() == '-' && in.read() == '-')) {
-                throw new IOException("Expected part being not matched");
-            }
-        } else if (c == '-') {
-            if (!(in.read() == '-')) {
+    static BufferedSource source(Response response, ResourceTransferListener<Response> listener) throws IOException {
+        final ResponseBody body = response.body();
+        return Okio.buffer(new ObservableResourceSource<>(body.source(), listener, response, body.contentLength()));
+    }
+
+    /**
+     * Reads the delimiter and headers of the next part of a multipart/byteranges body and returns the range in its
+     * Content-Range header, or null if the delimiter is the close delimiter ending the body. The given source must be
+     * positioned at the start of the body or at the end of the previous part.
+     *
+     * @param source
+     * @param delimiter the boundary prefixed with two dashes
+     * @return
+     * @throws IOException
+     */
+    static ContentRange nextPart(BufferedSource source, ByteString delimiter) throws IOException {
+        // parts are length delimited, so rather than searching for the delimiter, expect it at the start of the body or
+        // immediately after the CRLF that ends the previous part
+        if (!source.request(1)) {
+            throw new IOException("Expected part being not matched");
+        }
+        if (source.buffer().getByte(0) == '\r') {
+            if (!(source.request(2) && source.buffer().getByte(1) == '\n')) {
                 throw new IOException("Expected part being not matched");
             }
+            source.skip(2);
         }
-        final byte[] b = new byte[boundary.length];
-        int read = 0, r;
-        while (read < b.length && (r = in.read(b, read, b.length - read)) != -1) {
-            read += r;
-        }
-        if (read != b.length || !Arrays.equals(boundary, b)) {
+        if (!(source.request(delimiter.size() + 2) && startsWith(source.buffer(), delimiter, false))) {
             throw new IOException("Invalid multipart boundary");
         }
-        final int r1 = in.read();
-        final int r2 = in.read();
+        source.skip(delimiter.size());
+        final byte r1 = source.readByte();
+        final byte r2 = source.readByte();
         if (r1 == '-' && r2 == '-') {
-            if (!(in.read() == '\r' && in.read() == '\n' && in.read() == -1)) {
+            if (!(source.request(2) && source.readByte() == '\r' && source.readByte() == '\n' && source.exhausted())) {
                 throw new IOException("unexpected end of body");
             }
             return null;
@@ -177,43 +205,52 @@ public class HttpClient {
         }
 
         ContentRange range = null;
-        String header;
-        while ((header = readHeader(in)) != null) {
-            if (header.startsWith("Content-Range") || header.startsWith("Content-range")) {
-                if (range != null) {
-                    throw new IOException("Multiple content range headers in multipart");
-                }
-                int idx = header.indexOf(':');
-                if (idx == -1) {
-                    throw new IOException("Invalid Content-Range header " + header + " in multipart");
-                }
-                final String value = header.substring(idx + 2);
-                try {
-                    range = parseContentRange(value);
-                } catch (ParseException e) {
-                    throw new IOException("Failed to parse Content-Range header " + value, e);
-                }
+        long lf;
+        // read header lines up to the empty line that separates them from the part body
+        while ((lf = source.indexOf((byte) '\n')) != 1) {
+            if (lf == -1) {
+                throw new IOException("Body ended before finding multipart delimiter");
+            }
+            if (lf == 0 || source.buffer().getByte(lf - 1) != '\r') {
+                throw new IOException("Invalid multipart header line");
+            }
+            // only decode Content-Range headers, skip others without allocating
+            if (!startsWith(source.buffer(), CONTENT_RANGE, true)) {
+                source.skip(lf + 1);
+                continue;
+            }
+            if (range != null) {
+                throw new IOException("Multiple content range headers in multipart");
+            }
+            final String value = source.readString(lf - 1, ISO_8859_1).substring(CONTENT_RANGE.size()).trim();
+            source.skip(2);
+            try {
+                range = parseContentRange(value);
+            } catch (ParseException e) {
+                throw new IOException("Failed to parse Content-Range header " + value, e);
             }
         }
+        if (source.buffer().getByte(0) != '\r') {
+            throw new IOException("Invalid multipart header line");
+        }
+        source.skip(2);
         return range;
     }
 
-    static String readHeader(InputStream in) throws IOException {
-        byte[] buf = new byte[256];
-        int pos = 0;
-        byte prev = -1;
-        int read;
-        while ((read = in.read()) != -1) {
-            if (prev == '\r' && read == '\n') {
-                return pos == 1 ? null : new String(buf, 0, pos - 1, ISO_8859_1);
-            }
-            if (pos == buf.length) {
-                buf = Arrays.copyOf(buf, buf.length * 2);
+    /**
+     * Whether the buffered bytes start with the given prefix. If ignoreCase is set, the prefix must be lower case ASCII.
+     */
+    private static boolean startsWith(Buffer buffer, ByteString prefix, boolean ignoreCase) {
+        if (buffer.size() < prefix.size()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.size(); i++) {
+            final byte b = buffer.getByte(i);
+            if ((ignoreCase && b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b) != prefix.getByte(i)) {
+                return false;
             }
-            prev = (byte) read;
-            buf[pos++] = prev;
         }
-        throw new IOException("Body ended before finding multipart delimiter");
+        return true;
     }
 
     /**
@@ -345,7 +382,7 @@ public class HttpClient {
     }
 
     /**
-     * Retrieves the requested ranges for the resource referred to by the given uri.
+     * Retrieves the requested ranges for the resource referred to by the given uri, one request after another.
      *
      * @param uri
      * @param ranges
@@ -356,16 +393,128 @@ public class HttpClient {
      */
     public void partialGet(URI uri, List<ContentRange> ranges, Map<String, ? extends Credentials> credentials,
                            RangeReceiver receiver, RangeTransferListener listener) throws IOException, HttpError {
-        final Set<ContentRange> remaining = new LinkedHashSet<>(ranges);
+        this.partialGet(uri, ranges, credentials, receiver, listener, 1);
+    }
+
+    /**
+     * Retrieves the requested ranges for the resource referred to by the given uri. Ranges are requested in batches of
+     * up to {@value #MAXIMUM_RANGES_PER_HTTP_REQUEST} ranges per request with up to the given number of requests in
+     * flight at a time. The first request is always sent on its own to determine whether the server supports range
+     * requests. If the concurrency is greater than one, the receiver and listener must be thread-safe.
+     * <p>
+     * A request that fails with an IOException is retried up to {@value #MAXIMUM_ATTEMPTS_PER_HTTP_REQUEST} times in
+     * total for the ranges of its batch that have not been received in full yet.
+     *
+     * @param uri
+     * @param ranges
+     * @param credentials
+     * @param receiver
+     * @param listener
+     * @param concurrency maximum number of concurrent requests
+     * @throws IOException
+     * @throws HttpError
+     */
+    public void partialGet(final URI uri, List<ContentRange> ranges, final Map<String, ? extends Credentials> credentials,
+                           final RangeReceiver receiver, final RangeTransferListener listener, int concurrency)
+            throws IOException, HttpError {
+        checkArgument(concurrency > 0, "concurrency must be positive");
+        final List<List<ContentRange>> batches =
+                partition(copyOf(new LinkedHashSet<>(ranges)), MAXIMUM_RANGES_PER_HTTP_REQUEST);
+        if (batches.isEmpty()) {
+            return;
+        }
+        // tolerate case that server does not support range requests and sends the full file in response to the first
+        if (!this.partialGetBatch(uri, batches.get(0), credentials, receiver, listener) || batches.size() == 1) {
+            return;
+        }
+        if (concurrency == 1) {
+            for (List<ContentRange> batch : batches.subList(1, batches.size())) {
+                if (!this.partialGetBatch(uri, batch, credentials, receiver, listener)) {
+                    return;
+                }
+            }
+            return;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(min(concurrency, batches.size() - 1));
+        try {
+            final List<Future<Boolean>> futures = new ArrayList<>(batches.size() - 1);
+            for (final List<ContentRange> batch : batches.subList(1, batches.size())) {
+                futures.add(executor.submit(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws IOException, HttpError {
+                        return HttpClient.this.partialGetBatch(uri, batch, credentials, receiver, listener);
+                    }
+                }));
+            }
+            for (Future<Boolean> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof HttpError) {
+                        throw (HttpError) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new RuntimeException(cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for range requests");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Retrieves the given batch of ranges, retrying failed requests for the ranges not received yet.
+     *
+     * @param uri
+     * @param batch
+     * @param credentials
+     * @param receiver
+     * @param listener
+     * @return false if the server responded with the full resource instead of the requested ranges
+     * @throws IOException
+     * @throws HttpError
+     */
+    boolean partialGetBatch(URI uri, List<ContentRange> batch, Map<String, ? extends Credentials> credentials,
+                            RangeReceiver receiver, RangeTransferListener listener) throws IOException, HttpError {
+        final Set<ContentRange> remaining = new LinkedHashSet<>(batch);
+        int attempts = 0;
         while (!remaining.isEmpty()) {
-            final List<ContentRange> next = copyOf(limit(remaining, min(remaining.size(), MAXIMUM_RANGES_PER_HTTP_REQUEST)));
-            final HttpTransferListener requestListener = listener.newTransfer(next);
-            final Response response = executeWithAuthRetry(uri, credentials, requestListener, next);
+            attempts++;
+            try {
+                if (!this.partialGetRemaining(uri, remaining, credentials, receiver, listener)) {
+                    return false;
+                }
+            } catch (IOException e) {
+                if (attempts == MAXIMUM_ATTEMPTS_PER_HTTP_REQUEST) {
+                    throw e;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean partialGetRemaining(URI uri, Set<ContentRange> remaining, Map<String, ? extends Credentials> credentials,
+                                        RangeReceiver receiver, RangeTransferListener listener) throws IOException, HttpError {
+        final List<ContentRange> next = copyOf(remaining);
+        final CompletingTransferListener requestListener = new CompletingTransferListener(listener.newTransfer(next));
+        Response response = null;
+        try {
+            response = this.executeWithAuthRetry(uri, credentials, requestListener, next);
             final int code = response.code();
             // tolerate case that server does not support range requests
             if (code == HTTP_OK) {
-                receiver.receive(new ContentRange(0, response.body().contentLength()), inputStream(response, requestListener));
-                return;
+                try (BufferedSource source = source(response, requestListener)) {
+                    receiver.receive(new ContentRange(0, response.body().contentLength() - 1), source);
+                }
+                return false;
             }
             // otherwise only accept partial content response
             if (code != HTTP_PARTIAL) {
@@ -379,6 +528,14 @@ public class HttpClient {
             } else {
                 handleSinglePartBody(response, receiver, remaining, requestListener);
             }
+            return true;
+        } finally {
+            // the listener is closed with the response body once read, but not if the request failed or its response
+            // was rejected before then
+            if (response != null && response.body() != null) {
+                response.body().close();
+            }
+            requestListener.close();
         }
     }
 
@@ -436,8 +593,51 @@ public class HttpClient {
         HttpTransferListener newTransfer(List<ContentRange> ranges);
     }
 
+    /**
+     * Forwards events to the given listener, closing it at most once and only if the request was initiated, so that it
+     * can be closed on every path out of a request whether or not the response body closed it already.
+     */
+    private static final class CompletingTransferListener implements HttpTransferListener {
+
+        private final HttpTransferListener delegate;
+        private boolean initiated;
+        private boolean closed;
+
+        CompletingTransferListener(HttpTransferListener delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void initiating(Request request) {
+            this.initiated = true;
+            this.delegate.initiating(request);
+        }
+
+        @Override
+        public void start(Response resource, long length) {
+            this.delegate.start(resource, length);
+        }
+
+        @Override
+        public void transferred(long bytes) {
+            this.delegate.transferred(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.initiated && !this.closed) {
+                this.closed = true;
+                this.delegate.close();
+            }
+        }
+    }
+
+    /**
+     * Receives the bodies of ranges. The source passed to {@link #receive(ContentRange, Source)} is a slice of the
+     * response body that is only valid for the duration of the call and must not be closed.
+     */
     public static interface RangeReceiver {
-        void receive(ContentRange range, InputStream in) throws IOException;
+        void receive(ContentRange range, Source source) throws IOException;
     }
 
     /**
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+import static java.nio.ByteOrder.nativeOrder;
+
+/**
+ * Immutable open-addressing hash set of primitive int values. Lookups neither box their argument nor allocate, which
+ * makes this set suitable for membership checks on a per-byte hot path such as probing rolling checksums. The table
+ * may be allocated on or off the Java heap.
+ */
+public final class IntHashSet {
+
+    // 0 marks an empty slot, so membership of 0 itself is tracked separately
+    private static final int EMPTY = 0;
+    // maximum number of values, so that the largest table of 2^30 slots is at most half full
+    static final int MAX_COUNT = 1 << 29;
+
+    private final IntBuffer table;
+    private final int shift;
+    private final int mask;
+    private final boolean containsZero;
+    private final int size;
+
+    private IntHashSet(IntBuffer table, int shift, boolean containsZero, int size) {
+        this.table = table;
+        this.shift = shift;
+        this.mask = table.capacity() - 1;
+        this.containsZero = containsZero;
+        this.size = size;
+    }
+
+    /**
+     * Creates a heap-backed set containing the first count values of the given array.
+     *
+     * @param values Values to add to the set, may contain duplicates
+     * @param count  Number of values to read from the array
+     * @return
+     */
+    public static IntHashSet copyOf(int[] values, int count) {
+        return copyOf(values, count, false);
+    }
+
+    /**
+     * Creates a set containing the first count values of the given array.
+     *
+     * @param values Values to add to the set, may contain duplicates
+     * @param count  Number of values to read from the array
+     * @param direct Whether to allocate the table in a direct (off-heap) buffer
+     * @return
+     */
+    public static IntHashSet copyOf(int[] values, int count, boolean direct) {
+        if (count < 0 || count > values.length) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        final int bits = tableBits(count);
+        final int capacity = 1 << bits;
+        final IntBuffer table = direct ? ByteBuffer.allocateDirect(directTableBytes(bits, 4)).order(nativeOrder())
+                .asIntBuffer() : IntBuffer.allocate(capacity);
+        final int shift = 32 - bits;
+        final int mask = capacity - 1;
+        boolean containsZero = false;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            final int value = values[i];
+            if (value == EMPTY) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+                continue;
+            }
+            int slot = hash(value, shift);
+            int current;
+            while ((current = table.get(slot)) != EMPTY && current != value) {
+                slot = (slot + 1) & mask;
+            }
+            if (current == EMPTY) {
+                table.put(slot, value);
+                size++;
+            }
+        }
+        return new IntHashSet(table, shift, containsZero, size);
+    }
+
+    /**
+     * Number of bits needed to address a table with a load factor of at most 0.5 for the given number of values.
+     */
+    static int tableBits(int count) {
+        if (count > MAX_COUNT) {
+            throw new IllegalArgumentException("Count " + count + " exceeds maximum of " + MAX_COUNT);
+        }
+        int bits = 1;
+        while ((1 << bits) < 2L * count) {
+            bits++;
+        }
+        return bits;
+    }
+
+    /**
+     * Size in bytes of a direct table with the given number of address bits and values of the given size.
+     */
+    static int directTableBytes(int bits, int valueBytes) {
+        final long bytes = (1L << bits) * valueBytes;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Table of " + (1L << bits) + " values too large for a direct buffer");
+        }
+        return (int) bytes;
+    }
+
+    /**
+     * Fibonacci hashing: multiplies by the golden ratio and keeps the high bits, which spreads rolling checksums whose
+     * entropy is concentrated in a few bits (e.g. 2 byte rsums) evenly across the table.
+     */
+    private static int hash(int value, int shift) {
+        return (value * 0x9E3779B9) >>> shift;
+    }
+
+    public boolean contains(int value) {
+        if (value == EMPTY) {
+            return this.containsZero;
+        }
+        int slot = hash(value, this.shift);
+        int current;
+        while ((current = this.table.get(slot)) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Number of distinct values in this set
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isDirect() {
+        return this.table.isDirect();
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+import static java.nio.ByteOrder.nativeOrder;
+
+/**
+ * The long counterpart of {@link IntHashSet}, used to look up pairs of consecutive rolling checksums.
+ */
+public final class LongHashSet {
+
+    // 0 marks an empty slot, so membership of 0 itself is tracked separately
+    private static final long EMPTY = 0;
+
+    private final LongBuffer table;
+    private final int shift;
+    private final int mask;
+    private final boolean containsZero;
+    private final int size;
+
+    private LongHashSet(LongBuffer table, int shift, boolean containsZero, int size) {
+        this.table = table;
+        this.shift = shift;
+        this.mask = table.capacity() - 1;
+        this.containsZero = containsZero;
+        this.size = size;
+    }
+
+    /**
+     * Creates a heap-backed set containing the first count values of the given array.
+     *
+     * @param values Values to add to the set, may contain duplicates
+     * @param count  Number of values to read from the array
+     * @return
+     */
+    public static LongHashSet copyOf(long[] values, int count) {
+        return copyOf(values, count, false);
+    }
+
+    /**
+     * Creates a set containing the first count values of the given array.
+     *
+     * @param values Values to add to the set, may contain duplicates
+     * @param count  Number of values to read from the array
+     * @param direct Whether to allocate the table in a direct (off-heap) buffer
+     * @return
+     */
+    public static LongHashSet copyOf(long[] values, int count, boolean direct) {
+        if (count < 0 || count > values.length) {
+            throw new IllegalArgumentException("Invalid count " + count);
+        }
+        final int bits = IntHashSet.tableBits(count);
+        final int capacity = 1 << bits;
+        final LongBuffer table = direct ? ByteBuffer.allocateDirect(IntHashSet.directTableBytes(bits, 8))
+                .order(nativeOrder()).asLongBuffer() : LongBuffer.allocate(capacity);
+        final int shift = 64 - bits;
+        final int mask = capacity - 1;
+        boolean containsZero = false;
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            final long value = values[i];
+            if (value == EMPTY) {
+                if (!containsZero) {
+                    containsZero = true;
+                    size++;
+                }
+                continue;
+            }
+            int slot = hash(value, shift);
+            long current;
+            while ((current = table.get(slot)) != EMPTY && current != value) {
+                slot = (slot + 1) & mask;
+            }
+            if (current == EMPTY) {
+                table.put(slot, value);
+                size++;
+            }
+        }
+        return new LongHashSet(table, shift, containsZero, size);
+    }
+
+    /**
+     * 64 bit variant of the Fibonacci hashing in {@link IntHashSet}
+     */
+    private static int hash(long value, int shift) {
+        return (int) ((value * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    public boolean contains(long value) {
+        if (value == EMPTY) {
+            return this.containsZero;
+        }
+        int slot = hash(value, this.shift);
+        long current;
+        while ((current = this.table.get(slot)) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+            slot = (slot + 1) & this.mask;
+        }
+        return false;
+    }
+
+    /**
+     * Number of distinct values in this set
+     */
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isDirect() {
+        return this.table.isDirect();
+    }
+
+}
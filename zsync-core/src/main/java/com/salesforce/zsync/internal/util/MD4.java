@@ -0,0 +1,294 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigestSpi;
+
+/**
+ * MD4 message digest (RFC 1320) tuned for digesting zsync blocks. Whole 64 byte blocks are processed straight from the
+ * input array or buffer as little-endian words, only partial blocks are staged in an internal buffer, and digesting
+ * does not allocate. {@link #engineDigest(byte[], int, int)} accepts lengths shorter than the digest, in which case
+ * only the leading bytes are written, as required for the truncated checksums of control files.
+ */
+public final class MD4 extends MessageDigestSpi implements Cloneable {
+
+    private static final int DIGEST_LENGTH = 16;
+    private static final int BLOCK_LENGTH = 64;
+
+    private static final int A = 0x67452301;
+    private static final int B = 0xefcdab89;
+    private static final int C = 0x98badcfe;
+    private static final int D = 0x10325476;
+
+    private static final int K2 = 0x5a827999;
+    private static final int K3 = 0x6ed9eba1;
+
+    // partial block and message words, reused across updates
+    private byte[] buffer = new byte[BLOCK_LENGTH];
+    private int[] x = new int[16];
+
+    private int a = A;
+    private int b = B;
+    private int c = C;
+    private int d = D;
+    private long count;
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        final int pos = (int) this.count & (BLOCK_LENGTH - 1);
+        this.buffer[pos] = input;
+        this.count++;
+        if (pos == BLOCK_LENGTH - 1) {
+            this.process(this.buffer, 0);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        int pos = (int) this.count & (BLOCK_LENGTH - 1);
+        this.count += len;
+        if (pos > 0) {
+            final int n = Math.min(len, BLOCK_LENGTH - pos);
+            System.arraycopy(input, offset, this.buffer, pos, n);
+            offset += n;
+            len -= n;
+            if (pos + n < BLOCK_LENGTH) {
+                return;
+            }
+            this.process(this.buffer, 0);
+        }
+        for (; len >= BLOCK_LENGTH; offset += BLOCK_LENGTH, len -= BLOCK_LENGTH) {
+            this.process(input, offset);
+        }
+        if (len > 0) {
+            System.arraycopy(input, offset, this.buffer, 0, len);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        if (input.hasArray()) {
+            final int position = input.position();
+            this.engineUpdate(input.array(), input.arrayOffset() + position, input.remaining());
+            input.position(input.limit());
+            return;
+        }
+        int index = input.position();
+        int len = input.remaining();
+        int pos = (int) this.count & (BLOCK_LENGTH - 1);
+        this.count += len;
+        if (pos > 0) {
+            final int n = Math.min(len, BLOCK_LENGTH - pos);
+            for (int i = 0; i < n; i++) {
+                this.buffer[pos + i] = input.get(index + i);
+            }
+            index += n;
+            len -= n;
+            if (pos + n < BLOCK_LENGTH) {
+                input.position(input.limit());
+                return;
+            }
+            this.process(this.buffer, 0);
+        }
+        final boolean bigEndian = input.order() == ByteOrder.BIG_ENDIAN;
+        for (; len >= BLOCK_LENGTH; index += BLOCK_LENGTH, len -= BLOCK_LENGTH) {
+            final int[] x = this.x;
+            for (int i = 0; i < 16; i++) {
+                final int word = input.getInt(index + 4 * i);
+                x[i] = bigEndian ? Integer.reverseBytes(word) : word;
+            }
+            this.process();
+        }
+        for (int i = 0; i < len; i++) {
+            this.buffer[i] = input.get(index + i);
+        }
+        input.position(input.limit());
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final byte[] digest = new byte[DIGEST_LENGTH];
+        this.digest(digest, 0, DIGEST_LENGTH);
+        return digest;
+    }
+
+    @Override
+    protected int engineDigest(byte[] buf, int offset, int len) throws DigestException {
+        if (offset < 0 || len < 0 || offset + len > buf.length) {
+            throw new DigestException("Insufficient space in the output buffer to store the digest");
+        }
+        final int n = Math.min(len, DIGEST_LENGTH);
+        this.digest(buf, offset, n);
+        return n;
+    }
+
+    @Override
+    protected void engineReset() {
+        this.a = A;
+        this.b = B;
+        this.c = C;
+        this.d = D;
+        this.count = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final MD4 clone = (MD4) super.clone();
+        clone.buffer = this.buffer.clone();
+        clone.x = new int[16];
+        return clone;
+    }
+
+    // pads the message, writes the leading len bytes of the digest to buf and resets the state
+    private void digest(byte[] buf, int offset, int len) {
+        final long bits = this.count << 3;
+        int pos = (int) this.count & (BLOCK_LENGTH - 1);
+        this.buffer[pos++] = (byte) 0x80;
+        if (pos > BLOCK_LENGTH - 8) {
+            fill(this.buffer, pos, BLOCK_LENGTH);
+            this.process(this.buffer, 0);
+            pos = 0;
+        }
+        fill(this.buffer, pos, BLOCK_LENGTH - 8);
+        for (int i = 0; i < 8; i++) {
+            this.buffer[BLOCK_LENGTH - 8 + i] = (byte) (bits >>> (i << 3));
+        }
+        this.process(this.buffer, 0);
+
+        for (int i = 0; i < len; i++) {
+            buf[offset + i] = (byte) (this.register(i >> 2) >>> ((i & 3) << 3));
+        }
+        this.engineReset();
+    }
+
+    private int register(int i) {
+        switch (i) {
+            case 0:
+                return this.a;
+            case 1:
+                return this.b;
+            case 2:
+                return this.c;
+            default:
+                return this.d;
+        }
+    }
+
+    private static void fill(byte[] bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            bytes[i] = 0;
+        }
+    }
+
+    private void process(byte[] in, int offset) {
+        this.process(word(in, offset), word(in, offset + 4), word(in, offset + 8), word(in, offset + 12),
+                word(in, offset + 16), word(in, offset + 20), word(in, offset + 24), word(in, offset + 28),
+                word(in, offset + 32), word(in, offset + 36), word(in, offset + 40), word(in, offset + 44),
+                word(in, offset + 48), word(in, offset + 52), word(in, offset + 56), word(in, offset + 60));
+    }
+
+    private static int word(byte[] in, int offset) {
+        return (in[offset] & 0xff) | (in[offset + 1] & 0xff) << 8 | (in[offset + 2] & 0xff) << 16 | in[offset + 3] << 24;
+    }
+
+    private void process() {
+        final int[] x = this.x;
+        this.process(x[0], x[1], x[2], x[3], x[4], x[5], x[6], x[7], x[8], x[9], x[10], x[11], x[12], x[13], x[14], x[15]);
+    }
+
+    // the three rounds of 16 steps each over the little-endian message words x0 to x15
+    private void process(int x0, int x1, int x2, int x3, int x4, int x5, int x6, int x7, int x8, int x9, int x10,
+                         int x11, int x12, int x13, int x14, int x15) {
+        int a = this.a;
+        int b = this.b;
+        int c = this.c;
+        int d = this.d;
+
+        a = Integer.rotateLeft(a + (d ^ (b & (c ^ d))) + x0, 3);
+        d = Integer.rotateLeft(d + (c ^ (a & (b ^ c))) + x1, 7);
+        c = Integer.rotateLeft(c + (b ^ (d & (a ^ b))) + x2, 11);
+        b = Integer.rotateLeft(b + (a ^ (c & (d ^ a))) + x3, 19);
+        a = Integer.rotateLeft(a + (d ^ (b & (c ^ d))) + x4, 3);
+        d = Integer.rotateLeft(d + (c ^ (a & (b ^ c))) + x5, 7);
+        c = Integer.rotateLeft(c + (b ^ (d & (a ^ b))) + x6, 11);
+        b = Integer.rotateLeft(b + (a ^ (c & (d ^ a))) + x7, 19);
+        a = Integer.rotateLeft(a + (d ^ (b & (c ^ d))) + x8, 3);
+        d = Integer.rotateLeft(d + (c ^ (a & (b ^ c))) + x9, 7);
+        c = Integer.rotateLeft(c + (b ^ (d & (a ^ b))) + x10, 11);
+        b = Integer.rotateLeft(b + (a ^ (c & (d ^ a))) + x11, 19);
+        a = Integer.rotateLeft(a + (d ^ (b & (c ^ d))) + x12, 3);
+        d = Integer.rotateLeft(d + (c ^ (a & (b ^ c))) + x13, 7);
+        c = Integer.rotateLeft(c + (b ^ (d & (a ^ b))) + x14, 11);
+        b = Integer.rotateLeft(b + (a ^ (c & (d ^ a))) + x15, 19);
+
+        a = Integer.rotateLeft(a + ((b & c) | (d & (b | c))) + x0 + K2, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (c & (a | b))) + x4 + K2, 5);
+        c = Integer.rotateLeft(c + ((d & a) | (b & (d | a))) + x8 + K2, 9);
+        b = Integer.rotateLeft(b + ((c & d) | (a & (c | d))) + x12 + K2, 13);
+        a = Integer.rotateLeft(a + ((b & c) | (d & (b | c))) + x1 + K2, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (c & (a | b))) + x5 + K2, 5);
+        c = Integer.rotateLeft(c + ((d & a) | (b & (d | a))) + x9 + K2, 9);
+        b = Integer.rotateLeft(b + ((c & d) | (a & (c | d))) + x13 + K2, 13);
+        a = Integer.rotateLeft(a + ((b & c) | (d & (b | c))) + x2 + K2, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (c & (a | b))) + x6 + K2, 5);
+        c = Integer.rotateLeft(c + ((d & a) | (b & (d | a))) + x10 + K2, 9);
+        b = Integer.rotateLeft(b + ((c & d) | (a & (c | d))) + x14 + K2, 13);
+        a = Integer.rotateLeft(a + ((b & c) | (d & (b | c))) + x3 + K2, 3);
+        d = Integer.rotateLeft(d + ((a & b) | (c & (a | b))) + x7 + K2, 5);
+        c = Integer.rotateLeft(c + ((d & a) | (b & (d | a))) + x11 + K2, 9);
+        b = Integer.rotateLeft(b + ((c & d) | (a & (c | d))) + x15 + K2, 13);
+
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x0 + K3, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x8 + K3, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x4 + K3, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x12 + K3, 15);
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x2 + K3, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x10 + K3, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x6 + K3, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x14 + K3, 15);
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x1 + K3, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x9 + K3, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x5 + K3, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x13 + K3, 15);
+        a = Integer.rotateLeft(a + (b ^ c ^ d) + x3 + K3, 3);
+        d = Integer.rotateLeft(d + (a ^ b ^ c) + x11 + K3, 9);
+        c = Integer.rotateLeft(c + (d ^ a ^ b) + x7 + K3, 11);
+        b = Integer.rotateLeft(b + (c ^ d ^ a) + x15 + K3, 15);
+
+        this.a += a;
+        this.b += b;
+        this.c += c;
+        this.d += d;
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Rolling window over a file backed by a sequence of memory mapped segments of the file instead of a heap buffer
+ * filled by reads, so that bytes are accessed directly from the page cache and written out without intermediate
+ * copies. Consecutive segments overlap by at least one window. The buffer can cover a region of the file, and the
+ * region can be padded with a number of virtual zero bytes at the end.
+ */
+public class MappedRollingBuffer implements RollingReadableByteBuffer {
+
+    private final FileChannel channel;
+    // end of the region within the file
+    private final long end;
+    // end of the region plus zero padding
+    private final long paddedEnd;
+    private final int length;
+    private final int segmentSize;
+    private final TransferListener listener;
+    private final ByteBuffer zeros;
+
+    // position of the current window within the file
+    private long position;
+    // position of the current segment within the file
+    private long segmentStart;
+    private MappedByteBuffer segment;
+
+    /**
+     * Constructs a rolling buffer over the given file channel and maps the first segment.
+     *
+     * @param channel    Channel to roll over, which must remain open as long as the buffer is used
+     * @param size       Size of the file
+     * @param numZeros   Number of zero bytes to pad the file with
+     * @param windowSize Size of the window into the channel, must be positive
+     * @param segmentSize Maximum size of each mapped segment. Must be at least twice the window size.
+     * @param listener   Notified as segments of the file are mapped, may be null
+     * @throws IOException If mapping the file fails
+     */
+    public MappedRollingBuffer(FileChannel channel, long size, int numZeros, int windowSize, int segmentSize,
+                               TransferListener listener) throws IOException {
+        this(channel, 0, size, numZeros, windowSize, segmentSize, listener);
+    }
+
+    /**
+     * Constructs a rolling buffer over the given region of the file channel and maps the first segment.
+     *
+     * @param channel    Channel to roll over, which must remain open as long as the buffer is used
+     * @param start      Start of the region within the file
+     * @param end        End of the region within the file (exclusive)
+     * @param numZeros   Number of zero bytes to pad the region with
+     * @param windowSize Size of the window into the channel, must be positive
+     * @param segmentSize Maximum size of each mapped segment. Must be at least twice the window size.
+     * @param listener   Notified as segments of the file are mapped, may be null
+     * @throws IOException If mapping the file fails
+     */
+    public MappedRollingBuffer(FileChannel channel, long start, long end, int numZeros, int windowSize,
+                               int segmentSize, TransferListener listener) throws IOException {
+        if (windowSize <= 0 || segmentSize <= 0 || numZeros < 0) {
+            throw new IllegalArgumentException("window and segment size must be positive integers");
+        }
+        if (segmentSize < 2 * windowSize) {
+            throw new IllegalArgumentException("Segment size must be at least twice the window size");
+        }
+        if (start < 0 || start > end) {
+            throw new IllegalArgumentException("Invalid region [" + start + ", " + end + ")");
+        }
+        if (end - start + numZeros < windowSize) {
+            throw new IllegalArgumentException("Insufficient bytes available (" + (end - start + numZeros)
+                    + ") to satisfy window size " + windowSize);
+        }
+        this.channel = channel;
+        this.end = end;
+        this.paddedEnd = end + numZeros;
+        this.length = windowSize;
+        this.segmentSize = segmentSize;
+        this.listener = listener;
+        this.zeros = ByteBuffer.allocateDirect(Math.min(numZeros, windowSize));
+        this.position = start;
+        this.segmentStart = start;
+        this.map(start);
+    }
+
+    @Override
+    public boolean advance(int bytes) throws IOException {
+        if (bytes < 0) {
+            throw new IllegalArgumentException("Cannot advance window backwards");
+        }
+        if (bytes > this.length) {
+            throw new IllegalArgumentException("Cannot advance window beyond current end position");
+        }
+        final long next = this.position + bytes;
+        if (next + this.length > this.paddedEnd) {
+            return false;
+        }
+        this.position = next;
+        // remap once the window leaves the current segment, unless the segment already extends to the end of the region
+        final long segmentEnd = this.segmentStart + this.segment.limit();
+        if (next + this.length > segmentEnd && segmentEnd < this.end) {
+            this.map(next);
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public byte get(int i) {
+        if (i < 0 || i >= this.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        final long p = this.position - this.segmentStart + i;
+        return p < this.segment.limit() ? this.segment.get((int) p) : 0;
+    }
+
+    @Override
+    public ByteBuffer lookahead() {
+        final ByteBuffer view = this.segment.duplicate();
+        view.position((int) Math.min(this.position - this.segmentStart, view.limit()));
+        return view.slice();
+    }
+
+    @Override
+    public int rsum(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        final long p = this.position - this.segmentStart + offset;
+        final int n = (int) Math.max(0, Math.min(length, this.segment.limit() - p));
+        final int rsum = ZsyncUtil.computeRsum(this.segment, (int) Math.min(p, this.segment.limit()), n);
+        if (n == length) {
+            return rsum;
+        }
+        // trailing zeros add nothing to the sum, but weigh the preceding bytes by the full length
+        final short a = (short) (rsum >>> 16);
+        return ZsyncUtil.toInt(a, (short) (rsum + (length - n) * a));
+    }
+
+    @Override
+    public void write(WritableByteChannel channel) throws IOException {
+        this.write(channel, 0, this.length);
+    }
+
+    @Override
+    public void write(WritableByteChannel channel, int offset, int length) throws IOException {
+        if (offset < 0 || offset >= this.length) {
+            throw new IndexOutOfBoundsException("Invalid offset " + offset);
+        }
+        if (offset + length > this.length) {
+            throw new IndexOutOfBoundsException("Invalid length " + length);
+        }
+        final int start = (int) (this.position - this.segmentStart) + offset;
+        final int limit = this.segment.limit();
+        final int end = Math.min(start + length, limit);
+        if (start < end) {
+            try {
+                // to write only the requested range, set position and limit temporarily
+                this.segment.position(start);
+                this.segment.limit(end);
+                do {
+                    channel.write(this.segment);
+                } while (this.segment.hasRemaining());
+            } finally {
+                this.segment.limit(limit);
+                this.segment.position(0);
+            }
+        }
+        final int padding = length - Math.max(0, end - start);
+        if (padding > 0) {
+            this.zeros.clear().limit(padding);
+            do {
+                channel.write(this.zeros);
+            } while (this.zeros.hasRemaining());
+        }
+    }
+
+    private void map(long start) throws IOException {
+        final long previousEnd = this.segment == null ? start : this.segmentStart + this.segment.limit();
+        final long segmentLength = Math.min(this.segmentSize, this.end - start);
+        this.segment = this.channel.map(MapMode.READ_ONLY, start, segmentLength);
+        this.segmentStart = start;
+        if (this.listener != null) {
+            this.listener.transferred(start + segmentLength - previousEnd);
+        }
+    }
+
+}
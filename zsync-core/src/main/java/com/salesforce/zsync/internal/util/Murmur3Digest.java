@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigestSpi;
+
+/**
+ * 128 bit MurmurHash3 (x64 variant, seed 0) as a message digest, producing the same bytes as Guava's
+ * {@code Hashing.murmur3_128()}. Not a cryptographic hash, but much faster than MD4 and with sufficient collision
+ * resistance to verify block matches, for control files produced and consumed only by this library. Like {@link MD4},
+ * {@link #engineDigest(byte[], int, int)} writes only the leading bytes if given a shorter length.
+ */
+public final class Murmur3Digest extends MessageDigestSpi implements Cloneable {
+
+    private static final int DIGEST_LENGTH = 16;
+    private static final int BLOCK_LENGTH = 16;
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    // partial block, reused across updates
+    private byte[] buffer = new byte[BLOCK_LENGTH];
+
+    private long h1;
+    private long h2;
+    private long count;
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        final int pos = (int) this.count & (BLOCK_LENGTH - 1);
+        this.buffer[pos] = input;
+        this.count++;
+        if (pos == BLOCK_LENGTH - 1) {
+            this.process(ByteBuffer.wrap(this.buffer), 0);
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        this.update(ByteBuffer.wrap(input), offset, len);
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        this.update(input, input.position(), input.remaining());
+        input.position(input.limit());
+    }
+
+    private void update(ByteBuffer input, int index, int len) {
+        final int pos = (int) this.count & (BLOCK_LENGTH - 1);
+        this.count += len;
+        if (pos > 0) {
+            final int n = Math.min(len, BLOCK_LENGTH - pos);
+            for (int i = 0; i < n; i++) {
+                this.buffer[pos + i] = input.get(index + i);
+            }
+            index += n;
+            len -= n;
+            if (pos + n < BLOCK_LENGTH) {
+                return;
+            }
+            this.process(ByteBuffer.wrap(this.buffer), 0);
+        }
+        for (; len >= BLOCK_LENGTH; index += BLOCK_LENGTH, len -= BLOCK_LENGTH) {
+            this.process(input, index);
+        }
+        for (int i = 0; i < len; i++) {
+            this.buffer[i] = input.get(index + i);
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        final byte[] digest = new byte[DIGEST_LENGTH];
+        this.digest(digest, 0, DIGEST_LENGTH);
+        return digest;
+    }
+
+    @Override
+    protected int engineDigest(byte[] buf, int offset, int len) throws DigestException {
+        if (offset < 0 || len < 0 || offset + len > buf.length) {
+            throw new DigestException("Insufficient space in the output buffer to store the digest");
+        }
+        final int n = Math.min(len, DIGEST_LENGTH);
+        this.digest(buf, offset, n);
+        return n;
+    }
+
+    @Override
+    protected void engineReset() {
+        this.h1 = 0;
+        this.h2 = 0;
+        this.count = 0;
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+        final Murmur3Digest clone = (Murmur3Digest) super.clone();
+        clone.buffer = this.buffer.clone();
+        return clone;
+    }
+
+    // mixes in the remaining bytes and the length, writes the leading len bytes of the digest to buf and resets the state
+    private void digest(byte[] buf, int offset, int len) {
+        final int remaining = (int) this.count & (BLOCK_LENGTH - 1);
+        long k1 = 0;
+        long k2 = 0;
+        for (int i = remaining - 1; i >= 8; i--) {
+            k2 = k2 << 8 | (this.buffer[i] & 0xff);
+        }
+        for (int i = Math.min(remaining, 8) - 1; i >= 0; i--) {
+            k1 = k1 << 8 | (this.buffer[i] & 0xff);
+        }
+        long h1 = this.h1 ^ mixK1(k1);
+        long h2 = this.h2 ^ mixK2(k2);
+
+        h1 ^= this.count;
+        h2 ^= this.count;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+        h1 += h2;
+        h2 += h1;
+
+        for (int i = 0; i < len; i++) {
+            buf[offset + i] = (byte) ((i < 8 ? h1 : h2) >>> ((i & 7) << 3));
+        }
+        this.engineReset();
+    }
+
+    private void process(ByteBuffer in, int index) {
+        long k1 = in.getLong(index);
+        long k2 = in.getLong(index + 8);
+        if (in.order() == ByteOrder.BIG_ENDIAN) {
+            k1 = Long.reverseBytes(k1);
+            k2 = Long.reverseBytes(k2);
+        }
+        long h1 = this.h1;
+        long h2 = this.h2;
+
+        h1 ^= mixK1(k1);
+        h1 = Long.rotateLeft(h1, 27);
+        h1 += h2;
+        h1 = h1 * 5 + 0x52dce729;
+
+        h2 ^= mixK2(k2);
+        h2 = Long.rotateLeft(h2, 31);
+        h2 += h1;
+        h2 = h2 * 5 + 0x38495ab5;
+
+        this.h1 = h1;
+        this.h2 = h2;
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
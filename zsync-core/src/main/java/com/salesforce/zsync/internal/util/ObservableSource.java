@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+import java.io.IOException;
+
+/**
+ * A source wrapper that reports bytes read from the underlying source to a transfer listener, analogous to
+ * {@link ObservableInputStream}.
+ */
+public class ObservableSource extends ForwardingSource {
+
+    private final TransferListener observer;
+
+    public ObservableSource(Source delegate, TransferListener observer) {
+        super(delegate);
+        this.observer = observer;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+        final long read = super.read(sink, byteCount);
+        if (read > 0) {
+            this.observer.transferred(read);
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            this.observer.close();
+        }
+    }
+
+    /**
+     * A source wrapper that lets you observe bytes of a resource with up-front known size.
+     */
+    public static class ObservableResourceSource<T> extends ObservableSource {
+
+        public ObservableResourceSource(Source delegate, ResourceTransferListener<T> observer, T resource, long size) {
+            super(delegate, observer);
+            observer.start(resource, size);
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.http.RangeCostModel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Coalesces the ranges to fetch from a remote file to minimize the estimated cost of fetching them. Merging two
+ * adjacent ranges costs the bytes of the gap between them, but saves the overhead of one range and, once the number of
+ * ranges drops below a multiple of the maximum number of ranges per request, the overhead of one request.
+ * <p>
+ * For a given number of merges, merging the smallest gaps is cheapest, so the planner sorts the gaps, evaluates the
+ * cost for every number of merges and merges the smallest gaps for the cheapest one.
+ */
+public final class RangePlanner {
+
+    private RangePlanner() {
+    }
+
+    /**
+     * Returns the number of requests needed to fetch the given number of ranges
+     *
+     * @param ranges
+     * @param maxRangesPerRequest
+     * @return
+     */
+    public static long requests(long ranges, int maxRangesPerRequest) {
+        return (ranges + maxRangesPerRequest - 1) / maxRangesPerRequest;
+    }
+
+    /**
+     * Returns the total number of bytes in the given ranges
+     *
+     * @param ranges
+     * @return
+     */
+    public static long bytes(List<ContentRange> ranges) {
+        long bytes = 0;
+        for (ContentRange range : ranges) {
+            bytes += range.length();
+        }
+        return bytes;
+    }
+
+    /**
+     * Coalesces the given ranges per the given cost model.
+     *
+     * @param ranges              sorted, non-overlapping ranges
+     * @param model
+     * @param maxRangesPerRequest maximum number of ranges the server accepts in a single request
+     * @return
+     */
+    public static List<ContentRange> plan(List<ContentRange> ranges, RangeCostModel model, int maxRangesPerRequest) {
+        checkArgument(maxRangesPerRequest > 0, "maximum ranges per request must be positive");
+        final int n = ranges.size();
+        if (n < 2) {
+            return ranges;
+        }
+
+        final long[] gaps = new long[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            gaps[i] = ranges.get(i + 1).first() - ranges.get(i).last() - 1;
+            checkArgument(gaps[i] >= 0, "ranges must be sorted and must not overlap");
+        }
+        final long[] sorted = gaps.clone();
+        Arrays.sort(sorted);
+
+        // find number of merges with lowest cost; bytes in the ranges themselves are the same for all and omitted
+        int merges = 0;
+        long bestCost = model.cost(0, n, requests(n, maxRangesPerRequest));
+        long gapBytes = 0;
+        for (int m = 1; m < n; m++) {
+            gapBytes += sorted[m - 1];
+            final long cost = model.cost(gapBytes, n - m, requests(n - m, maxRangesPerRequest));
+            if (cost < bestCost) {
+                bestCost = cost;
+                merges = m;
+            }
+        }
+        if (merges == 0) {
+            return ranges;
+        }
+
+        // merge all gaps smaller than the largest merged gap and as many gaps equal to it as needed in order
+        final long threshold = sorted[merges - 1];
+        int equalToThreshold = merges;
+        for (int i = 0; i < merges; i++) {
+            if (sorted[i] < threshold) {
+                equalToThreshold--;
+            }
+        }
+        final List<ContentRange> planned = new ArrayList<>(n - merges);
+        long first = ranges.get(0).first();
+        for (int i = 0; i < n - 1; i++) {
+            final boolean merge;
+            if (gaps[i] < threshold) {
+                merge = true;
+            } else if (gaps[i] == threshold && equalToThreshold > 0) {
+                equalToThreshold--;
+                merge = true;
+            } else {
+                merge = false;
+            }
+            if (!merge) {
+                planned.add(new ContentRange(first, ranges.get(i).last()));
+                first = ranges.get(i + 1).first();
+            }
+        }
+        planned.add(new ContentRange(first, ranges.get(n - 1).last()));
+        return planned;
+    }
+
+}
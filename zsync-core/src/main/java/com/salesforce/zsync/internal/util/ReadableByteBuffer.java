@@ -50,6 +50,16 @@ public interface ReadableByteBuffer {
      */
     byte get(int i);
 
+    /**
+     * Returns the rolling checksum of the given range of the current block, see
+     * {@link ZsyncUtil#computeRsum(byte[], int, int)}
+     *
+     * @param offset
+     * @param length
+     * @return
+     */
+    int rsum(int offset, int length);
+
     /**
      * Bulk operation for writing to channel
      *
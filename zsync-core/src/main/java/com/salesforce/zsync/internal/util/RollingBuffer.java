@@ -35,7 +35,7 @@ import java.nio.channels.WritableByteChannel;
  *
  * @author bbusjaeger
  */
-public class RollingBuffer implements ReadableByteBuffer {
+public class RollingBuffer implements RollingReadableByteBuffer {
 
     // the source this buffer provides a view over
     private final ReadableByteChannel channel;
@@ -85,6 +85,7 @@ public class RollingBuffer implements ReadableByteBuffer {
      * the request number.
      * @throws IOException
      */
+    @Override
     public boolean advance(int bytes) throws IOException {
         if (bytes < 0) {
             throw new IllegalArgumentException("Cannot advance window backwards");
@@ -120,6 +121,19 @@ public class RollingBuffer implements ReadableByteBuffer {
         return this.buffer.get(this.buffer.position() + i);
     }
 
+    @Override
+    public ByteBuffer lookahead() {
+        return this.buffer.slice();
+    }
+
+    @Override
+    public int rsum(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > this.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        return ZsyncUtil.computeRsum(this.buffer, this.buffer.position() + offset, length);
+    }
+
     /**
      * Writes the current window fully to the given channel
      */
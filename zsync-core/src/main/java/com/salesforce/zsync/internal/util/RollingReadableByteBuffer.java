@@ -0,0 +1,58 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link ReadableByteBuffer} providing a fixed size window that rolls forward over some underlying data.
+ */
+public interface RollingReadableByteBuffer extends ReadableByteBuffer {
+
+    /**
+     * Advances the window by the given number of bytes.
+     *
+     * @param bytes Number of bytes to advance the window by. Must the in the interval [0, length()].
+     * @return True if window was successfully advanced by the given number of bytes. False, otherwise, i.e. if the
+     * underlying data does not contain enough bytes to advance the window by the requested number.
+     * @throws IOException
+     */
+    boolean advance(int bytes) throws IOException;
+
+    /**
+     * Returns a view of the bytes already available from the start of the window onwards, so that consumers can roll
+     * over them in a tight loop instead of advancing one byte at a time. Index 0 of the view is the first byte of the
+     * window. The view contains the window and the bytes after it up to the limit of the view, and the window can be
+     * advanced by up to {@code limit - length()} bytes, but at most {@code length()} bytes at once, without reading more
+     * data. The view may be shorter than the window if the window is not backed by contiguous bytes, e.g. because it
+     * covers zero padding. Does not read any data.
+     *
+     * @return view that must not be retained beyond the next call to {@link #advance(int)}
+     */
+    ByteBuffer lookahead();
+
+}
@@ -25,11 +25,10 @@
  */
 package com.salesforce.zsync.internal.util;
 
-import org.apache.mina.proxy.utils.MD4;
-
 import java.io.*;
 import java.net.URI;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -41,7 +40,24 @@ import java.util.TimeZone;
 public class ZsyncUtil {
 
     private static final char[] HEX_CODE = "0123456789abcdef".toCharArray();
-    private static final Provider md4Provider;
+    // masks and multipliers for summing eight bytes at a time, see computeRsum
+    private static final long EVEN_BYTES = 0x00FF00FF00FF00FFL;
+    private static final long LANES = 0x0001000100010001L;
+    // weights 8, 6, 4, 2 of bytes 0, 2, 4, 6 and 7, 5, 3, 1 of bytes 1, 3, 5, 7 in reverse lane order
+    private static final long EVEN_WEIGHTS = 0x0008000600040002L;
+    private static final long ODD_WEIGHTS = 0x0007000500030001L;
+    private static final Provider checksumProvider;
+
+    /**
+     * Name of the strong checksum algorithm of the zsync control file format, used unless the control file specifies
+     * another one
+     */
+    public static final String MD4 = "MD4";
+
+    /**
+     * Name of the faster strong checksum algorithm that control files produced by this library can select instead of MD4
+     */
+    public static final String MURMUR3_128 = "MURMUR3-128";
 
 
     @SuppressWarnings("serial")
@@ -54,10 +70,11 @@ public class ZsyncUtil {
 
 
     static {
-        md4Provider = new Provider("MD4Provider", 1d, "implements md4") {
+        checksumProvider = new Provider("ZsyncChecksumProvider", 1d, "implements md4 and murmur3-128") {
             private static final long serialVersionUID = 6386613936557154160L;
         };
-        md4Provider.put("MessageDigest.MD4", MD4.class.getName());
+        checksumProvider.put("MessageDigest." + MD4, com.salesforce.zsync.internal.util.MD4.class.getName());
+        checksumProvider.put("MessageDigest." + MURMUR3_128, Murmur3Digest.class.getName());
     }
 
     public static String toHexString(ByteBuffer buffer) {
@@ -71,14 +88,58 @@ public class ZsyncUtil {
     }
 
     public static int computeRsum(byte[] block) {
-        short a = 0;
-        short b = 0;
-        for (int i = 0, l = block.length; i < block.length; i++, l--) {
-            final short val = unsigned(block[i]);
-            a += val;
-            b += l * val;
+        return computeRsum(block, 0, block.length);
+    }
+
+    /**
+     * Computes the rolling checksum of the given bytes, see {@link #computeRsum(ByteBuffer, int, int)}.
+     *
+     * @param bytes
+     * @param offset
+     * @param length
+     * @return
+     */
+    public static int computeRsum(byte[] bytes, int offset, int length) {
+        return computeRsum(ByteBuffer.wrap(bytes), offset, length);
+    }
+
+    /**
+     * Computes the rolling checksum of the bytes of the given buffer at the given absolute index. The first 16 bits are
+     * the sum of the bytes and the second 16 bits the sum of the bytes weighted by their distance from the end, which is
+     * the sum of the running sums of the bytes.
+     * <p>
+     * The bytes are read eight at a time into a long, split into the four even and the four odd bytes in 16 bit lanes,
+     * and summed with and without weights by multiplying the lanes with constants that accumulate the dot product in the
+     * top lane. The sums are accumulated in ints, which wrap around like the shorts of the byte by byte computation, so
+     * the low 16 bits of each sum are the same.
+     *
+     * @param buffer
+     * @param index
+     * @param length
+     * @return
+     */
+    public static int computeRsum(ByteBuffer buffer, int index, int length) {
+        final boolean bigEndian = buffer.order() == ByteOrder.BIG_ENDIAN;
+        int a = 0;
+        int b = 0;
+        int i = index;
+        final int end = index + length;
+        for (final int end8 = end - 7; i < end8; i += 8) {
+            long word = buffer.getLong(i);
+            if (bigEndian) {
+                word = Long.reverseBytes(word);
+            }
+            // lane k holds byte 2k and byte 2k + 1 respectively
+            final long even = word & EVEN_BYTES;
+            final long odd = (word >>> 8) & EVEN_BYTES;
+            b += (a << 3) + (int) ((even * EVEN_WEIGHTS) >>> 48) + (int) ((odd * ODD_WEIGHTS) >>> 48);
+            a += (int) (((even + odd) * LANES) >>> 48);
+        }
+        for (; i < end; i++) {
+            a += buffer.get(i) & 0xFF;
+            b += a;
         }
-        return toInt(a, b);
+        return toInt((short) a, (short) b);
     }
 
     public static int toInt(short x, short y) {
@@ -105,13 +166,31 @@ public class ZsyncUtil {
     }
 
     public static MessageDigest newMD4() {
+        return newChecksumDigest(MD4);
+    }
+
+    /**
+     * Returns a new digest computing the given strong checksum algorithm.
+     *
+     * @param algorithm {@link #MD4} or {@link #MURMUR3_128}
+     * @return
+     * @throws IllegalArgumentException if the algorithm is not supported
+     */
+    public static MessageDigest newChecksumDigest(String algorithm) {
+        if (!isChecksumAlgorithm(algorithm)) {
+            throw new IllegalArgumentException("Unsupported checksum algorithm " + algorithm);
+        }
         try {
-            return MessageDigest.getInstance("MD4", md4Provider);
+            return MessageDigest.getInstance(algorithm, checksumProvider);
         } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException("MD4 unavailable");
+            throw new RuntimeException(algorithm + " unavailable");
         }
     }
 
+    public static boolean isChecksumAlgorithm(String algorithm) {
+        return MD4.equals(algorithm) || MURMUR3_128.equals(algorithm);
+    }
+
     public static MessageDigest newSHA1() {
         try {
             return MessageDigest.getInstance("SHA-1");
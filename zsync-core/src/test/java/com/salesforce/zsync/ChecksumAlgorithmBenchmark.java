@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync;
+
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares the strong checksum algorithms on both sides: making a control file for a target file, and syncing the target
+ * file from an identical input file, which computes the strong checksum of every block. Not run as part of the tests,
+ * run the main method with an optional size in MB (default 128) to compare.
+ */
+public class ChecksumAlgorithmBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException, ZsyncException {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 128) * 1024 * 1024;
+        final byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        final Path target = Files.createTempFile("target", null);
+        final Path zsync = Files.createTempFile("target", ".zsync");
+        final Path output = Files.createTempFile("output", null);
+        try {
+            Files.write(target, bytes);
+            for (int round = 0; round < ROUNDS; round++) {
+                final StringBuilder line = new StringBuilder("round " + round + ":");
+                for (String algorithm : new String[]{ZsyncUtil.MD4, ZsyncUtil.MURMUR3_128}) {
+                    long start = System.nanoTime();
+                    new ZsyncMake().writeToFile(target, zsync, new ZsyncMake.Options().setChecksumAlgorithm(algorithm)
+                            .setUrl("http://localhost/target"));
+                    final long make = System.nanoTime() - start;
+
+                    Files.deleteIfExists(output);
+                    start = System.nanoTime();
+                    new Zsync().zsync(zsync.toUri(),
+                            new Zsync.Options().addInputFile(target.toFile()).setOutputFile(output.toFile()));
+                    final long sync = System.nanoTime() - start;
+
+                    line.append(String.format(" %s make %5d MB/s sync %5d MB/s;", algorithm,
+                            mbPerSecond(size, make), mbPerSecond(size, sync)));
+                }
+                System.out.println(line);
+            }
+        } finally {
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(zsync);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static long mbPerSecond(long size, long nanos) {
+        return size * 1000L / nanos;
+    }
+
+}
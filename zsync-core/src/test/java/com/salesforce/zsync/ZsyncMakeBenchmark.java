@@ -0,0 +1,71 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Measures the throughput of making a control file with one thread and with the given number of threads, reading the
+ * input file into heap buffers and memory mapping it. Not run as part of the tests, run the main method with an optional
+ * size in MB (default 256) and number of threads (default number of processors) to compare.
+ */
+public class ZsyncMakeBenchmark {
+
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws IOException {
+        final int size = (args.length > 0 ? Integer.parseInt(args[0]) : 256) * 1024 * 1024;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        final byte[] bytes = new byte[size];
+        new Random(0).nextBytes(bytes);
+        final Path input = Files.createTempFile("input", null);
+        final Path zsync = Files.createTempFile("input", ".zsync");
+        try {
+            Files.write(input, bytes);
+            for (int round = 0; round < ROUNDS; round++) {
+                final StringBuilder line = new StringBuilder("round " + round + ":");
+                for (boolean map : new boolean[]{false, true}) {
+                    for (int t : new int[]{1, threads}) {
+                        final long start = System.nanoTime();
+                        new ZsyncMake().writeToFile(input, zsync,
+                                new ZsyncMake.Options().setThreads(t).setMapInputFile(map));
+                        final long nanos = System.nanoTime() - start;
+                        line.append(String.format(" %s %d threads %5d MB/s;", map ? "mapped" : "read", t,
+                                size * 1000L / nanos));
+                    }
+                }
+                System.out.println(line);
+            }
+        } finally {
+            Files.deleteIfExists(input);
+            Files.deleteIfExists(zsync);
+        }
+    }
+
+}
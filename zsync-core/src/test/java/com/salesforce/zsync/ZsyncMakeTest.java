@@ -25,9 +25,35 @@
  */
 package com.salesforce.zsync;
 
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.ControlFile;
+import com.salesforce.zsync.internal.util.ZsyncUtil;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
 
 
 public class ZsyncMakeTest {
@@ -51,4 +77,224 @@ public class ZsyncMakeTest {
         assertEquals(5, ZsyncMake.strongChecksumLength(57323443l, 2048, 2));
     }
 
+    @Test(expected = IllegalArgumentException.class)
+    public void testChecksumAlgorithmInvalid() {
+        new ZsyncMake.Options().setChecksumAlgorithm("MD5");
+    }
+
+    /**
+     * Asserts that a control file written to a file, whose SHA-1 header is filled in after the checksums are written, is
+     * the same as one written to a stream, whose checksums are spilled until the SHA-1 is known
+     */
+    @Test
+    public void testWriteToFileAndStream() throws IOException {
+        final byte[] bytes = new byte[100 * 2048 + 10];
+        new Random(0).nextBytes(bytes);
+        final Path inputFile = Files.createTempFile("input", null);
+        final Path outputFile = Files.createTempFile("input", ".zsync");
+        try {
+            Files.write(inputFile, bytes);
+            final ZsyncMake.Options options = new ZsyncMake.Options().setFilename("input").setUrl("input");
+            final String sha1 = new ZsyncMake().writeToFile(inputFile, outputFile, options).getSha1();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            assertEquals(sha1, new ZsyncMake().writeToStream(inputFile, out, options).getSha1());
+
+            final byte[] written = Files.readAllBytes(outputFile);
+            assertArrayEquals(out.toByteArray(), written);
+            final ControlFile controlFile = ControlFile.read(new ByteArrayInputStream(written));
+            assertEquals(ZsyncUtil.toHexString(ByteBuffer.wrap(ZsyncUtil.newSHA1().digest(bytes))), sha1);
+            assertEquals(sha1, controlFile.getHeader().getSha1());
+            assertEquals(bytes.length, controlFile.getHeader().getLength());
+        } finally {
+            Files.deleteIfExists(inputFile);
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    /**
+     * Asserts that a control file made incrementally from the previous control file, which it replaces, is the same as
+     * one made from scratch
+     */
+    @Test
+    public void testPreviousControlFile() throws IOException {
+        final byte[] bytes = new byte[100 * 2048 + 10];
+        new Random(0).nextBytes(bytes);
+        final Path inputFile = Files.createTempFile("input", null);
+        final Path previousFile = Files.createTempFile("previous", null);
+        final Path outputFile = Files.createTempFile("input", ".zsync");
+        try {
+            Files.write(inputFile, bytes);
+            final ZsyncMake.Options options = new ZsyncMake.Options().setFilename("input").setUrl("input");
+            new ZsyncMake().writeToFile(inputFile, outputFile, options);
+            Files.copy(inputFile, previousFile, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.COPY_ATTRIBUTES);
+
+            bytes[5000]++;
+            Files.write(inputFile, bytes);
+            final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            new ZsyncMake().writeToStream(inputFile, expected, options);
+
+            new ZsyncMake().writeToFile(inputFile, outputFile,
+                    new ZsyncMake.Options(options).setPreviousControlFile(outputFile).setPreviousFile(previousFile));
+            assertArrayEquals(expected.toByteArray(), Files.readAllBytes(outputFile));
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new ZsyncMake().writeToStream(inputFile, out, new ZsyncMake.Options(options)
+                    .setPreviousControlFile(outputFile).setChangedRanges(Arrays.asList(new ContentRange(5000, 5000))));
+            assertArrayEquals(expected.toByteArray(), out.toByteArray());
+        } finally {
+            Files.deleteIfExists(inputFile);
+            Files.deleteIfExists(previousFile);
+            Files.deleteIfExists(outputFile);
+        }
+    }
+
+    /**
+     * Asserts that a failed run leaves the existing control file as it was and no temporary file behind
+     */
+    @Test
+    public void testWriteToFileFailureKeepsOutputFile() throws IOException {
+        final Path directory = Files.createTempDirectory("output");
+        final Path inputFile = directory.resolve("input");
+        final Path outputFile = directory.resolve("input.zsync");
+        try {
+            Files.write(inputFile, new byte[10000]);
+            new ZsyncMake().writeToFile(inputFile, outputFile);
+            final byte[] written = Files.readAllBytes(outputFile);
+            try {
+                new ZsyncMake().writeToFile(directory.resolve("missing"), outputFile);
+                fail("missing input file accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertArrayEquals(written, Files.readAllBytes(outputFile));
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+                final List<Path> remaining = new ArrayList<>();
+                for (Path file : files) {
+                    remaining.add(file.getFileName());
+                }
+                Collections.sort(remaining);
+                assertEquals(Arrays.asList(inputFile.getFileName(), outputFile.getFileName()), remaining);
+            }
+        } finally {
+            Files.deleteIfExists(inputFile);
+            Files.deleteIfExists(outputFile);
+            Files.delete(directory);
+        }
+    }
+
+    /**
+     * Asserts that a new control file gets the default permissions of new files and that a replaced one keeps its own
+     */
+    @Test
+    public void testWriteToFilePermissions() throws IOException {
+        final Path directory = Files.createTempDirectory("output");
+        assumeTrue(Files.getFileAttributeView(directory, PosixFileAttributeView.class) != null);
+        final Path inputFile = directory.resolve("input");
+        final Path outputFile = directory.resolve("input.zsync");
+        final Path reference = directory.resolve("reference");
+        try {
+            Files.write(inputFile, new byte[10000]);
+            Files.createFile(reference);
+            new ZsyncMake().writeToFile(inputFile, outputFile);
+            assertEquals(Files.getPosixFilePermissions(reference), Files.getPosixFilePermissions(outputFile));
+
+            final Set<PosixFilePermission> permissions = PosixFilePermissions.fromString("rw-r-----");
+            Files.setPosixFilePermissions(outputFile, permissions);
+            new ZsyncMake().writeToFile(inputFile, outputFile);
+            assertEquals(permissions, Files.getPosixFilePermissions(outputFile));
+        } finally {
+            Files.deleteIfExists(inputFile);
+            Files.deleteIfExists(outputFile);
+            Files.deleteIfExists(reference);
+            Files.delete(directory);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPreviousControlFileWithoutChanges() throws IOException {
+        final Path inputFile = Files.createTempFile("input", null);
+        try {
+            new ZsyncMake().writeToStream(inputFile, new ByteArrayOutputStream(),
+                    new ZsyncMake.Options().setPreviousControlFile(inputFile));
+        } finally {
+            Files.deleteIfExists(inputFile);
+        }
+    }
+
+    /**
+     * Asserts that control files are made for the files of a directory tree that lack a complete and up to date one, and
+     * that they are the same as those made one file at a time
+     */
+    @Test
+    public void testWriteToFiles() throws IOException {
+        final Path directory = Files.createTempDirectory("tree");
+        final Path a = directory.resolve("a");
+        final Path b = Files.createDirectories(directory.resolve("sub/dir")).resolve("b");
+        final Path c = directory.resolve("sub/c");
+        final Path upToDate = directory.resolve("sub/d");
+        try {
+            final Random random = new Random(0);
+            for (Path file : Arrays.asList(a, b, c, upToDate)) {
+                final byte[] bytes = new byte[random.nextInt(100000)];
+                random.nextBytes(bytes);
+                Files.write(file, bytes);
+                // well before the control files, whatever the resolution of modification times
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+            }
+            // with a header larger than the first piece of it read
+            final char[] path = new char[5000];
+            Arrays.fill(path, 'd');
+            final Path upToDateControlFile = new ZsyncMake().writeToFile(upToDate,
+                    new ZsyncMake.Options().setUrl("http://host/" + new String(path))).getOutputFile();
+            final byte[] upToDateControlData = Files.readAllBytes(upToDateControlFile);
+            // stale control file, made again
+            Files.write(directory.resolve("a.zsync"), new byte[0]);
+            Files.setLastModifiedTime(directory.resolve("a.zsync"),
+                    FileTime.fromMillis(System.currentTimeMillis() - 120000));
+            // truncated and empty control files newer than their files, made again as well
+            final byte[] controlData = Files.readAllBytes(new ZsyncMake().writeToFile(b).getOutputFile());
+            Files.write(b.resolveSibling("b.zsync"), Arrays.copyOf(controlData, controlData.length - 1));
+            Files.write(c.resolveSibling("c.zsync"), new byte[0]);
+
+            final ZsyncMake.BatchResult result = new ZsyncMake().writeToFiles(directory, new ZsyncMake.Options(),
+                    new ZsyncMake.BatchOptions().setParallelism(2).setReadConcurrency(1));
+            assertEquals(Arrays.asList(upToDate), result.getSkippedFiles());
+            assertTrue(result.getFailures().isEmpty());
+            assertEquals(3, result.getFileResults().size());
+            long totalBytes = 0;
+            for (ZsyncMake.BatchFileResult fileResult : result.getFileResults()) {
+                final Path inputFile = fileResult.getInputFile();
+                assertEquals(inputFile.resolveSibling(inputFile.getFileName() + ".zsync"), fileResult.getOutputFile());
+                assertEquals(Files.size(inputFile), fileResult.getLength());
+                final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+                assertEquals(new ZsyncMake().writeToStream(inputFile, expected).getSha1(), fileResult.getSha1());
+                assertArrayEquals(expected.toByteArray(), Files.readAllBytes(fileResult.getOutputFile()));
+                totalBytes += fileResult.getLength();
+            }
+            assertEquals(totalBytes, result.getTotalBytes());
+            assertArrayEquals(upToDateControlData, Files.readAllBytes(upToDateControlFile));
+
+            // all up to date now
+            final ZsyncMake.BatchResult again = new ZsyncMake().writeToFiles(directory);
+            assertEquals(4, again.getSkippedFiles().size());
+            assertTrue(again.getFileResults().isEmpty());
+
+            // control file older than the file, but made for another version of it
+            Files.setLastModifiedTime(upToDate, FileTime.fromMillis(System.currentTimeMillis() - 30000));
+            final ZsyncMake.BatchResult changed = new ZsyncMake().writeToFiles(directory);
+            assertEquals(3, changed.getSkippedFiles().size());
+            assertEquals(1, changed.getFileResults().size());
+            assertEquals(upToDate, changed.getFileResults().get(0).getInputFile());
+        } finally {
+            for (Path file : Arrays.asList(a, b, c, upToDate)) {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(file.resolveSibling(file.getFileName() + ".zsync"));
+            }
+            Files.delete(b.getParent());
+            Files.delete(c.getParent());
+            Files.delete(directory);
+        }
+    }
+
 }
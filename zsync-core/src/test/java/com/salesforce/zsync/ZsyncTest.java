@@ -0,0 +1,311 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync;
+
+import com.salesforce.zsync.ZsyncStatsObserver.ZsyncStats;
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Exercises {@link Zsync} with input files that contain all blocks of the target file, so that no remote requests are
+ * issued.
+ */
+public class ZsyncTest {
+
+    private static final int PIECE_SIZE = 512 * 1024;
+    private static final int BLOCK_SIZE = 2048;
+
+    /**
+     * Creates a target file, a control file, and input files that together contain the pieces of the target file in a
+     * different order, each preceded by some unrelated bytes, so that matches are not aligned with the chunks of a
+     * parallel scan.
+     *
+     * @return target file, control file, and input files
+     */
+    private static List<Path> createFiles(int numInputFiles) throws IOException {
+        return createFiles(numInputFiles, new ZsyncMake.Options());
+    }
+
+    private static List<Path> createFiles(int numInputFiles, ZsyncMake.Options makeOptions) throws IOException {
+        final Random random = new Random(1);
+        final byte[] target = new byte[12 * PIECE_SIZE + 1000];
+        random.nextBytes(target);
+        final ByteArrayOutputStream[] seeds = new ByteArrayOutputStream[numInputFiles];
+        for (int i = 0; i < seeds.length; i++) {
+            seeds[i] = new ByteArrayOutputStream();
+        }
+        final byte[] garbage = new byte[777];
+        final int[] pieces = {5, 0, 3, 7, 1, 9, 4, 10, 2, 8, 6, 11};
+        for (int i = 0; i < pieces.length; i++) {
+            final ByteArrayOutputStream seed = seeds[i % seeds.length];
+            random.nextBytes(garbage);
+            seed.write(garbage, 0, random.nextInt(garbage.length));
+            seed.write(target, pieces[i] * PIECE_SIZE, PIECE_SIZE);
+        }
+        // the last block is matched together with its predecessor and padded with zeros in the control file
+        final ByteArrayOutputStream last = seeds[(pieces.length - 1) % seeds.length];
+        last.write(target, 12 * PIECE_SIZE, 1000);
+        last.write(new byte[BLOCK_SIZE - 1000], 0, BLOCK_SIZE - 1000);
+
+        final List<Path> files = new ArrayList<>();
+        final Path targetFile = Files.createTempFile("target", null);
+        final Path zsyncFile = Files.createTempFile("target", ".zsync");
+        Files.write(targetFile, target);
+        new ZsyncMake().writeToFile(targetFile, zsyncFile,
+                makeOptions.setUrl("http://localhost/target").setBlockSize(BLOCK_SIZE));
+        files.add(targetFile);
+        files.add(zsyncFile);
+        for (ByteArrayOutputStream seed : seeds) {
+            final Path seedFile = Files.createTempFile("seed", null);
+            Files.write(seedFile, seed.toByteArray());
+            files.add(seedFile);
+        }
+        return files;
+    }
+
+    private static void assertZsync(Zsync.Options options, int numInputFiles) throws IOException, ZsyncException {
+        assertZsync(options, numInputFiles, new ZsyncMake.Options());
+    }
+
+    private static void assertZsync(Zsync.Options options, int numInputFiles, ZsyncMake.Options makeOptions)
+            throws IOException, ZsyncException {
+        final List<Path> files = createFiles(numInputFiles, makeOptions);
+        final Path output = Files.createTempFile("output", null);
+        Files.delete(output);
+        try {
+            long inputSize = 0;
+            for (Path inputFile : files.subList(2, files.size())) {
+                options.addInputFile(inputFile.toFile());
+                inputSize += Files.size(inputFile);
+            }
+            final ZsyncStatsObserver observer = new ZsyncStatsObserver();
+            new Zsync().zsync(files.get(1).toUri(), options.setOutputFile(output.toFile()), observer);
+            assertArrayEquals(Files.readAllBytes(files.get(0)), Files.readAllBytes(output));
+            final ZsyncStats stats = observer.build();
+            assertEquals(0, stats.getBytesDownloadedFromRemoteFile());
+            assertEquals(numInputFiles, stats.getTotalBytesReadByInputFile().size());
+            if (options.getThreads() == 1 && !options.isAlignedMatching() && options.getSeedChecksumCache() == null) {
+                assertEquals(inputSize, stats.getTotalBytesRead());
+            } else {
+                // concurrent scans stop as soon as the output file is complete
+                assertTrue(stats.getTotalBytesRead() <= inputSize);
+            }
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static void assertZsync(Zsync.Options options) throws IOException, ZsyncException {
+        assertZsync(options, 1);
+    }
+
+    @Test
+    public void testSerial() throws Exception {
+        assertZsync(new Zsync.Options());
+    }
+
+    @Test
+    public void testSerialMapped() throws Exception {
+        assertZsync(new Zsync.Options().setMapInputFiles(true));
+    }
+
+    /**
+     * Asserts that a parallel scan over multiple chunks finds all blocks
+     */
+    @Test
+    public void testParallel() throws Exception {
+        assertZsync(new Zsync.Options().setThreads(4));
+    }
+
+    @Test
+    public void testParallelMapped() throws Exception {
+        assertZsync(new Zsync.Options().setThreads(4).setMapInputFiles(true));
+    }
+
+    @Test
+    public void testSerialMultipleInputFiles() throws Exception {
+        assertZsync(new Zsync.Options(), 3);
+    }
+
+    /**
+     * Asserts that blocks are found across multiple input files scanned concurrently
+     */
+    @Test
+    public void testConcurrentMultipleInputFiles() throws Exception {
+        assertZsync(new Zsync.Options().setThreads(4), 3);
+    }
+
+    @Test
+    public void testConcurrentMultipleInputFilesMapped() throws Exception {
+        assertZsync(new Zsync.Options().setThreads(4).setMapInputFiles(true), 3);
+    }
+
+    /**
+     * Asserts that an input file sharing the block alignment of the target file is matched from the seed checksum cache
+     * without being scanned, both when the checksums are computed and when they are cached
+     */
+    @Test
+    public void testSeedChecksumCache() throws Exception {
+        final List<Path> files = createFiles(1);
+        final Path seed = files.get(2);
+        Files.write(seed, Files.readAllBytes(files.get(0)));
+        final Path cache = Files.createTempDirectory("cache");
+        final Path output = Files.createTempFile("output", null);
+        try {
+            for (int i = 0; i < 2; i++) {
+                Files.deleteIfExists(output);
+                final Zsync.Options options = new Zsync.Options().addInputFile(seed.toFile())
+                        .setSeedChecksumCache(cache.toFile()).setOutputFile(output.toFile());
+                final ZsyncStatsObserver observer = new ZsyncStatsObserver();
+                new Zsync().zsync(files.get(1).toUri(), options, observer);
+                assertArrayEquals(Files.readAllBytes(files.get(0)), Files.readAllBytes(output));
+                assertEquals(0, observer.build().getTotalBytesRead());
+                assertEquals(1, cache.toFile().listFiles().length);
+            }
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            for (File entry : cache.toFile().listFiles()) {
+                Files.delete(entry.toPath());
+            }
+            Files.delete(cache);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Asserts that blocks not matched at aligned offsets are found by the scan of the remaining regions
+     */
+    @Test
+    public void testAlignedMatching() throws Exception {
+        assertZsync(new Zsync.Options().setAlignedMatching(true));
+    }
+
+    @Test
+    public void testAlignedMatchingParallel() throws Exception {
+        assertZsync(new Zsync.Options().setAlignedMatching(true).setThreads(4), 3);
+    }
+
+    /**
+     * Asserts that once a first input file completes the output file, a large unrelated second input file scanned
+     * concurrently is barely read
+     */
+    @Test
+    public void testConcurrentScanStopsWhenComplete() throws Exception {
+        final List<Path> files = createFiles(1);
+        final byte[] unrelated = new byte[32 * 1024 * 1024];
+        new Random(2).nextBytes(unrelated);
+        Files.write(files.get(2), unrelated);
+        final Path output = Files.createTempFile("output", null);
+        Files.delete(output);
+        try {
+            final Zsync.Options options = new Zsync.Options().addInputFile(files.get(0).toFile())
+                    .addInputFile(files.get(2).toFile()).setThreads(2).setOutputFile(output.toFile());
+            final ZsyncStatsObserver observer = new ZsyncStatsObserver();
+            new Zsync().zsync(files.get(1).toUri(), options, observer);
+            assertArrayEquals(Files.readAllBytes(files.get(0)), Files.readAllBytes(output));
+            final long bytesRead = observer.build().getTotalBytesReadByInputFile().get(files.get(2).toFile());
+            assertTrue("read " + bytesRead + " bytes of unrelated input file", bytesRead < unrelated.length / 8);
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Asserts that an input file with a block modified in place is scanned only around that block, while a second input
+     * file containing the block at an unaligned offset is scanned until the block is found
+     */
+    @Test
+    public void testAlignedMatchingModified() throws Exception {
+        final List<Path> files = createFiles(2);
+        final byte[] target = Files.readAllBytes(files.get(0));
+        final byte[] modified = target.clone();
+        modified[5 * BLOCK_SIZE]++;
+        Files.write(files.get(2), modified);
+        // include the neighbours of the block, since the control file requires sequential matches
+        final byte[] block = new byte[777 + 3 * BLOCK_SIZE];
+        System.arraycopy(target, 4 * BLOCK_SIZE, block, 777, 3 * BLOCK_SIZE);
+        Files.write(files.get(3), block);
+        final Path output = Files.createTempFile("output", null);
+        Files.delete(output);
+        try {
+            final Zsync.Options options = new Zsync.Options().addInputFile(files.get(2).toFile())
+                    .addInputFile(files.get(3).toFile()).setAlignedMatching(true).setOutputFile(output.toFile());
+            final ZsyncStatsObserver observer = new ZsyncStatsObserver();
+            new Zsync().zsync(files.get(1).toUri(), options, observer);
+            assertArrayEquals(target, Files.readAllBytes(output));
+            final ZsyncStats stats = observer.build();
+            assertEquals(0, stats.getBytesDownloadedFromRemoteFile());
+            // scanned until the block is found, which completes the output file
+            final long bytesRead = stats.getTotalBytesReadByInputFile().get(files.get(3).toFile());
+            assertTrue(bytesRead > 777 && bytesRead <= block.length);
+            assertTrue(stats.getTotalBytesRead() <= block.length + 4 * BLOCK_SIZE);
+        } finally {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(output);
+        }
+    }
+
+    /**
+     * Asserts that blocks are matched with the checksum algorithm selected by the control file
+     */
+    @Test
+    public void testMurmur3() throws Exception {
+        assertZsync(new Zsync.Options(), 1, new ZsyncMake.Options().setChecksumAlgorithm(ZsyncUtil.MURMUR3_128));
+    }
+
+    @Test
+    public void testMurmur3AlignedMatching() throws Exception {
+        assertZsync(new Zsync.Options().setAlignedMatching(true), 3,
+                new ZsyncMake.Options().setChecksumAlgorithm(ZsyncUtil.MURMUR3_128));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testThreadsInvalid() {
+        new Zsync.Options().setThreads(0);
+    }
+
+}
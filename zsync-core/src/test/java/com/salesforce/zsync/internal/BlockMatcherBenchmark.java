@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.ZsyncMake;
+import com.salesforce.zsync.internal.util.RollingBuffer;
+import com.salesforce.zsync.internal.util.RollingReadableByteBuffer;
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Random;
+
+import static java.nio.channels.Channels.newChannel;
+
+/**
+ * Compares the throughput of scanning an input file that shares no blocks with the target file with the single and
+ * double block matchers, rolling over the bytes following the window in bulk and advancing one byte per match call as
+ * before. Not run as part of the tests, run the main method to compare.
+ */
+public class BlockMatcherBenchmark {
+
+    private static final int BLOCK_SIZE = 2048;
+    private static final int TARGET_SIZE = 16 * 1024 * 1024;
+    private static final int INPUT_SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws IOException {
+        final Random random = new Random(0);
+        final byte[] target = new byte[TARGET_SIZE];
+        random.nextBytes(target);
+        final byte[] input = new byte[INPUT_SIZE];
+        random.nextBytes(input);
+
+        final Path targetFile = Files.createTempFile("target", null);
+        final Path zsyncFile = Files.createTempFile("target", ".zsync");
+        final Path outputFile = Files.createTempFile("output", null);
+        Files.delete(outputFile);
+        try {
+            Files.write(targetFile, target);
+            new ZsyncMake().writeToFile(targetFile, zsyncFile,
+                    new ZsyncMake.Options().setUrl("http://localhost/target").setBlockSize(BLOCK_SIZE));
+            final ControlFile doubleControlFile = ControlFile.map(zsyncFile.toFile(), new NullListener());
+            final Header h = doubleControlFile.getHeader();
+            // single block matches with the truncated weak checksums of a double block control file would hit on almost
+            // every position, so compare the full weak checksums, which never hit the truncated ones
+            final ControlFile singleControlFile = new ControlFile(new Header(h.getVersion(), h.getFilename(),
+                    h.getMtime(), h.getBlocksize(), h.getLength(), h.getChecksumBytes(), 4, false, h.getUrl(),
+                    h.getSha1()), doubleControlFile.getBlockSums());
+            try (OutputFileWriter writer = new OutputFileWriter(outputFile.toFile(), doubleControlFile,
+                    new NullListener())) {
+                for (int round = 0; round < ROUNDS; round++) {
+                    final BlockMatcher single = new SingleBlockMatcher(singleControlFile);
+                    final BlockMatcher dbl = new DoubleBlockMatcher(doubleControlFile);
+                    System.out.println(String.format(
+                            "round %d: single %5d MB/s (per byte %5d MB/s), double %5d MB/s (per byte %5d MB/s)", round,
+                            scan(writer, single, input, false), scan(writer, single.copy(), input, true),
+                            scan(writer, dbl, input, false), scan(writer, dbl.copy(), input, true)));
+                }
+            } catch (ChecksumValidationIOException e) {
+                // expected, since the output file is incomplete
+            }
+        } finally {
+            Files.deleteIfExists(targetFile);
+            Files.deleteIfExists(zsyncFile);
+            Files.deleteIfExists(outputFile);
+            Files.deleteIfExists(Paths.get(outputFile + ".part"));
+        }
+    }
+
+    // returns the throughput of scanning the input in MB/s
+    private static long scan(OutputFileWriter writer, BlockMatcher matcher, byte[] input, boolean perByte)
+            throws IOException {
+        final int windowSize = matcher.getMatcherBlockSize();
+        final RollingBuffer rollingBuffer =
+                new RollingBuffer(newChannel(new ByteArrayInputStream(input)), windowSize, 16 * windowSize);
+        final RollingReadableByteBuffer buffer = perByte ? new WindowOnly(rollingBuffer) : rollingBuffer;
+        final long start = System.nanoTime();
+        int bytes;
+        do {
+            bytes = matcher.match(writer, buffer);
+        } while (buffer.advance(bytes));
+        return input.length * 1000L / (System.nanoTime() - start);
+    }
+
+    // exposes only the window of the buffer, so that matchers advance one byte at a time
+    private static class WindowOnly implements RollingReadableByteBuffer {
+        private final RollingBuffer buffer;
+
+        WindowOnly(RollingBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public boolean advance(int bytes) throws IOException {
+            return this.buffer.advance(bytes);
+        }
+
+        @Override
+        public ByteBuffer lookahead() {
+            final ByteBuffer view = this.buffer.lookahead();
+            view.limit(this.buffer.length());
+            return view;
+        }
+
+        @Override
+        public int length() {
+            return this.buffer.length();
+        }
+
+        @Override
+        public byte get(int i) {
+            return this.buffer.get(i);
+        }
+
+        @Override
+        public int rsum(int offset, int length) {
+            return this.buffer.rsum(offset, length);
+        }
+
+        @Override
+        public void write(WritableByteChannel channel) throws IOException {
+            this.buffer.write(channel);
+        }
+
+        @Override
+        public void write(WritableByteChannel channel, int offset, int length) throws IOException {
+            this.buffer.write(channel, offset, length);
+        }
+    }
+
+    private static class NullListener implements ResourceTransferListener<File> {
+        @Override
+        public void start(File resource, long length) {
+        }
+
+        @Override
+        public void transferred(long bytes) {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class BlockSumIndexTest {
+
+    private static ImmutableBlockSum sum(int rsum, int... checksum) {
+        final byte[] b = new byte[checksum.length];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) checksum[i];
+        }
+        return new ImmutableBlockSum(rsum, b);
+    }
+
+    private static List<Integer> positions(BlockSumIndex index, BlockSum sum) {
+        final List<Integer> positions = new ArrayList<>();
+        for (int p = index.first(sum); p != -1; p = index.next(p, sum)) {
+            positions.add(p);
+        }
+        return positions;
+    }
+
+    /**
+     * Asserts that duplicate sums are reported at all positions in ascending order and that sums differing only in rsum
+     * or only in checksum are told apart
+     */
+    @Test
+    public void testPositions() {
+        final List<ImmutableBlockSum> sums =
+                Arrays.asList(sum(1, 1, 2, 3), sum(2, 1, 2, 3), sum(1, 1, 2, 3), sum(1, 1, 2, 4), sum(1, 1, 2, 3));
+        final BlockSumIndex index = new BlockSumIndex(BlockSums.copyOf(sums, 3));
+        assertEquals(Arrays.asList(0, 2, 4), positions(index, sum(1, 1, 2, 3)));
+        assertEquals(Arrays.asList(1), positions(index, sum(2, 1, 2, 3)));
+        assertEquals(Arrays.asList(3), positions(index, sum(1, 1, 2, 4)));
+        assertEquals(-1, index.first(sum(3, 1, 2, 3)));
+        assertEquals(-1, index.first(sum(1, 1, 2, 5)));
+    }
+
+    /**
+     * Asserts that every block of a large random list is found at its position
+     */
+    @Test
+    public void testRandom() {
+        final Random random = new Random(1);
+        final List<ImmutableBlockSum> sums = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            final byte[] checksum = new byte[8];
+            random.nextBytes(checksum);
+            // small rsum range to force collisions on the rolling checksum
+            sums.add(new ImmutableBlockSum(random.nextInt(100), checksum));
+        }
+        final BlockSumIndex index = new BlockSumIndex(BlockSums.copyOf(sums, 8));
+        for (int i = 0; i < sums.size(); i++) {
+            assertEquals(Arrays.asList(i), positions(index, sums.get(i)));
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        assertEquals(-1, new BlockSumIndex(BlockSums.copyOf(new ArrayList<BlockSum>(), 3)).first(sum(1, 1, 2, 3)));
+    }
+
+}
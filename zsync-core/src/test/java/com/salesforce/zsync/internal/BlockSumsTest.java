@@ -0,0 +1,97 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlockSumsTest {
+
+    /**
+     * Asserts that rsums are decoded big endian and checksums are split off in block order
+     */
+    @Test
+    public void testRead() throws IOException {
+        final byte[] data = {0, 1, 2, 3, 4, (byte) 0xff, (byte) 0xfe, 5, 6, 7};
+        final BlockSums sums = BlockSums.read(new ByteArrayInputStream(data), 2, 2, 3);
+        assertEquals(2, sums.size());
+        assertEquals(3, sums.getChecksumLength());
+        assertEquals(0x0001, sums.getRsum(0));
+        assertEquals(0xfffe, sums.getRsum(1));
+        assertEquals(new ImmutableBlockSum(0x0001, new byte[]{2, 3, 4}), sums.get(0));
+        assertEquals(new ImmutableBlockSum(0xfffe, new byte[]{5, 6, 7}), sums.get(1));
+        assertEquals(0x020304, sums.getChecksumPrefix(0));
+    }
+
+    /**
+     * Asserts that reading spans multiple internal read buffers
+     */
+    @Test
+    public void testReadMany() throws IOException {
+        final int numBlocks = 10000;
+        final byte[] data = new byte[numBlocks * 6];
+        for (int i = 0; i < numBlocks; i++) {
+            ByteBuffer.wrap(data, i * 6, 6).putShort((short) i).putInt(~i);
+        }
+        final BlockSums sums = BlockSums.read(new ByteArrayInputStream(data), numBlocks, 2, 4);
+        for (int i = 0; i < numBlocks; i++) {
+            assertEquals(i, sums.getRsum(i));
+            assertEquals(~i, sums.getChecksumPrefix(i));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testReadPrematureEnd() throws IOException {
+        BlockSums.read(new ByteArrayInputStream(new byte[9]), 2, 2, 3);
+    }
+
+    /**
+     * Asserts that checksums are located by offset and stride within a shared buffer
+     */
+    @Test
+    public void testStride() {
+        final ByteBuffer checksums = ByteBuffer.wrap(new byte[]{9, 9, 1, 2, 9, 3, 4, 9});
+        final BlockSums sums = new BlockSums(new int[]{1, 2}, checksums, 2, 3, 2);
+        assertEquals(Arrays.asList(new ImmutableBlockSum(1, new byte[]{1, 2}), new ImmutableBlockSum(2, new byte[]{3, 4})),
+                sums);
+        assertTrue(sums.matches(1, new ImmutableBlockSum(2, new byte[]{3, 4})));
+        assertFalse(sums.matches(1, new ImmutableBlockSum(2, new byte[]{3, 5})));
+        assertFalse(sums.matches(1, new ImmutableBlockSum(1, new byte[]{3, 4})));
+        assertFalse(sums.matches(1, new ImmutableBlockSum(2, new byte[]{3, 4, 9})));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBufferTooSmall() {
+        new BlockSums(new int[]{1, 2}, ByteBuffer.allocate(6), 2, 3, 2);
+    }
+
+}
@@ -0,0 +1,269 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static org.junit.Assert.*;
+
+public class ChecksumGeneratorTest {
+
+    private static final int BLOCK_SIZE = 2048;
+
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        this.file = Files.createTempFile("input", null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.file);
+    }
+
+    // rolling and strong checksums of each zero padded block, computed one block at a time
+    private static byte[] expected(byte[] bytes, int weakLength, int strongLength, String algorithm) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final MessageDigest digest = ZsyncUtil.newChecksumDigest(algorithm);
+        for (int off = 0; off < bytes.length; off += BLOCK_SIZE) {
+            final byte[] block = Arrays.copyOfRange(bytes, off, off + BLOCK_SIZE);
+            final int rsum = ZsyncUtil.computeRsum(block);
+            for (int i = weakLength - 1; i >= 0; i--) {
+                out.write(rsum >>> (i * 8));
+            }
+            out.write(digest.digest(block), 0, strongLength);
+        }
+        return out.toByteArray();
+    }
+
+    private void assertGenerate(int length, int weakLength, int strongLength, String algorithm, int threads)
+            throws IOException {
+        this.assertGenerate(length, weakLength, strongLength, algorithm, threads, false);
+    }
+
+    private void assertGenerate(int length, int weakLength, int strongLength, String algorithm, int threads,
+            boolean mapInput) throws IOException {
+        final byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        Files.write(this.file, bytes);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] sha1;
+        try (FileChannel channel = FileChannel.open(this.file, READ)) {
+            sha1 = new ChecksumGenerator(BLOCK_SIZE, weakLength, strongLength, algorithm, threads, mapInput)
+                    .generate(channel, length, Channels.newChannel(out));
+        }
+        assertArrayEquals(expected(bytes, weakLength, strongLength, algorithm), out.toByteArray());
+        assertArrayEquals(ZsyncUtil.newSHA1().digest(bytes), sha1);
+    }
+
+    @Test
+    public void testGenerate() throws IOException {
+        assertGenerate(10 * BLOCK_SIZE + 500, 2, 5, ZsyncUtil.MD4, 1);
+    }
+
+    @Test
+    public void testGenerateEmpty() throws IOException {
+        assertGenerate(0, 2, 3, ZsyncUtil.MD4, 1);
+        assertGenerate(0, 2, 3, ZsyncUtil.MD4, 4);
+    }
+
+    /**
+     * Asserts that checksums computed for several chunks in parallel are written in order, including the padded last
+     * block
+     */
+    @Test
+    public void testGenerateConcurrently() throws IOException {
+        assertGenerate(11 * 1024 * 1024 + 100, 3, 16, ZsyncUtil.MD4, 4);
+    }
+
+    @Test
+    public void testGenerateConcurrentlyWholeBlocks() throws IOException {
+        assertGenerate(9 * 1024 * 1024, 4, 8, ZsyncUtil.MURMUR3_128, 2);
+    }
+
+    @Test(expected = IOException.class)
+    public void testGenerateTruncated() throws IOException {
+        Files.write(this.file, new byte[BLOCK_SIZE]);
+        try (FileChannel channel = FileChannel.open(this.file, READ)) {
+            new ChecksumGenerator(BLOCK_SIZE, 2, 3, ZsyncUtil.MD4, 1).generate(channel, 2 * BLOCK_SIZE,
+                    Channels.newChannel(new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    public void testGenerateMapped() throws IOException {
+        assertGenerate(10 * BLOCK_SIZE + 500, 2, 5, ZsyncUtil.MD4, 1, true);
+        assertGenerate(0, 2, 3, ZsyncUtil.MD4, 1, true);
+    }
+
+    /**
+     * Asserts that chunks are sliced correctly from consecutive mapped segments of 64 MB, including the last partial one
+     */
+    @Test
+    public void testGenerateMappedSegments() throws IOException {
+        assertGenerate(65 * 1024 * 1024 + 100, 4, 16, ZsyncUtil.MURMUR3_128, 1, true);
+    }
+
+    @Test
+    public void testGenerateMappedConcurrently() throws IOException {
+        assertGenerate(11 * 1024 * 1024 + 100, 3, 16, ZsyncUtil.MD4, 4, true);
+    }
+
+    @Test(expected = IOException.class)
+    public void testGenerateMappedTruncated() throws IOException {
+        Files.write(this.file, new byte[BLOCK_SIZE]);
+        try (FileChannel channel = FileChannel.open(this.file, READ)) {
+            new ChecksumGenerator(BLOCK_SIZE, 2, 3, ZsyncUtil.MD4, 1, true).generate(channel, 2 * BLOCK_SIZE,
+                    Channels.newChannel(new ByteArrayOutputStream()));
+        }
+    }
+
+    // control file of the given previous version with inverted strong checksums, which tell reused ones apart
+    private static ControlFile previous(byte[] bytes, int weakLength, int strongLength, String algorithm)
+            throws IOException {
+        final byte[] checksums = expected(bytes, weakLength, strongLength, algorithm);
+        for (int i = 0; i < checksums.length; i++) {
+            if (i % (weakLength + strongLength) >= weakLength) {
+                checksums[i] = (byte) ~checksums[i];
+            }
+        }
+        final int numBlocks = checksums.length / (weakLength + strongLength);
+        final Header header = new Header("0.6.2", "input", null, BLOCK_SIZE, bytes.length, strongLength, weakLength,
+                true, null, null, algorithm);
+        return new ControlFile(header,
+                BlockSums.read(new ByteArrayInputStream(checksums), numBlocks, weakLength, strongLength));
+    }
+
+    // checksums of the new version, taken from the previous control file for the given unchanged blocks
+    private static byte[] expected(byte[] bytes, ControlFile previous, int weakLength, int strongLength,
+            String algorithm, int... unchanged) {
+        final byte[] checksums = expected(bytes, weakLength, strongLength, algorithm);
+        for (int block : unchanged) {
+            previous.getBlockSums().getChecksum(block, checksums, block * (weakLength + strongLength) + weakLength,
+                    strongLength);
+        }
+        return checksums;
+    }
+
+    private byte[] generate(byte[] bytes, int weakLength, int strongLength, String algorithm, int threads,
+            PreviousChecksums previous) throws IOException {
+        Files.write(this.file, bytes);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (FileChannel channel = FileChannel.open(this.file, READ)) {
+            final byte[] sha1 = new ChecksumGenerator(BLOCK_SIZE, weakLength, strongLength, algorithm, threads)
+                    .generate(channel, bytes.length, Channels.newChannel(out), previous);
+            assertArrayEquals(ZsyncUtil.newSHA1().digest(bytes), sha1);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Asserts that checksums are reused for blocks with the same bytes and length as in the previous file, and computed
+     * for changed blocks, the formerly partial last block and appended blocks
+     */
+    @Test
+    public void testGeneratePreviousFile() throws IOException {
+        final byte[] previousBytes = new byte[10 * BLOCK_SIZE + 500];
+        new Random(0).nextBytes(previousBytes);
+        final byte[] bytes = Arrays.copyOf(previousBytes, 12 * BLOCK_SIZE);
+        bytes[2 * BLOCK_SIZE + 7]++;
+        bytes[9 * BLOCK_SIZE]++;
+        final Path previousFile = Files.createTempFile("previous", null);
+        try {
+            Files.write(previousFile, previousBytes);
+            final ControlFile controlFile = previous(previousBytes, 2, 5, ZsyncUtil.MD4);
+            final byte[] expected = expected(bytes, controlFile, 2, 5, ZsyncUtil.MD4, 0, 1, 3, 4, 5, 6, 7, 8);
+            for (int threads : new int[]{1, 3}) {
+                try (FileChannel channel = FileChannel.open(previousFile, READ)) {
+                    assertArrayEquals(expected, this.generate(bytes, 2, 5, ZsyncUtil.MD4, threads,
+                            PreviousChecksums.ofPreviousFile(controlFile, channel)));
+                }
+            }
+        } finally {
+            Files.delete(previousFile);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testGeneratePreviousFileLength() throws IOException {
+        Files.write(this.file, new byte[BLOCK_SIZE]);
+        try (FileChannel channel = FileChannel.open(this.file, READ)) {
+            PreviousChecksums.ofPreviousFile(previous(new byte[BLOCK_SIZE + 1], 2, 5, ZsyncUtil.MD4), channel);
+        }
+    }
+
+    /**
+     * Asserts that checksums are computed for blocks overlapping changed ranges as well as for changed blocks outside of
+     * them whose rolling checksum changed
+     */
+    @Test
+    public void testGenerateChangedRanges() throws IOException {
+        final byte[] previousBytes = new byte[10 * BLOCK_SIZE];
+        new Random(0).nextBytes(previousBytes);
+        final byte[] bytes = previousBytes.clone();
+        bytes[2 * BLOCK_SIZE + 7]++;
+        bytes[4 * BLOCK_SIZE - 1]++;
+        bytes[4 * BLOCK_SIZE]++;
+        bytes[8 * BLOCK_SIZE + 100]++;
+        final List<ContentRange> ranges = Arrays.asList(new ContentRange(2 * BLOCK_SIZE + 7, 2 * BLOCK_SIZE + 7),
+                new ContentRange(4 * BLOCK_SIZE - 1, 4 * BLOCK_SIZE));
+        final ControlFile controlFile = previous(previousBytes, 4, 8, ZsyncUtil.MURMUR3_128);
+        assertArrayEquals(expected(bytes, controlFile, 4, 8, ZsyncUtil.MURMUR3_128, 0, 1, 5, 6, 7, 9),
+                this.generate(bytes, 4, 8, ZsyncUtil.MURMUR3_128, 1,
+                        PreviousChecksums.ofChangedRanges(controlFile, ranges)));
+    }
+
+    @Test
+    public void testGeneratePreviousIncompatible() throws IOException {
+        final byte[] bytes = new byte[10 * BLOCK_SIZE];
+        new Random(0).nextBytes(bytes);
+        final PreviousChecksums previous = PreviousChecksums
+                .ofChangedRanges(previous(bytes, 2, 5, ZsyncUtil.MD4), Collections.<ContentRange>emptyList());
+        assertArrayEquals(expected(bytes, 2, 6, ZsyncUtil.MD4), this.generate(bytes, 2, 6, ZsyncUtil.MD4, 1, previous));
+        assertArrayEquals(expected(bytes, 2, 5, ZsyncUtil.MURMUR3_128),
+                this.generate(bytes, 2, 5, ZsyncUtil.MURMUR3_128, 1, previous));
+    }
+
+}
@@ -0,0 +1,152 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ControlFileTest {
+
+    private static class RecordingListener implements ResourceTransferListener<File> {
+        File resource;
+        long length = -1;
+        long transferred;
+        boolean closed;
+
+        @Override
+        public void start(File resource, long length) {
+            this.resource = resource;
+            this.length = length;
+        }
+
+        @Override
+        public void transferred(long bytes) {
+            this.transferred += bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.closed = true;
+        }
+    }
+
+    private static File getResourceFile() throws URISyntaxException {
+        return new File(ControlFileTest.class.getResource("/com/salesforce/zsync/zsync_doc.pdf.zsync").toURI());
+    }
+
+    /**
+     * Asserts that mapping a control file yields the same header and block sums as reading it as a stream
+     */
+    @Test
+    public void testMapEqualsRead() throws Exception {
+        final File file = getResourceFile();
+        final ControlFile read;
+        try (InputStream in = new FileInputStream(file)) {
+            read = ControlFile.read(in);
+        }
+        final RecordingListener listener = new RecordingListener();
+        final ControlFile mapped = ControlFile.map(file, listener);
+
+        final Header expected = read.getHeader();
+        final Header actual = mapped.getHeader();
+        assertEquals(expected.getFilename(), actual.getFilename());
+        assertEquals(expected.getLength(), actual.getLength());
+        assertEquals(expected.getBlocksize(), actual.getBlocksize());
+        assertEquals(expected.getRsumBytes(), actual.getRsumBytes());
+        assertEquals(expected.getChecksumBytes(), actual.getChecksumBytes());
+        assertEquals(expected.isSeqMatches(), actual.isSeqMatches());
+        assertEquals(expected.getSha1(), actual.getSha1());
+        assertEquals(expected.getNumBlocks(), mapped.getBlockSums().size());
+        assertEquals(read.getBlockSums(), mapped.getBlockSums());
+
+        assertEquals(file, listener.resource);
+        assertEquals(file.length(), listener.length);
+        assertEquals(file.length(), listener.transferred);
+        assertTrue(listener.closed);
+    }
+
+    /**
+     * Asserts that a truncated checksum section is rejected
+     */
+    @Test(expected = IOException.class)
+    public void testMapPrematureEnd() throws Exception {
+        final byte[] bytes = Files.readAllBytes(getResourceFile().toPath());
+        final File truncated = File.createTempFile("truncated", ".zsync");
+        truncated.deleteOnExit();
+        Files.write(truncated.toPath(), Arrays.copyOf(bytes, bytes.length - 1));
+        ControlFile.map(truncated, new RecordingListener());
+    }
+
+    /**
+     * Asserts that parsing the header from a buffer leaves the position at the start of the block sums
+     */
+    @Test
+    public void testReadHeaderFromBuffer() {
+        final String header = "zsync: 0.6.2\nFilename: a\nMTime: Fri, 29 Jan 2016 18:34:06 +0000\nBlocksize: 2048\n"
+                + "Length: 4096\nHash-Lengths: 2,2,5\nURL: a\nSHA-1: 0123456789012345678901234567890123456789\n\n";
+        final ByteBuffer buffer = ByteBuffer.wrap((header + "sums").getBytes(StandardCharsets.US_ASCII));
+        final Header h = Header.read(buffer);
+        assertEquals(header.length(), buffer.position());
+        assertEquals(2, h.getNumBlocks());
+        assertTrue(h.isSeqMatches());
+        assertEquals(5, h.getChecksumBytes());
+        assertEquals(ZsyncUtil.MD4, h.getChecksumAlgorithm());
+    }
+
+    @Test
+    public void testReadHeaderHashAlgorithm() {
+        final String header = "zsync: 0.6.2\nFilename: a\nBlocksize: 2048\nLength: 4096\nHash-Lengths: 2,2,5\n"
+                + "Hash-Algorithm: MURMUR3-128\nURL: a\nSHA-1: 0123456789012345678901234567890123456789\n\n";
+        final Header h = Header.read(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(ZsyncUtil.MURMUR3_128, h.getChecksumAlgorithm());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadHeaderUnsupportedHashAlgorithm() {
+        final String header = "zsync: 0.6.2\nFilename: a\nBlocksize: 2048\nLength: 4096\nHash-Algorithm: SHA-1\n"
+                + "URL: a\nSHA-1: 0123456789012345678901234567890123456789\n\n";
+        Header.read(ByteBuffer.wrap(header.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReadHeaderFromBufferUnterminated() {
+        Header.read(ByteBuffer.wrap("zsync: 0.6.2\nFilename: a\n".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.ZsyncMake;
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Compares receiving a single large range response through {@link OutputFileWriter#receive(ContentRange, Source)} with
+ * the previous approach of transferring from a channel wrapping the body input stream. The response body is simulated
+ * by an in-memory source that, like a socket source, returns at most one segment per read. Not run as part of the tests,
+ * run the main method with an optional size in MB (default 256) to compare.
+ */
+public class OutputFileWriterBenchmark {
+
+    private static final int ITERATIONS = 5;
+
+    public static void main(String[] args) throws IOException {
+        final long size = (args.length > 0 ? Long.parseLong(args[0]) : 256) * 1024 * 1024;
+        final Path target = Files.createTempFile("target", null);
+        final Path zsync = Files.createTempFile("target", ".zsync");
+        final Path output = Files.createTempFile("output", null);
+        try {
+            final byte[] chunk = new byte[1024 * 1024];
+            new Random(0).nextBytes(chunk);
+            try (OutputStream out = Files.newOutputStream(target)) {
+                for (long written = 0; written < size; written += chunk.length) {
+                    out.write(chunk, 0, (int) Math.min(chunk.length, size - written));
+                }
+            }
+            new ZsyncMake().writeToFile(target, zsync, new ZsyncMake.Options().setUrl("http://localhost/target"));
+            final ControlFile controlFile = ControlFile.map(zsync.toFile(), new NoOpListener());
+            final ContentRange range = new ContentRange(0, size - 1);
+
+            for (int i = 0; i < ITERATIONS; i++) {
+                // both write to a new file
+                Files.deleteIfExists(output);
+                long start = System.nanoTime();
+                try (FileChannel channel = new RandomAccessFile(output.toFile(), "rw").getChannel();
+                     Source source = new RepeatingSource(chunk, size)) {
+                    final ReadableByteChannel src = Channels.newChannel(Okio.buffer(source).inputStream());
+                    long position = 0;
+                    while (position < size) {
+                        position += channel.transferFrom(src, position, size - position);
+                    }
+                }
+                print("transferFrom", size, System.nanoTime() - start);
+                Files.delete(output);
+
+                final OutputFileWriter writer = new OutputFileWriter(output.toFile(), controlFile, new NoOpListener());
+                start = System.nanoTime();
+                try (Source source = new RepeatingSource(chunk, size)) {
+                    writer.receive(range, source);
+                }
+                print("receive", size, System.nanoTime() - start);
+                writer.close();
+            }
+        } finally {
+            Files.deleteIfExists(target);
+            Files.deleteIfExists(zsync);
+            Files.deleteIfExists(output);
+        }
+    }
+
+    private static void print(String name, long size, long nanos) {
+        System.out.println(String.format("%-14s %8.1f MB/s", name, size / 1024.0 / 1024.0 / (nanos / 1e9)));
+    }
+
+    private static class RepeatingSource implements Source {
+        private static final int SEGMENT_SIZE = 8192;
+        private final byte[] chunk;
+        private long remaining;
+        private int offset;
+
+        RepeatingSource(byte[] chunk, long size) {
+            this.chunk = chunk;
+            this.remaining = size;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            if (this.remaining == 0) {
+                return -1;
+            }
+            final int n = (int) Math.min(Math.min(byteCount, this.remaining),
+                    Math.min(SEGMENT_SIZE, this.chunk.length - this.offset));
+            sink.write(this.chunk, this.offset, n);
+            this.offset = (this.offset + n) % this.chunk.length;
+            this.remaining -= n;
+            return n;
+        }
+
+        @Override
+        public Timeout timeout() {
+            return Timeout.NONE;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static class NoOpListener implements ResourceTransferListener<File> {
+        @Override
+        public void start(File resource, long length) {
+        }
+
+        @Override
+        public void transferred(long bytes) {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.ZsyncMake;
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.util.ReadableByteBuffer;
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
+import com.salesforce.zsync.internal.util.ZsyncUtil;
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OutputFileWriterTest {
+
+    private static final int BLOCK_SIZE = 2048;
+
+    private byte[] target;
+    private Path targetFile;
+    private Path zsyncFile;
+    private Path outputFile;
+
+    @Before
+    public void setUp() throws IOException {
+        this.target = new byte[10 * BLOCK_SIZE + 500];
+        new Random(1).nextBytes(this.target);
+        this.targetFile = Files.createTempFile("target", null);
+        this.zsyncFile = Files.createTempFile("target", ".zsync");
+        this.outputFile = Files.createTempFile("output", null);
+        Files.delete(this.outputFile);
+        Files.write(this.targetFile, this.target);
+        new ZsyncMake().writeToFile(this.targetFile, this.zsyncFile,
+                new ZsyncMake.Options().setUrl("http://localhost/target").setBlockSize(BLOCK_SIZE));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.targetFile);
+        Files.deleteIfExists(this.zsyncFile);
+        Files.deleteIfExists(this.outputFile);
+        Files.deleteIfExists(Paths.get(this.outputFile + ".part"));
+        Files.deleteIfExists(Paths.get(this.outputFile + ".part.journal"));
+    }
+
+    private OutputFileWriter newWriter(CountingListener listener) throws IOException {
+        return new OutputFileWriter(this.outputFile.toFile(), this.controlFile(), listener);
+    }
+
+    /**
+     * Asserts that ranges are written in full from sources that return few bytes per read and that exactly the bytes
+     * written are reported
+     */
+    @Test
+    public void testReceive() throws IOException {
+        final CountingListener listener = new CountingListener();
+        try (OutputFileWriter writer = this.newWriter(listener)) {
+            final int split = 4 * BLOCK_SIZE;
+            writer.receive(new ContentRange(split, this.target.length - 1), this.source(split, this.target.length));
+            assertEquals(Collections.singletonList(new ContentRange(0, split - 1)), writer.getMissingRanges());
+            assertFalse(writer.isComplete());
+            writer.receive(new ContentRange(0, split - 1), this.source(0, split));
+            assertTrue(writer.isComplete());
+            assertEquals(this.target.length, listener.transferred);
+        }
+        assertArrayEquals(this.target, Files.readAllBytes(this.outputFile));
+    }
+
+    /**
+     * Asserts that a source ending before the end of the range fails rather than marking the range complete
+     */
+    @Test
+    public void testReceiveTruncated() throws IOException {
+        final CountingListener listener = new CountingListener();
+        final OutputFileWriter writer = this.newWriter(listener);
+        try {
+            writer.receive(new ContentRange(0, 2 * BLOCK_SIZE - 1), this.source(0, BLOCK_SIZE + 10));
+            fail("Expected EOFException");
+        } catch (EOFException e) {
+            assertEquals(BLOCK_SIZE + 10, listener.transferred);
+            assertEquals(Collections.singletonList(new ContentRange(0, this.target.length - 1)),
+                    writer.getMissingRanges());
+        } finally {
+            try {
+                writer.close();
+            } catch (ChecksumValidationIOException e) {
+                // expected, since the output file is incomplete
+            }
+        }
+    }
+
+    /**
+     * Asserts that a block whose data fails to be written is still missing and can be written again
+     */
+    @Test
+    public void testWriteBlockFailure() throws IOException {
+        final CountingListener listener = new CountingListener();
+        try (OutputFileWriter writer = this.newWriter(listener)) {
+            writer.receive(new ContentRange(BLOCK_SIZE, this.target.length - 1),
+                    this.source(BLOCK_SIZE, this.target.length));
+            try {
+                writer.writeBlock(0, new TargetBlock(0) {
+                    @Override
+                    public void write(WritableByteChannel channel, int offset, int length) throws IOException {
+                        throw new IOException("Failed to read input file");
+                    }
+                });
+                fail("Expected RuntimeException");
+            } catch (RuntimeException e) {
+                assertTrue(e.getCause() instanceof IOException);
+            }
+            assertFalse(writer.isComplete());
+            assertEquals(Collections.singletonList(new ContentRange(0, BLOCK_SIZE - 1)), writer.getMissingRanges());
+            assertTrue(writer.writeBlock(0, new TargetBlock(0)));
+            assertTrue(writer.isComplete());
+        }
+        assertArrayEquals(this.target, Files.readAllBytes(this.outputFile));
+    }
+
+    /**
+     * Asserts that a writer with a journal resumes from the blocks written by a previous writer that did not complete
+     */
+    @Test
+    public void testResume() throws IOException {
+        final int split = 4 * BLOCK_SIZE;
+        final File journal = new File(this.outputFile + ".part.journal");
+        this.writeIncomplete(split);
+        assertTrue(journal.exists());
+
+        final CountingListener listener = new CountingListener();
+        try (OutputFileWriter writer = new OutputFileWriter(this.outputFile.toFile(), this.controlFile(), listener, 0)) {
+            assertEquals(Collections.singletonList(new ContentRange(split, this.target.length - 1)),
+                    writer.getMissingRanges());
+            writer.receive(new ContentRange(split, this.target.length - 1), this.source(split, this.target.length));
+            assertTrue(writer.isComplete());
+        }
+        assertEquals(this.target.length - split, listener.transferred);
+        assertArrayEquals(this.target, Files.readAllBytes(this.outputFile));
+        assertFalse(journal.exists());
+    }
+
+    /**
+     * Asserts that a journal that does not match the target file is reset
+     */
+    @Test
+    public void testResumeInvalidJournal() throws IOException {
+        this.writeIncomplete(4 * BLOCK_SIZE);
+        final Path journal = Paths.get(this.outputFile + ".part.journal");
+        final byte[] bytes = Files.readAllBytes(journal);
+        bytes[20]++;
+        Files.write(journal, bytes);
+        try (OutputFileWriter writer = new OutputFileWriter(this.outputFile.toFile(), this.controlFile(),
+                new CountingListener(), 0)) {
+            assertEquals(Collections.singletonList(new ContentRange(0, this.target.length - 1)),
+                    writer.getMissingRanges());
+            writer.receive(new ContentRange(0, this.target.length - 1), this.source(0, this.target.length));
+        }
+        assertArrayEquals(this.target, Files.readAllBytes(this.outputFile));
+    }
+
+    /**
+     * Asserts that a journal without partial output file is ignored
+     */
+    @Test
+    public void testResumeMissingPartialFile() throws IOException {
+        this.writeIncomplete(4 * BLOCK_SIZE);
+        Files.delete(Paths.get(this.outputFile + ".part"));
+        try (OutputFileWriter writer = new OutputFileWriter(this.outputFile.toFile(), this.controlFile(),
+                new CountingListener(), 0)) {
+            assertEquals(Collections.singletonList(new ContentRange(0, this.target.length - 1)),
+                    writer.getMissingRanges());
+            writer.receive(new ContentRange(0, this.target.length - 1), this.source(0, this.target.length));
+        }
+    }
+
+    // writes the blocks before the given offset with a journal and closes the incomplete writer
+    private void writeIncomplete(int end) throws IOException {
+        final OutputFileWriter writer =
+                new OutputFileWriter(this.outputFile.toFile(), this.controlFile(), new CountingListener(), 1000);
+        writer.receive(new ContentRange(0, end - 1), this.source(0, end));
+        try {
+            writer.close();
+            fail("Expected ChecksumValidationIOException");
+        } catch (ChecksumValidationIOException e) {
+            // expected, since the output file is incomplete
+        }
+    }
+
+    private ControlFile controlFile() throws IOException {
+        return ControlFile.map(this.zsyncFile.toFile(), new CountingListener());
+    }
+
+    // source of the given bytes of the target that returns at most 1000 bytes per read
+    private Source source(int start, int end) {
+        return new ForwardingSource(new Buffer().write(this.target, start, end - start)) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                return super.read(sink, Math.min(byteCount, 1000));
+            }
+        };
+    }
+
+    // block of the target starting at the given offset
+    private class TargetBlock implements ReadableByteBuffer {
+
+        private final int start;
+
+        TargetBlock(int start) {
+            this.start = start;
+        }
+
+        @Override
+        public int length() {
+            return BLOCK_SIZE;
+        }
+
+        @Override
+        public byte get(int i) {
+            return OutputFileWriterTest.this.target[this.start + i];
+        }
+
+        @Override
+        public int rsum(int offset, int length) {
+            return ZsyncUtil.computeRsum(OutputFileWriterTest.this.target, this.start + offset, length);
+        }
+
+        @Override
+        public void write(WritableByteChannel channel) throws IOException {
+            this.write(channel, 0, BLOCK_SIZE);
+        }
+
+        @Override
+        public void write(WritableByteChannel channel, int offset, int length) throws IOException {
+            final ByteBuffer buffer = ByteBuffer.wrap(OutputFileWriterTest.this.target, this.start + offset, length);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static class CountingListener implements ResourceTransferListener<File> {
+        long transferred;
+
+        @Override
+        public void start(File resource, long length) {
+        }
+
+        @Override
+        public void transferred(long bytes) {
+            this.transferred += bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static com.salesforce.zsync.internal.util.ZsyncUtil.MD4;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.MURMUR3_128;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.junit.Assert.*;
+
+public class SeedChecksumCacheTest {
+
+    private static final int BLOCK_SIZE = 1024;
+
+    private Path directory;
+    private Path seedFile;
+
+    @Before
+    public void setUp() throws IOException {
+        this.directory = Files.createTempDirectory("cache");
+        this.seedFile = Files.createTempFile("seed", null);
+        final byte[] seed = new byte[10 * BLOCK_SIZE + 10];
+        new Random(1).nextBytes(seed);
+        Files.write(this.seedFile, seed);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (File entry : this.directory.toFile().listFiles()) {
+            Files.delete(entry.toPath());
+        }
+        Files.delete(this.directory);
+        Files.deleteIfExists(this.seedFile);
+    }
+
+    @Test
+    public void testGet() throws IOException {
+        final SeedChecksumCache cache = new SeedChecksumCache(this.directory.toFile(), 1024 * 1024);
+        assertNull(cache.get(this.seedFile.toFile(), BLOCK_SIZE, MD4));
+        final SeedChecksums computed = this.get(cache, BLOCK_SIZE);
+        assertEquals(1, this.directory.toFile().listFiles().length);
+
+        final SeedChecksums cached = cache.get(this.seedFile.toFile(), BLOCK_SIZE, MD4);
+        assertNotNull(cached);
+        assertEquals(computed.getLength(), cached.getLength());
+        assertArrayEquals(computed.getRsums(), cached.getRsums());
+        assertArrayEquals(computed.getChecksums(), cached.getChecksums());
+
+        // different block size is a different entry
+        assertNull(cache.get(this.seedFile.toFile(), 2 * BLOCK_SIZE, MD4));
+        assertEquals(6, this.get(cache, 2 * BLOCK_SIZE).getNumBlocks());
+        assertEquals(2, this.directory.toFile().listFiles().length);
+
+        // so is a different checksum algorithm
+        assertNull(cache.get(this.seedFile.toFile(), BLOCK_SIZE, MURMUR3_128));
+    }
+
+    /**
+     * Asserts that checksums of a file modified after their computation started are not cached
+     */
+    @Test
+    public void testPutModified() throws IOException {
+        final SeedChecksumCache cache = new SeedChecksumCache(this.directory.toFile(), 1024 * 1024);
+        final File file = this.seedFile.toFile();
+        final SeedChecksums checksums;
+        try (FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            checksums = SeedChecksums.compute(channel, channel.size(), BLOCK_SIZE, MD4);
+        }
+        cache.put(file, file.lastModified() - 2000, checksums);
+        assertEquals(0, this.directory.toFile().listFiles().length);
+    }
+
+    /**
+     * Asserts that checksums are recomputed once the file changes
+     */
+    @Test
+    public void testGetModified() throws IOException {
+        final SeedChecksumCache cache = new SeedChecksumCache(this.directory.toFile(), 1024 * 1024);
+        final SeedChecksums before = this.get(cache, BLOCK_SIZE);
+        final byte[] seed = Files.readAllBytes(this.seedFile);
+        seed[0]++;
+        Files.write(this.seedFile, seed);
+        this.seedFile.toFile().setLastModified(this.seedFile.toFile().lastModified() + 2000);
+        final SeedChecksums after = this.get(cache, BLOCK_SIZE);
+        assertNotEquals(before.getRsums()[0], after.getRsums()[0]);
+        assertEquals(before.getRsums()[1], after.getRsums()[1]);
+    }
+
+    /**
+     * Asserts that a corrupt entry is recomputed and replaced
+     */
+    @Test
+    public void testGetCorrupt() throws IOException {
+        final SeedChecksumCache cache = new SeedChecksumCache(this.directory.toFile(), 1024 * 1024);
+        final SeedChecksums computed = this.get(cache, BLOCK_SIZE);
+        final File entry = this.directory.toFile().listFiles()[0];
+        Files.write(entry.toPath(), new byte[]{1, 2, 3});
+        assertArrayEquals(computed.getChecksums(), this.get(cache, BLOCK_SIZE).getChecksums());
+        assertTrue(entry.length() > 3);
+    }
+
+    /**
+     * Asserts that the least recently used entries are evicted once the cache exceeds its size
+     */
+    @Test
+    public void testEvict() throws IOException {
+        final File directory = this.directory.toFile();
+        this.get(new SeedChecksumCache(directory, Long.MAX_VALUE), BLOCK_SIZE);
+        final File first = directory.listFiles()[0];
+        first.setLastModified(first.lastModified() - 10000);
+        this.get(new SeedChecksumCache(directory, Long.MAX_VALUE), 2 * BLOCK_SIZE);
+        assertEquals(2, directory.listFiles().length);
+
+        // a cache that fits only the two existing entries evicts the older one when a third is added
+        long size = 0;
+        for (File entry : directory.listFiles()) {
+            size += entry.length();
+        }
+        final SeedChecksumCache cache = new SeedChecksumCache(directory, size);
+        this.get(cache, 4 * BLOCK_SIZE);
+        assertEquals(2, directory.listFiles().length);
+        assertFalse(first.exists());
+    }
+
+    private SeedChecksums get(SeedChecksumCache cache, int blockSize) throws IOException {
+        final File file = this.seedFile.toFile();
+        SeedChecksums checksums = cache.get(file, blockSize, MD4);
+        if (checksums == null) {
+            final long lastModified = file.lastModified();
+            try (FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+                checksums = SeedChecksums.compute(channel, channel.size(), blockSize, MD4);
+            }
+            cache.put(file, lastModified, checksums);
+        }
+        return checksums;
+    }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal;
+
+import com.salesforce.zsync.ZsyncMake;
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.internal.util.TransferListener.ResourceTransferListener;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.salesforce.zsync.internal.util.ZsyncUtil.MD4;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.MURMUR3_128;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.computeRsum;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.newMD4;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.junit.Assert.*;
+
+public class SeedChecksumsTest {
+
+    private static final int BLOCK_SIZE = 2048;
+
+    private byte[] target;
+    private Path targetFile;
+    private Path zsyncFile;
+    private Path seedFile;
+    private Path outputFile;
+
+    @Before
+    public void setUp() throws IOException {
+        this.target = new byte[10 * BLOCK_SIZE + 500];
+        new Random(1).nextBytes(this.target);
+        this.targetFile = Files.createTempFile("target", null);
+        this.zsyncFile = Files.createTempFile("target", ".zsync");
+        this.seedFile = Files.createTempFile("seed", null);
+        this.outputFile = Files.createTempFile("output", null);
+        Files.delete(this.outputFile);
+        Files.write(this.targetFile, this.target);
+        new ZsyncMake().writeToFile(this.targetFile, this.zsyncFile,
+                new ZsyncMake.Options().setUrl("http://localhost/target").setBlockSize(BLOCK_SIZE));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.targetFile);
+        Files.deleteIfExists(this.zsyncFile);
+        Files.deleteIfExists(this.seedFile);
+        Files.deleteIfExists(this.outputFile);
+        Files.deleteIfExists(Paths.get(this.outputFile + ".part"));
+    }
+
+    @Test
+    public void testCompute() throws IOException {
+        Files.write(this.seedFile, this.target);
+        final SeedChecksums checksums;
+        try (FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            checksums = SeedChecksums.compute(channel, this.target.length, BLOCK_SIZE, MD4);
+        }
+        assertEquals(11, checksums.getNumBlocks());
+        final MessageDigest md4 = newMD4();
+        for (int i = 0; i < checksums.getNumBlocks(); i++) {
+            // the last block is padded with zeros
+            final byte[] block = Arrays.copyOfRange(this.target, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE);
+            assertEquals(computeRsum(block), checksums.getRsums()[i]);
+            final int p = i * SeedChecksums.CHECKSUM_LENGTH;
+            assertArrayEquals(md4.digest(block),
+                    Arrays.copyOfRange(checksums.getChecksums(), p, p + SeedChecksums.CHECKSUM_LENGTH));
+        }
+    }
+
+    @Test
+    public void testComputeParallel() throws IOException {
+        // large enough for several parts
+        final byte[] seed = new byte[5 * 1024 * 1024 + 100];
+        new Random(2).nextBytes(seed);
+        Files.write(this.seedFile, seed);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            final SeedChecksums serial = SeedChecksums.compute(channel, seed.length, BLOCK_SIZE, MD4);
+            final SeedChecksums parallel = SeedChecksums.compute(channel, seed.length, BLOCK_SIZE, MD4, executor, 4);
+            assertArrayEquals(serial.getRsums(), parallel.getRsums());
+            assertArrayEquals(serial.getChecksums(), parallel.getChecksums());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testComputeEmpty() throws IOException {
+        Files.write(this.seedFile, new byte[0]);
+        try (FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            assertEquals(0, SeedChecksums.compute(channel, 0, BLOCK_SIZE, MD4).getNumBlocks());
+        }
+    }
+
+    /**
+     * Asserts that all aligned blocks except a modified one are matched, including the padded last block
+     */
+    @Test
+    public void testMatch() throws IOException {
+        final byte[] seed = this.target.clone();
+        seed[3 * BLOCK_SIZE + 7]++;
+        Files.write(this.seedFile, seed);
+        try (OutputFileWriter writer = this.newWriter(); FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            final SeedChecksums checksums = SeedChecksums.compute(channel, seed.length, BLOCK_SIZE, MD4);
+            final BitSet matched = checksums.match(writer, channel, this.controlFile().getHeader());
+            assertEquals(10, matched.cardinality());
+            assertFalse(matched.get(3));
+            assertEquals(Collections.singletonList(new ContentRange(3 * BLOCK_SIZE, 4 * BLOCK_SIZE - 1)),
+                    writer.getMissingRanges());
+            writer.receive(new ContentRange(3 * BLOCK_SIZE, 4 * BLOCK_SIZE - 1),
+                    new Buffer().write(this.target, 3 * BLOCK_SIZE, BLOCK_SIZE));
+            assertTrue(writer.isComplete());
+        }
+        assertArrayEquals(this.target, Files.readAllBytes(this.outputFile));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMatchChecksumAlgorithmMismatch() throws IOException {
+        Files.write(this.seedFile, this.target);
+        try (OutputFileWriter writer = this.newWriter(); FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            SeedChecksums.compute(channel, this.target.length, BLOCK_SIZE, MURMUR3_128).match(writer, channel,
+                    this.controlFile().getHeader());
+        }
+    }
+
+    /**
+     * Asserts that blocks at unaligned offsets are not matched
+     */
+    @Test
+    public void testMatchShifted() throws IOException {
+        final byte[] seed = new byte[this.target.length + 1];
+        System.arraycopy(this.target, 0, seed, 1, this.target.length);
+        Files.write(this.seedFile, seed);
+        try (OutputFileWriter writer = this.newWriter(); FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            final SeedChecksums checksums = SeedChecksums.compute(channel, seed.length, BLOCK_SIZE, MD4);
+            assertTrue(checksums.match(writer, channel, this.controlFile().getHeader()).isEmpty());
+            assertEquals(Collections.singletonList(new ContentRange(0, this.target.length - 1)),
+                    writer.getMissingRanges());
+            writer.receive(new ContentRange(0, this.target.length - 1), new Buffer().write(this.target));
+        }
+    }
+
+    @Test
+    public void testGetUnmatchedWindows() throws IOException {
+        Files.write(this.seedFile, this.target);
+        final SeedChecksums checksums;
+        try (FileChannel channel = FileChannel.open(this.seedFile, READ)) {
+            checksums = SeedChecksums.compute(channel, this.target.length, BLOCK_SIZE, MD4);
+        }
+        final long paddedSize = 11 * BLOCK_SIZE;
+        final BitSet matched = new BitSet();
+        matched.set(0, 11);
+        assertTrue(checksums.getUnmatchedWindows(matched, paddedSize, BLOCK_SIZE).isEmpty());
+
+        // windows overlapping blocks 3 and 4, and windows overlapping blocks 6 and 10 in a scan of double blocks
+        matched.clear(3, 5);
+        assertRanges(checksums.getUnmatchedWindows(matched, paddedSize, BLOCK_SIZE),
+                2 * BLOCK_SIZE + 1, 5 * BLOCK_SIZE);
+        matched.set(3, 5);
+        matched.clear(6);
+        matched.clear(10);
+        assertRanges(checksums.getUnmatchedWindows(matched, paddedSize, 2 * BLOCK_SIZE),
+                4 * BLOCK_SIZE + 1, 7 * BLOCK_SIZE, 8 * BLOCK_SIZE + 1, 9 * BLOCK_SIZE + 1);
+
+        // adjacent ranges are merged
+        matched.clear(8);
+        assertRanges(checksums.getUnmatchedWindows(matched, paddedSize, 2 * BLOCK_SIZE),
+                4 * BLOCK_SIZE + 1, 9 * BLOCK_SIZE + 1);
+
+        assertRanges(checksums.getUnmatchedWindows(new BitSet(), paddedSize, BLOCK_SIZE), 0, 10 * BLOCK_SIZE + 1);
+    }
+
+    private static void assertRanges(List<long[]> actual, long... expected) {
+        assertEquals(expected.length / 2, actual.size());
+        for (int i = 0; i < actual.size(); i++) {
+            assertArrayEquals(new long[]{expected[2 * i], expected[2 * i + 1]}, actual.get(i));
+        }
+    }
+
+    private OutputFileWriter newWriter() throws IOException {
+        return new OutputFileWriter(this.outputFile.toFile(), this.controlFile(), new NullListener());
+    }
+
+    private ControlFile controlFile() throws IOException {
+        return ControlFile.map(this.zsyncFile.toFile(), new NullListener());
+    }
+
+    private static class NullListener implements ResourceTransferListener<File> {
+        @Override
+        public void start(File resource, long length) {
+        }
+
+        @Override
+        public void transferred(long bytes) {
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AtomicBitSetTest {
+
+    @Test
+    public void testSet() {
+        final AtomicBitSet bits = new AtomicBitSet(130);
+        assertEquals(130, bits.size());
+        assertFalse(bits.get(0));
+        assertTrue(bits.set(0));
+        assertFalse(bits.set(0));
+        assertTrue(bits.set(63));
+        assertTrue(bits.set(64));
+        assertTrue(bits.set(129));
+        for (int i = 0; i < 130; i++) {
+            assertEquals(i == 0 || i == 63 || i == 64 || i == 129, bits.get(i));
+        }
+    }
+
+    @Test
+    public void testClear() {
+        final AtomicBitSet bits = new AtomicBitSet(130);
+        bits.set(64);
+        bits.set(65);
+        assertTrue(bits.clear(64));
+        assertFalse(bits.clear(64));
+        assertFalse(bits.clear(0));
+        assertFalse(bits.get(64));
+        assertTrue(bits.get(65));
+        assertTrue(bits.set(64));
+    }
+
+    @Test
+    public void testToLongArray() {
+        final AtomicBitSet bits = new AtomicBitSet(130);
+        bits.set(1);
+        bits.set(64);
+        bits.set(129);
+        assertArrayEquals(new long[]{2L, 1L, 2L}, bits.toLongArray());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfBounds() {
+        new AtomicBitSet(64).get(64);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testSetNegative() {
+        new AtomicBitSet(64).set(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeSize() {
+        new AtomicBitSet(-1);
+    }
+
+    /**
+     * Asserts that when several threads race to set the same bits each bit is claimed by exactly one thread
+     */
+    @Test
+    public void testConcurrentSet() throws InterruptedException {
+        final int size = 10000;
+        final int numThreads = 4;
+        final AtomicBitSet bits = new AtomicBitSet(size);
+        final AtomicInteger claimed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < size; i++) {
+                        if (bits.set(i)) {
+                            claimed.incrementAndGet();
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(size, claimed.get());
+        for (int i = 0; i < size; i++) {
+            assertTrue(bits.get(i));
+        }
+    }
+
+}
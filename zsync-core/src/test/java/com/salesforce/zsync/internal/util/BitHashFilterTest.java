@@ -0,0 +1,125 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BitHashFilterTest {
+
+    /**
+     * Asserts that added values are always reported and that the default size keeps false positives of random int
+     * values close to the expected rate of at most 1/8
+     */
+    @Test
+    public void testMightContainInt() {
+        final Random random = new Random(1);
+        final int count = 10000;
+        final BitHashFilter filter = new BitHashFilter(BitHashFilter.defaultBits(count));
+        final Set<Integer> values = new HashSet<>();
+        while (values.size() < count) {
+            values.add(random.nextInt());
+        }
+        for (int value : values) {
+            filter.add(value);
+        }
+        for (int value : values) {
+            assertTrue(filter.mightContain(value));
+        }
+        int falsePositives = 0, negatives = 0;
+        for (int i = 0; i < 100000; i++) {
+            final int value = random.nextInt();
+            if (!values.contains(value)) {
+                negatives++;
+                if (filter.mightContain(value)) {
+                    falsePositives++;
+                }
+            }
+        }
+        assertTrue(falsePositives < negatives / 6);
+    }
+
+    /**
+     * Same as {@link #testMightContainInt()} for long values
+     */
+    @Test
+    public void testMightContainLong() {
+        final Random random = new Random(1);
+        final int count = 10000;
+        final BitHashFilter filter = new BitHashFilter(BitHashFilter.defaultBits(count));
+        final Set<Long> values = new HashSet<>();
+        while (values.size() < count) {
+            values.add(random.nextLong());
+        }
+        for (long value : values) {
+            filter.add(value);
+        }
+        for (long value : values) {
+            assertTrue(filter.mightContain(value));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (filter.mightContain(random.nextLong())) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100000 / 6);
+    }
+
+    @Test
+    public void testEmpty() {
+        final BitHashFilter filter = new BitHashFilter(BitHashFilter.MIN_BITS);
+        assertFalse(filter.mightContain(0));
+        assertFalse(filter.mightContain(-1));
+        assertFalse(filter.mightContain(0L));
+    }
+
+    @Test
+    public void testDefaultBits() {
+        assertEquals(BitHashFilter.MIN_BITS, BitHashFilter.defaultBits(0));
+        assertEquals(BitHashFilter.MIN_BITS, BitHashFilter.defaultBits(8));
+        assertEquals(13, BitHashFilter.defaultBits(1000));
+        assertEquals(13, BitHashFilter.defaultBits(1024));
+        assertEquals(14, BitHashFilter.defaultBits(1025));
+        assertEquals(BitHashFilter.MAX_BITS, BitHashFilter.defaultBits(Integer.MAX_VALUE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBitsTooSmall() {
+        new BitHashFilter(BitHashFilter.MIN_BITS - 1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBitsTooLarge() {
+        new BitHashFilter(BitHashFilter.MAX_BITS + 1);
+    }
+
+}
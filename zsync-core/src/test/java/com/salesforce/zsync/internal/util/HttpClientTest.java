@@ -26,17 +26,26 @@
 package com.salesforce.zsync.internal.util;
 
 import com.google.common.base.Function;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.net.MediaType;
+import com.salesforce.zsync.ZsyncStatsObserver;
+import com.salesforce.zsync.ZsyncStatsObserver.ZsyncStats;
 import com.salesforce.zsync.http.ContentRange;
 import com.salesforce.zsync.http.Credentials;
+import com.salesforce.zsync.internal.EventDispatcher;
 import com.salesforce.zsync.internal.util.EventLogHttpTransferListener.*;
 import com.salesforce.zsync.internal.util.HttpClient.*;
 import okhttp3.*;
+import okio.Buffer;
 import okio.BufferedSource;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
@@ -47,11 +56,16 @@ import java.net.URISyntaxException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static com.salesforce.zsync.internal.util.HttpClient.*;
 import static java.net.HttpURLConnection.HTTP_OK;
+import static java.net.HttpURLConnection.HTTP_PARTIAL;
 import static java.net.HttpURLConnection.HTTP_UNAUTHORIZED;
 import static java.nio.charset.StandardCharsets.ISO_8859_1;
 import static okhttp3.Protocol.HTTP_1_1;
@@ -370,6 +384,340 @@ public class HttpClientTest {
         };
     }
 
+    /**
+     * Asserts that batches of ranges are requested concurrently and all ranges are received
+     */
+    @Test
+    public void testPartialGetConcurrent() throws IOException, HttpError {
+        final byte[] data = createData(8000);
+        final List<ContentRange> ranges = createGappedRanges(data.length);
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final MockOkHttpClient okHttpClient = new MockOkHttpClient();
+        okHttpClient.setNewCall(new Function<Request, Call>() {
+            @Override
+            public Call apply(final Request request) {
+                return new FakeCall(request) {
+                    @Override
+                    public Response execute() throws IOException {
+                        requests.incrementAndGet();
+                        final int a = active.incrementAndGet();
+                        synchronized (maxActive) {
+                            maxActive.set(Math.max(maxActive.get(), a));
+                        }
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        } finally {
+                            active.decrementAndGet();
+                        }
+                        return multipartResponse(request, data, Integer.MAX_VALUE);
+                    }
+                };
+            }
+        });
+
+        final RecordingRangeReceiver receiver = new RecordingRangeReceiver(data.length);
+        new HttpClient(okHttpClient).partialGet(URI.create("http://host/file"), ranges,
+                Collections.<String, Credentials>emptyMap(), receiver, NO_OP_LISTENER, 4);
+
+        assertEquals(4, requests.get());
+        assertTrue(maxActive.get() > 1);
+        assertEquals(ranges, receiver.getRanges());
+        for (ContentRange range : ranges) {
+            for (long i = range.first(); i <= range.last(); i++) {
+                assertEquals(data[(int) i], receiver.getData()[(int) i]);
+            }
+        }
+    }
+
+    /**
+     * Asserts that a request failing part way through the response is retried for the ranges not received yet
+     */
+    @Test
+    public void testPartialGetRetry() throws IOException, HttpError {
+        final byte[] data = createData(8000);
+        final List<ContentRange> ranges = createGappedRanges(data.length);
+        final List<String> rangeHeaders = Collections.synchronizedList(new ArrayList<String>());
+        final MockOkHttpClient okHttpClient = new MockOkHttpClient();
+        okHttpClient.setNewCall(new Function<Request, Call>() {
+            @Override
+            public Call apply(final Request request) {
+                return new FakeCall(request) {
+                    @Override
+                    public Response execute() throws IOException {
+                        final String header = request.header("Range");
+                        rangeHeaders.add(header);
+                        // cut off the first response for the second batch after two parts
+                        final boolean fail = header.startsWith("bytes=2000-");
+                        return multipartResponse(request, data, fail ? 2 : Integer.MAX_VALUE);
+                    }
+                };
+            }
+        });
+
+        final RecordingRangeReceiver receiver = new RecordingRangeReceiver(data.length);
+        new HttpClient(okHttpClient).partialGet(URI.create("http://host/file"), ranges,
+                Collections.<String, Credentials>emptyMap(), receiver, NO_OP_LISTENER, 2);
+
+        assertEquals(5, rangeHeaders.size());
+        assertTrue(rangeHeaders.contains("bytes=" + Joiner.on(',').join(ranges.subList(102, 200))));
+        assertEquals(ranges, receiver.getRanges());
+    }
+
+    /**
+     * Asserts that a range request failing before a response is received still completes its download event, so that
+     * download statistics are flushed once all requests are done
+     */
+    @Test
+    public void testPartialGetRetryCompletesDownload() throws IOException, HttpError {
+        final byte[] data = createData(8000);
+        final List<ContentRange> ranges = createGappedRanges(data.length);
+        final AtomicBoolean failed = new AtomicBoolean();
+        final AtomicLong served = new AtomicLong();
+        final MockOkHttpClient okHttpClient = new MockOkHttpClient();
+        okHttpClient.setNewCall(new Function<Request, Call>() {
+            @Override
+            public Call apply(final Request request) {
+                return new FakeCall(request) {
+                    @Override
+                    public Response execute() throws IOException {
+                        if (request.header("Range").startsWith("bytes=2000-") && failed.compareAndSet(false, true)) {
+                            throw new IOException("Connection reset");
+                        }
+                        final Response response = multipartResponse(request, data, Integer.MAX_VALUE);
+                        served.addAndGet(response.body().contentLength());
+                        return response;
+                    }
+                };
+            }
+        });
+
+        final ZsyncStatsObserver observer = new ZsyncStatsObserver();
+        final RecordingRangeReceiver receiver = new RecordingRangeReceiver(data.length);
+        new HttpClient(okHttpClient).partialGet(URI.create("http://host/file"), ranges,
+                Collections.<String, Credentials>emptyMap(), receiver, new EventDispatcher(observer)
+                        .getRemoteFileDownloadListener(), 2);
+
+        assertTrue(failed.get());
+        assertEquals(ranges, receiver.getRanges());
+        final ZsyncStats stats = observer.build();
+        assertEquals(served.get(), stats.getBytesDownloadedFromRemoteFile());
+        assertEquals(served.get(), stats.getTotalBytesDownloaded());
+        assertEquals(4, stats.getElapsedMillisecondsDownloadingRemoteFileByRequest().size());
+    }
+
+    /**
+     * Asserts that a range request rejected for its response code closes the response and completes its download event
+     */
+    @Test
+    public void testPartialGetErrorCompletesDownload() throws IOException {
+        final AtomicBoolean closed = new AtomicBoolean();
+        final MockOkHttpClient okHttpClient = new MockOkHttpClient();
+        okHttpClient.setNewCall(new Function<Request, Call>() {
+            @Override
+            public Call apply(final Request request) {
+                return new FakeCall(request) {
+                    @Override
+                    public Response execute() {
+                        final Buffer error = new Buffer().writeUtf8("error");
+                        final BufferedSource source = Okio.buffer(new ForwardingSource(error) {
+                            @Override
+                            public void close() throws IOException {
+                                closed.set(true);
+                                super.close();
+                            }
+                        });
+                        return new Response.Builder().request(request).protocol(HTTP_1_1).code(500)
+                                .message("Internal Server Error").body(ResponseBody.create(null, 5, source)).build();
+                    }
+                };
+            }
+        });
+
+        final ZsyncStatsObserver observer = new ZsyncStatsObserver();
+        try {
+            new HttpClient(okHttpClient).partialGet(URI.create("http://host/file"), createSomeRanges(3),
+                    Collections.<String, Credentials>emptyMap(), new RecordingRangeReceiver(30),
+                    new EventDispatcher(observer).getRemoteFileDownloadListener(), 1);
+            fail("Expected HttpError");
+        } catch (HttpError e) {
+            assertEquals(500, e.getCode());
+        }
+
+        assertTrue(closed.get());
+        assertEquals(1, observer.build().getElapsedMillisecondsDownloadingRemoteFileByRequest().size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPartialGetInvalidConcurrency() throws IOException, HttpError {
+        new HttpClient(new MockOkHttpClient()).partialGet(URI.create("http://host/file"), createSomeRanges(1),
+                Collections.<String, Credentials>emptyMap(), new RecordingRangeReceiver(10), NO_OP_LISTENER, 0);
+    }
+
+    @Test
+    public void testNextPart() throws IOException {
+        final Buffer body = new Buffer().writeUtf8("--B\r\nContent-Type: application/octet-stream\r\n"
+                + "content-RANGE: bytes 0-2/10\r\n\r\nabc\r\n--B\r\nContent-Range: bytes 5-5/10\r\n\r\nf\r\n--B--\r\n");
+        final ByteString delimiter = ByteString.encodeUtf8("--B");
+        assertEquals(new ContentRange(0, 2), nextPart(body, delimiter));
+        assertEquals("abc", body.readUtf8(3));
+        assertEquals(new ContentRange(5, 5), nextPart(body, delimiter));
+        assertEquals("f", body.readUtf8(1));
+        assertNull(nextPart(body, delimiter));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNextPartInvalidBoundary() throws IOException {
+        nextPart(new Buffer().writeUtf8("--X\r\nContent-Range: bytes 0-2/10\r\n\r\nabc"), ByteString.encodeUtf8("--B"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNextPartMissingLineFeed() throws IOException {
+        nextPart(new Buffer().writeUtf8("--B\r\nContent-Range: bytes 0-2/10\n\r\nabc"), ByteString.encodeUtf8("--B"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNextPartTruncated() throws IOException {
+        nextPart(new Buffer().writeUtf8("--B\r\nContent-Range: bytes 0-2/10\r\n"), ByteString.encodeUtf8("--B"));
+    }
+
+    @Test(expected = IOException.class)
+    public void testNextPartTrailingData() throws IOException {
+        nextPart(new Buffer().writeUtf8("\r\n--B--\r\nmore"), ByteString.encodeUtf8("--B"));
+    }
+
+    private static final RangeTransferListener NO_OP_LISTENER = new RangeTransferListener() {
+        @Override
+        public HttpTransferListener newTransfer(List<ContentRange> ranges) {
+            return new HttpTransferListener() {
+                @Override
+                public void initiating(Request request) {
+                }
+
+                @Override
+                public void start(Response resource, long length) {
+                }
+
+                @Override
+                public void transferred(long bytes) {
+                }
+
+                @Override
+                public void close() throws IOException {
+                }
+            };
+        }
+    };
+
+    private static byte[] createData(int length) {
+        final byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+        return data;
+    }
+
+    // ranges of 10 bytes every 20 bytes, i.e. 100 ranges per 2000 bytes
+    private static List<ContentRange> createGappedRanges(int length) {
+        final List<ContentRange> ranges = new ArrayList<>();
+        for (int i = 0; i < length; i += 20) {
+            ranges.add(new ContentRange(i, i + 9));
+        }
+        return ranges;
+    }
+
+    /**
+     * Creates a multipart/byteranges response for the ranges requested in the Range header of the given request. If
+     * maxParts is less than the number of ranges, the body ends after maxParts parts.
+     */
+    private static Response multipartResponse(Request request, byte[] data, int maxParts) {
+        final String boundary = "BOUNDARY";
+        final StringBuilder body = new StringBuilder();
+        final String[] specs = request.header("Range").substring("bytes=".length()).split(",");
+        for (int i = 0; i < specs.length && i < maxParts; i++) {
+            final int dash = specs[i].indexOf('-');
+            final int first = Integer.parseInt(specs[i].substring(0, dash));
+            final int last = Integer.parseInt(specs[i].substring(dash + 1));
+            body.append("\r\n--").append(boundary).append("\r\n");
+            body.append("Content-Range: bytes ").append(first).append('-').append(last).append('/').append(data.length);
+            body.append("\r\n\r\n");
+            body.append(new String(data, first, last - first + 1, ISO_8859_1));
+        }
+        if (maxParts >= specs.length) {
+            body.append("\r\n--").append(boundary).append("--\r\n");
+        }
+        final byte[] bytes = body.substring(2).getBytes(ISO_8859_1);
+        return new Response.Builder().request(request).protocol(HTTP_1_1).code(HTTP_PARTIAL)
+                .header("Content-Type", "multipart/byteranges; boundary=" + boundary)
+                .body(ResponseBody.create(null, bytes)).build();
+    }
+
+    private static class RecordingRangeReceiver implements RangeReceiver {
+        private final byte[] data;
+        private final List<ContentRange> ranges = new ArrayList<>();
+
+        RecordingRangeReceiver(int length) {
+            this.data = new byte[length];
+        }
+
+        @Override
+        public synchronized void receive(ContentRange range, Source source) throws IOException {
+            final byte[] bytes = Okio.buffer(source).readByteArray(range.length());
+            System.arraycopy(bytes, 0, this.data, (int) range.first(), bytes.length);
+            this.ranges.add(range);
+        }
+
+        synchronized byte[] getData() {
+            return this.data;
+        }
+
+        synchronized List<ContentRange> getRanges() {
+            final List<ContentRange> sorted = new ArrayList<>(this.ranges);
+            Collections.sort(sorted, new Comparator<ContentRange>() {
+                @Override
+                public int compare(ContentRange o1, ContentRange o2) {
+                    return Long.compare(o1.first(), o2.first());
+                }
+            });
+            return sorted;
+        }
+    }
+
+    private abstract static class FakeCall implements Call {
+        private final Request request;
+
+        FakeCall(Request request) {
+            this.request = request;
+        }
+
+        @Override
+        public Request request() {
+            return this.request;
+        }
+
+        @Override
+        public void enqueue(Callback responseCallback) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public boolean isExecuted() {
+            return false;
+        }
+
+        @Override
+        public boolean isCanceled() {
+            return false;
+        }
+    }
+
     private List<ContentRange> createSomeRanges(int numberOfRangesToCreate) {
         List<ContentRange> ranges = new ArrayList<>(numberOfRangesToCreate);
         int rangeStart = 0;
@@ -0,0 +1,142 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class IntHashSetTest {
+
+    /**
+     * Asserts that the set agrees with {@link HashSet} on members and non-members of a random set of values
+     */
+    private static void assertSameMembership(boolean direct) {
+        final Random random = new Random(1);
+        final int[] values = new int[10000];
+        final Set<Integer> expected = new HashSet<>();
+        for (int i = 0; i < values.length; i++) {
+            // draw from a small range to get duplicates and from the full range to get negative values
+            values[i] = i % 2 == 0 ? random.nextInt(5000) : random.nextInt();
+            expected.add(values[i]);
+        }
+        final IntHashSet set = IntHashSet.copyOf(values, values.length, direct);
+        assertEquals(expected.size(), set.size());
+        assertEquals(direct, set.isDirect());
+        for (int value : values) {
+            assertTrue(set.contains(value));
+        }
+        for (int i = 0; i < 100000; i++) {
+            final int value = random.nextInt();
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test
+    public void testContains() {
+        assertSameMembership(false);
+    }
+
+    @Test
+    public void testContainsDirect() {
+        assertSameMembership(true);
+    }
+
+    /**
+     * Asserts that 0, which the table uses to mark empty slots, is handled like any other value
+     */
+    @Test
+    public void testContainsZero() {
+        assertFalse(IntHashSet.copyOf(new int[]{1, 2, 3}, 3).contains(0));
+        final IntHashSet set = IntHashSet.copyOf(new int[]{0, 1, 0}, 3);
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(1));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testEmpty() {
+        final IntHashSet set = IntHashSet.copyOf(new int[0], 0);
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(1));
+    }
+
+    /**
+     * Asserts that only the first count values are added
+     */
+    @Test
+    public void testCount() {
+        final IntHashSet set = IntHashSet.copyOf(new int[]{1, 2, 3}, 2);
+        assertTrue(set.contains(2));
+        assertFalse(set.contains(3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountTooLarge() {
+        IntHashSet.copyOf(new int[1], 2);
+    }
+
+    /**
+     * Asserts that the table keeps its load factor up to the maximum count and that larger counts are rejected rather
+     * than filling the table
+     */
+    @Test
+    public void testTableBits() {
+        assertEquals(1, IntHashSet.tableBits(0));
+        assertEquals(1, IntHashSet.tableBits(1));
+        assertEquals(2, IntHashSet.tableBits(2));
+        assertEquals(30, IntHashSet.tableBits(IntHashSet.MAX_COUNT));
+        try {
+            IntHashSet.tableBits(IntHashSet.MAX_COUNT + 1);
+            fail("count above maximum accepted");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * Asserts that direct tables too large for a buffer are rejected rather than overflowing their size
+     */
+    @Test
+    public void testDirectTableBytes() {
+        assertEquals(1 << 30, IntHashSet.directTableBytes(28, 4));
+        assertEquals(1 << 30, IntHashSet.directTableBytes(27, 8));
+        for (int[] bitsAndValueBytes : new int[][]{{29, 4}, {30, 4}, {28, 8}}) {
+            try {
+                IntHashSet.directTableBytes(bitsAndValueBytes[0], bitsAndValueBytes[1]);
+                fail("direct table of " + bitsAndValueBytes[0] + " bits accepted");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static com.salesforce.zsync.internal.util.ZsyncUtil.toLong;
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+
+    /**
+     * Asserts that the set agrees with {@link HashSet} on members and non-members of a random set of rsum pairs
+     */
+    private static void assertSameMembership(boolean direct) {
+        final Random random = new Random(1);
+        final long[] values = new long[10000];
+        final Set<Long> expected = new HashSet<>();
+        for (int i = 0; i < values.length; i++) {
+            // pairs of 2 byte rsums as well as arbitrary longs
+            values[i] = i % 2 == 0 ? toLong(random.nextInt(0x10000), random.nextInt(0x10000)) : random.nextLong();
+            expected.add(values[i]);
+        }
+        final LongHashSet set = LongHashSet.copyOf(values, values.length, direct);
+        assertEquals(expected.size(), set.size());
+        assertEquals(direct, set.isDirect());
+        for (long value : values) {
+            assertTrue(set.contains(value));
+        }
+        for (int i = 0; i < 100000; i++) {
+            final long value = i % 2 == 0 ? toLong(random.nextInt(0x10000), random.nextInt(0x10000)) : random.nextLong();
+            assertEquals(expected.contains(value), set.contains(value));
+        }
+    }
+
+    @Test
+    public void testContains() {
+        assertSameMembership(false);
+    }
+
+    @Test
+    public void testContainsDirect() {
+        assertSameMembership(true);
+    }
+
+    /**
+     * Asserts that 0, which the table uses to mark empty slots, is handled like any other value
+     */
+    @Test
+    public void testContainsZero() {
+        assertFalse(LongHashSet.copyOf(new long[]{1, 2, 3}, 3).contains(0));
+        final LongHashSet set = LongHashSet.copyOf(new long[]{0, 1, 0}, 3);
+        assertTrue(set.contains(0));
+        assertTrue(set.contains(1));
+        assertEquals(2, set.size());
+    }
+
+    @Test
+    public void testEmpty() {
+        final LongHashSet set = LongHashSet.copyOf(new long[0], 0);
+        assertEquals(0, set.size());
+        assertFalse(set.contains(0));
+    }
+
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.util.Random;
+
+/**
+ * Compares the throughput of computing truncated MD4 checksums of 2KB blocks with the MINA implementation used before
+ * and with {@link MD4}, from a byte array as done by ZsyncMake and from a direct buffer as done by the block matchers.
+ * Not run as part of the tests, run the main method to compare.
+ */
+public class MD4Benchmark {
+
+    private static final int BLOCK_SIZE = 2048;
+    private static final int CHECKSUM_BYTES = 6;
+    private static final int SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws NoSuchAlgorithmException, DigestException {
+        final byte[] bytes = new byte[SIZE];
+        new Random(0).nextBytes(bytes);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(SIZE);
+        direct.put(bytes).clear();
+        final Provider provider = new Provider("MinaMD4Provider", 1d, "mina md4") {
+            private static final long serialVersionUID = 1L;
+        };
+        provider.put("MessageDigest.MD4", org.apache.mina.proxy.utils.MD4.class.getName());
+        final MessageDigest mina = MessageDigest.getInstance("MD4", provider);
+        final MessageDigest md4 = ZsyncUtil.newMD4();
+        final byte[] checksum = new byte[CHECKSUM_BYTES];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int minaSum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                mina.update(bytes, off, BLOCK_SIZE);
+                minaSum += mina.digest()[0];
+            }
+            final long minaArray = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int minaDirectSum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                direct.limit(off + BLOCK_SIZE).position(off);
+                mina.update(direct);
+                minaDirectSum += mina.digest()[0];
+            }
+            final long minaDirect = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int sum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                md4.update(bytes, off, BLOCK_SIZE);
+                md4.digest(checksum, 0, CHECKSUM_BYTES);
+                sum += checksum[0];
+            }
+            final long array = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int directSum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                direct.limit(off + BLOCK_SIZE).position(off);
+                md4.update(direct);
+                md4.digest(checksum, 0, CHECKSUM_BYTES);
+                directSum += checksum[0];
+            }
+            final long directNanos = System.nanoTime() - start;
+
+            if (minaSum != sum || minaDirectSum != sum || directSum != sum) {
+                throw new AssertionError("Checksums differ");
+            }
+            System.out.println(String.format("round %d: mina %6d MB/s (direct %6d MB/s), md4 %6d MB/s (direct %6d MB/s)",
+                    round, mbPerSecond(minaArray), mbPerSecond(minaDirect), mbPerSecond(array),
+                    mbPerSecond(directNanos)));
+        }
+    }
+
+    private static long mbPerSecond(long nanos) {
+        return SIZE * 1000L / nanos;
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.salesforce.zsync.internal.util.ZsyncUtil.newMD4;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.toHexString;
+import static org.junit.Assert.*;
+
+public class MD4Test {
+
+    // the implementation used before, as reference
+    private static MessageDigest newReference() throws Exception {
+        final Provider provider = new Provider("ReferenceMD4Provider", 1d, "reference md4") {
+            private static final long serialVersionUID = 1L;
+        };
+        provider.put("MessageDigest.MD4", org.apache.mina.proxy.utils.MD4.class.getName());
+        return MessageDigest.getInstance("MD4", provider);
+    }
+
+    /**
+     * Asserts the digests of the test suite in RFC 1320
+     */
+    @Test
+    public void testRfcTestSuite() {
+        final String[][] suite = {{"", "31d6cfe0d16ae931b73c59d7e0c089c0"},
+                {"a", "bde52cb31de33e46245e05fbdbd6fb24"},
+                {"abc", "a448017aaf21d8525fc10ae87aa6729d"},
+                {"message digest", "d9130a8164549fe818874806e1c7014b"},
+                {"abcdefghijklmnopqrstuvwxyz", "d79e1c308aa5bbcdeea8ed63df412da9"},
+                {"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789", "043f8582f241db351ce627e153e7f0e4"},
+                {"12345678901234567890123456789012345678901234567890123456789012345678901234567890",
+                        "e33b4ddc9c38f2199c3e7b164fcc0536"}};
+        final MessageDigest md4 = newMD4();
+        for (String[] test : suite) {
+            final byte[] digest = md4.digest(test[0].getBytes(StandardCharsets.US_ASCII));
+            assertEquals(test[1], toHexString(ByteBuffer.wrap(digest)));
+        }
+    }
+
+    /**
+     * Asserts that digests of messages of all lengths around the block boundaries, fed in pieces through arrays, heap and
+     * direct buffers of either byte order, match the reference implementation
+     */
+    @Test
+    public void testMatchesReference() throws Exception {
+        final Random random = new Random(0);
+        final MessageDigest reference = newReference();
+        final MessageDigest md4 = newMD4();
+        final byte[] message = new byte[3 * 64 + 1];
+        final ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+        for (int length = 0; length <= message.length; length++) {
+            random.nextBytes(message);
+            final byte[] expected = reference.digest(Arrays.copyOf(message, length));
+            final int split = random.nextInt(length + 1);
+
+            md4.update(message, 0, split);
+            md4.update(message, split, length - split);
+            assertArrayEquals(expected, md4.digest());
+
+            md4.update(ByteBuffer.wrap(message, 0, split).slice());
+            md4.update(ByteBuffer.wrap(message, split, length - split));
+            assertArrayEquals(expected, md4.digest());
+
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                direct.clear();
+                direct.put(message).order(order);
+                direct.position(0).limit(split);
+                md4.update(direct);
+                assertEquals(split, direct.position());
+                direct.limit(length);
+                md4.update(direct);
+                assertEquals(length, direct.position());
+                assertArrayEquals(expected, md4.digest());
+            }
+
+            for (int i = 0; i < length; i++) {
+                md4.update(message[i]);
+            }
+            assertArrayEquals(expected, md4.digest());
+        }
+    }
+
+    /**
+     * Asserts that digesting into a shorter length writes only the leading bytes and resets the digest
+     */
+    @Test
+    public void testTruncatedDigest() throws Exception {
+        final byte[] message = "message digest".getBytes(StandardCharsets.US_ASCII);
+        final MessageDigest md4 = newMD4();
+        final byte[] expected = md4.digest(message);
+        for (int length = 1; length <= 16; length++) {
+            final byte[] actual = new byte[18];
+            md4.update(message);
+            assertEquals(length, md4.digest(actual, 1, length));
+            assertArrayEquals(Arrays.copyOf(expected, length), Arrays.copyOfRange(actual, 1, 1 + length));
+            for (int i = 1 + length; i < actual.length; i++) {
+                assertEquals(0, actual[i]);
+            }
+            assertEquals(0, actual[0]);
+        }
+        assertArrayEquals(expected, md4.digest(message));
+    }
+
+    @Test
+    public void testClone() throws Exception {
+        final MessageDigest md4 = newMD4();
+        md4.update(new byte[100]);
+        final MessageDigest clone = (MessageDigest) md4.clone();
+        md4.update((byte) 1);
+        clone.update((byte) 1);
+        assertArrayEquals(md4.digest(), clone.digest());
+    }
+
+}
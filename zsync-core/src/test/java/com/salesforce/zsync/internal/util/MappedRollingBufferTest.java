@@ -0,0 +1,151 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MappedRollingBufferTest {
+
+    private static class CountingListener implements TransferListener {
+        long transferred;
+
+        @Override
+        public void transferred(long bytes) {
+            this.transferred += bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    private static byte[] read(ReadableByteBuffer b, int offset, int length) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        b.write(Channels.newChannel(bos), offset, length);
+        return bos.toByteArray();
+    }
+
+    private static File createFile(int size) throws IOException {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        final File file = File.createTempFile("mapped", null);
+        file.deleteOnExit();
+        Files.write(file.toPath(), data);
+        return file;
+    }
+
+    /**
+     * Asserts that the mapped buffer presents the same windows as a {@link RollingBuffer} over the zero padded file when
+     * advanced by random amounts across many small segments
+     */
+    private static void assertSameAsRollingBuffer(int size, int numZeros, int windowSize, int segmentSize)
+            throws IOException {
+        final File file = createFile(size);
+        final Random random = new Random(1);
+        final CountingListener listener = new CountingListener();
+        try (FileChannel channel = new FileInputStream(file).getChannel();
+             FileChannel expectedChannel = new FileInputStream(file).getChannel()) {
+            final MappedRollingBuffer actual =
+                    new MappedRollingBuffer(channel, size, numZeros, windowSize, segmentSize, listener);
+            final RollingBuffer expected = new RollingBuffer(
+                    numZeros == 0 ? expectedChannel : new ZeroPaddedReadableByteChannel(expectedChannel, numZeros),
+                    windowSize, 2 * windowSize);
+            boolean advanced;
+            do {
+                for (int i = 0; i < windowSize; i++) {
+                    assertEquals(expected.get(i), actual.get(i));
+                }
+                final int offset = random.nextInt(windowSize);
+                final int length = random.nextInt(windowSize - offset + 1);
+                assertArrayEquals(read(expected, offset, length), read(actual, offset, length));
+                final byte[] window = read(expected, 0, windowSize);
+                assertEquals(ZsyncUtil.computeRsum(window), expected.rsum(0, windowSize));
+                assertEquals(ZsyncUtil.computeRsum(window), actual.rsum(0, windowSize));
+                assertEquals(ZsyncUtil.computeRsum(window, offset, length), actual.rsum(offset, length));
+                final ByteBuffer lookahead = actual.lookahead();
+                for (int i = 0; i < Math.min(windowSize, lookahead.limit()); i++) {
+                    assertEquals(expected.get(i), lookahead.get(i));
+                }
+                final int bytes = random.nextInt(windowSize + 1);
+                advanced = expected.advance(bytes);
+                assertEquals(advanced, actual.advance(bytes));
+            } while (advanced);
+        }
+        assertEquals(size, listener.transferred);
+    }
+
+    @Test
+    public void testRolling() throws IOException {
+        assertSameAsRollingBuffer(1000, 0, 16, 40);
+    }
+
+    @Test
+    public void testRollingZeroPadded() throws IOException {
+        assertSameAsRollingBuffer(1000, 7, 16, 40);
+    }
+
+    @Test
+    public void testSingleSegment() throws IOException {
+        assertSameAsRollingBuffer(1000, 3, 16, 4096);
+    }
+
+    /**
+     * Asserts that a file shorter than the window is padded to a single window
+     */
+    @Test
+    public void testShortFile() throws IOException {
+        assertSameAsRollingBuffer(5, 11, 16, 32);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInsufficientBytes() throws IOException {
+        final File file = createFile(10);
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            new MappedRollingBuffer(channel, 10, 5, 16, 32, new CountingListener());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSegmentSizeTooSmall() throws IOException {
+        final File file = createFile(100);
+        try (FileChannel channel = new FileInputStream(file).getChannel()) {
+            new MappedRollingBuffer(channel, 100, 0, 16, 31, new CountingListener());
+        }
+    }
+
+}
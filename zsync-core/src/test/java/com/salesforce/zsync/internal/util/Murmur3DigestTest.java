@@ -0,0 +1,109 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.salesforce.zsync.internal.util.ZsyncUtil.MURMUR3_128;
+import static com.salesforce.zsync.internal.util.ZsyncUtil.newChecksumDigest;
+import static org.junit.Assert.*;
+
+public class Murmur3DigestTest {
+
+    /**
+     * Asserts that digests of messages of all lengths around the block boundaries, fed in pieces through arrays, heap and
+     * direct buffers of either byte order and single bytes, match Guava's implementation
+     */
+    @Test
+    public void testMatchesGuava() {
+        final Random random = new Random(0);
+        final MessageDigest digest = newChecksumDigest(MURMUR3_128);
+        final byte[] message = new byte[5 * 16 + 1];
+        final ByteBuffer direct = ByteBuffer.allocateDirect(message.length);
+        for (int length = 0; length <= message.length; length++) {
+            random.nextBytes(message);
+            final byte[] expected = Hashing.murmur3_128().hashBytes(message, 0, length).asBytes();
+            final int split = random.nextInt(length + 1);
+
+            digest.update(message, 0, split);
+            digest.update(message, split, length - split);
+            assertArrayEquals(expected, digest.digest());
+
+            digest.update(ByteBuffer.wrap(message, 0, split).slice());
+            digest.update(ByteBuffer.wrap(message, split, length - split));
+            assertArrayEquals(expected, digest.digest());
+
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                direct.clear();
+                direct.put(message).order(order);
+                direct.position(0).limit(split);
+                digest.update(direct);
+                assertEquals(split, direct.position());
+                direct.limit(length);
+                digest.update(direct);
+                assertEquals(length, direct.position());
+                assertArrayEquals(expected, digest.digest());
+            }
+
+            for (int i = 0; i < length; i++) {
+                digest.update(message[i]);
+            }
+            assertArrayEquals(expected, digest.digest());
+        }
+    }
+
+    /**
+     * Asserts that digesting into a shorter length writes only the leading bytes and resets the digest
+     */
+    @Test
+    public void testTruncatedDigest() throws Exception {
+        final byte[] message = new byte[2048];
+        new Random(1).nextBytes(message);
+        final MessageDigest digest = newChecksumDigest(MURMUR3_128);
+        final byte[] expected = digest.digest(message);
+        for (int length = 1; length <= 16; length++) {
+            final byte[] actual = new byte[17];
+            digest.update(message);
+            assertEquals(length, digest.digest(actual, 0, length));
+            assertArrayEquals(Arrays.copyOf(expected, length), Arrays.copyOf(actual, length));
+            assertEquals(0, actual[length]);
+        }
+        assertArrayEquals(expected, digest.digest(message));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnsupportedAlgorithm() {
+        newChecksumDigest("SHA-1");
+    }
+
+}
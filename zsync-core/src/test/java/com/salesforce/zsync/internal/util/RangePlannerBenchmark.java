@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.http.RangeCostModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.salesforce.zsync.internal.util.HttpClient.MAXIMUM_RANGES_PER_HTTP_REQUEST;
+import static com.salesforce.zsync.internal.util.RangePlanner.bytes;
+import static com.salesforce.zsync.internal.util.RangePlanner.plan;
+import static com.salesforce.zsync.internal.util.RangePlanner.requests;
+
+/**
+ * Prints the ranges, requests and bytes fetched for the missing blocks of a 1GB target file with different patterns of
+ * changes before and after planning with the default cost model. Not run as part of the tests, run the main method to
+ * compare.
+ */
+public class RangePlannerBenchmark {
+
+    private static final long LENGTH = 1024L * 1024 * 1024;
+    private static final int BLOCK_SIZE = 2048;
+
+    public static void main(String[] args) {
+        final RangeCostModel model = args.length == 3 ?
+                new RangeCostModel(Long.parseLong(args[0]), Long.parseLong(args[1]), Long.parseLong(args[2])) :
+                RangeCostModel.DEFAULT;
+        System.out.println(model);
+        System.out.println(String.format("%-36s %10s %8s %14s %14s", "changes", "ranges", "requests", "bytes",
+                "cost"));
+        final Random random = new Random(0);
+        run("scattered 0.1%", scattered(random, 0.001), model);
+        run("scattered 1%", scattered(random, 0.01), model);
+        run("scattered 5%", scattered(random, 0.05), model);
+        run("clustered 100 x 64 blocks", clustered(random, 100, 64), model);
+        run("clustered 10000 x 4 blocks", clustered(random, 10000, 4), model);
+    }
+
+    private static void run(String name, List<ContentRange> ranges, RangeCostModel model) {
+        print(name + " (before)", ranges, model);
+        final long start = System.nanoTime();
+        final List<ContentRange> planned = plan(ranges, model, MAXIMUM_RANGES_PER_HTTP_REQUEST);
+        final long micros = (System.nanoTime() - start) / 1000;
+        print(name + " (after)", planned, model);
+        System.out.println("  planned in " + micros + "us");
+    }
+
+    private static void print(String name, List<ContentRange> ranges, RangeCostModel model) {
+        final long requests = requests(ranges.size(), MAXIMUM_RANGES_PER_HTTP_REQUEST);
+        final long bytes = bytes(ranges);
+        System.out.println(String.format("%-36s %10d %8d %14d %14d", name, ranges.size(), requests, bytes,
+                model.cost(bytes, ranges.size(), requests)));
+    }
+
+    private static List<ContentRange> scattered(Random random, double probability) {
+        final int numBlocks = (int) (LENGTH / BLOCK_SIZE);
+        final boolean[] missing = new boolean[numBlocks];
+        for (int i = 0; i < numBlocks; i++) {
+            missing[i] = random.nextDouble() < probability;
+        }
+        return ranges(missing);
+    }
+
+    private static List<ContentRange> clustered(Random random, int clusters, int blocksPerCluster) {
+        final int numBlocks = (int) (LENGTH / BLOCK_SIZE);
+        final boolean[] missing = new boolean[numBlocks];
+        for (int i = 0; i < clusters; i++) {
+            final int start = random.nextInt(numBlocks - blocksPerCluster);
+            for (int j = 0; j < blocksPerCluster; j++) {
+                missing[start + j] = true;
+            }
+        }
+        return ranges(missing);
+    }
+
+    // same as OutputFileWriter#getMissingRanges
+    private static List<ContentRange> ranges(boolean[] missing) {
+        final List<ContentRange> ranges = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= missing.length; i++) {
+            if (i < missing.length && missing[i]) {
+                if (start == -1) {
+                    start = i;
+                }
+            } else if (start != -1) {
+                ranges.add(new ContentRange((long) start * BLOCK_SIZE, (long) i * BLOCK_SIZE - 1));
+                start = -1;
+            }
+        }
+        return ranges;
+    }
+
+}
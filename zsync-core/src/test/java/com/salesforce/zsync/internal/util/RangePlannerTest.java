@@ -0,0 +1,113 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import com.google.common.collect.ImmutableList;
+import com.salesforce.zsync.http.ContentRange;
+import com.salesforce.zsync.http.RangeCostModel;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.salesforce.zsync.internal.util.RangePlanner.bytes;
+import static com.salesforce.zsync.internal.util.RangePlanner.plan;
+import static com.salesforce.zsync.internal.util.RangePlanner.requests;
+import static org.junit.Assert.*;
+
+public class RangePlannerTest {
+
+    @Test
+    public void testRequests() {
+        assertEquals(0, requests(0, 100));
+        assertEquals(1, requests(1, 100));
+        assertEquals(1, requests(100, 100));
+        assertEquals(2, requests(101, 100));
+    }
+
+    @Test
+    public void testPlanSingleRange() {
+        final List<ContentRange> ranges = ImmutableList.of(new ContentRange(0, 9));
+        assertSame(ranges, plan(ranges, RangeCostModel.DEFAULT, 100));
+    }
+
+    /**
+     * Asserts that gaps smaller than the range overhead are merged and larger ones are not if there is only one request
+     */
+    @Test
+    public void testPlanMergesSmallGaps() {
+        final RangeCostModel model = new RangeCostModel(100, 0, 1);
+        final List<ContentRange> ranges = ImmutableList.of(new ContentRange(0, 9), new ContentRange(60, 69),
+                new ContentRange(1000, 1009), new ContentRange(1100, 1109));
+        assertEquals(ImmutableList.of(new ContentRange(0, 69), new ContentRange(1000, 1109)), plan(ranges, model, 100));
+    }
+
+    @Test
+    public void testPlanNoOverhead() {
+        final RangeCostModel model = new RangeCostModel(0, 0, 1);
+        final List<ContentRange> ranges = ImmutableList.of(new ContentRange(0, 9), new ContentRange(11, 19));
+        assertEquals(ranges, plan(ranges, model, 100));
+    }
+
+    /**
+     * Asserts that large gaps are merged if that saves a request and the request overhead exceeds the gap bytes
+     */
+    @Test
+    public void testPlanSavesRequest() {
+        final RangeCostModel model = new RangeCostModel(0, 1000, 1000);
+        final List<ContentRange> ranges = new ArrayList<>();
+        for (int i = 0; i < 11; i++) {
+            ranges.add(new ContentRange(i * 1000, i * 1000 + 9));
+        }
+        // 11 ranges take 2 requests of up to 10 ranges, merging one gap of 990 bytes is cheaper than one more request
+        final List<ContentRange> planned = plan(ranges, model, 10);
+        assertEquals(10, planned.size());
+        assertEquals(new ContentRange(0, 1009), planned.get(0));
+        assertEquals(bytes(ranges) + 990, bytes(planned));
+    }
+
+    /**
+     * Asserts that of several equal gaps only as many are merged as needed, in order
+     */
+    @Test
+    public void testPlanEqualGaps() {
+        final RangeCostModel model = new RangeCostModel(0, 1000, 1000);
+        final List<ContentRange> ranges = ImmutableList.of(new ContentRange(0, 9), new ContentRange(20, 29),
+                new ContentRange(40, 49));
+        assertEquals(ImmutableList.of(new ContentRange(0, 29), new ContentRange(40, 49)), plan(ranges, model, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPlanOverlapping() {
+        plan(ImmutableList.of(new ContentRange(0, 9), new ContentRange(5, 19)), RangeCostModel.DEFAULT, 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPlanInvalidMaxRanges() {
+        plan(ImmutableList.of(new ContentRange(0, 9)), RangeCostModel.DEFAULT, 0);
+    }
+
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (c) 2015, Salesforce.com, Inc. All rights reserved.
+ * <p>
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * <p>
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer.
+ * <p>
+ * Redistributions in binary form must reproduce the above copyright notice, this list of conditions
+ * and the following disclaimer in the documentation and/or other materials provided with the
+ * distribution.
+ * <p>
+ * Neither the name of Salesforce.com nor the names of its contributors may be used to endorse or
+ * promote products derived from this software without specific prior written permission.
+ * <p>
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND ANY EXPRESS OR
+ * IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY
+ * WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.salesforce.zsync.internal.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static java.nio.channels.Channels.newChannel;
+
+/**
+ * Compares the throughput of computing rolling checksums of 2KB blocks byte by byte as before, in bulk from a byte array
+ * as done by ZsyncMake, and in bulk from a heap and a direct buffer window as done by the block matchers. Not run as part
+ * of the tests, run the main method to compare.
+ */
+public class RsumBenchmark {
+
+    private static final int BLOCK_SIZE = 2048;
+    private static final int SIZE = 64 * 1024 * 1024;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        final byte[] bytes = new byte[SIZE];
+        new Random(0).nextBytes(bytes);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(SIZE);
+        direct.put(bytes).clear();
+        final RollingBuffer window = new RollingBuffer(newChannel(new ByteArrayInputStream(bytes)), BLOCK_SIZE, SIZE);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            int sum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                sum += byteByByte(bytes, off, BLOCK_SIZE);
+            }
+            final long byteByByte = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int windowSum = 0;
+            for (int i = 0; i < SIZE / BLOCK_SIZE; i++) {
+                windowSum += byteByByte(window);
+            }
+            final long byteByByteWindow = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int bulkSum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                bulkSum += ZsyncUtil.computeRsum(bytes, off, BLOCK_SIZE);
+            }
+            final long bulk = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int bulkWindowSum = 0;
+            for (int i = 0; i < SIZE / BLOCK_SIZE; i++) {
+                bulkWindowSum += window.rsum(0, BLOCK_SIZE);
+            }
+            final long bulkWindow = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            int bulkDirectSum = 0;
+            for (int off = 0; off < SIZE; off += BLOCK_SIZE) {
+                bulkDirectSum += ZsyncUtil.computeRsum(direct, off, BLOCK_SIZE);
+            }
+            final long bulkDirect = System.nanoTime() - start;
+
+            if (sum != bulkSum || sum != bulkDirectSum || windowSum != bulkWindowSum) {
+                throw new AssertionError("Checksums differ");
+            }
+            System.out.println(String.format(
+                    "round %d: byte by byte %6d MB/s (window %6d MB/s), bulk %6d MB/s (window %6d MB/s, direct %6d MB/s)",
+                    round, mbPerSecond(byteByByte), mbPerSecond(byteByByteWindow), mbPerSecond(bulk),
+                    mbPerSecond(bulkWindow), mbPerSecond(bulkDirect)));
+        }
+    }
+
+    private static long mbPerSecond(long nanos) {
+        return SIZE * 1000L / nanos;
+    }
+
+    // the implementation of ZsyncUtil#computeRsum before bulk computation
+    private static int byteByByte(byte[] block, int offset, int length) {
+        short a = 0;
+        short b = 0;
+        for (int i = 0, l = length; i < length; i++, l--) {
+            final short val = ZsyncUtil.unsigned(block[offset + i]);
+            a += val;
+            b += l * val;
+        }
+        return ZsyncUtil.toInt(a, b);
+    }
+
+    // the implementation of Rsum#init before bulk computation
+    private static int byteByByte(ReadableByteBuffer buffer) {
+        short a = 0;
+        short b = 0;
+        for (int i = 0, l = buffer.length(); i < buffer.length(); i++, l--) {
+            final short val = ZsyncUtil.unsigned(buffer.get(i));
+            a += val;
+            b += l * val;
+        }
+        return ZsyncUtil.toInt(a, b);
+    }
+
+}
@@ -35,6 +35,8 @@ import java.nio.channels.Channels;
 import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
@@ -71,6 +73,47 @@ public class ZsyncUtilTest {
         assertEquals((short) 1, ZsyncUtil.unsigned((byte) 1));
     }
 
+    /**
+     * Asserts that the bulk rolling checksum equals the checksum accumulated byte by byte in shorts for all lengths up to
+     * a few unrolled iterations, at unaligned offsets, and in heap and direct buffers
+     */
+    @Test
+    public void testComputeRsum() {
+        final byte[] bytes = new byte[100];
+        new Random(1).nextBytes(bytes);
+        final ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes);
+        for (int offset = 0; offset < 3; offset++) {
+            for (int length = 0; offset + length <= bytes.length; length++) {
+                final int expected = computeRsumByteByByte(bytes, offset, length);
+                assertEquals(expected, ZsyncUtil.computeRsum(bytes, offset, length));
+                assertEquals(expected, ZsyncUtil.computeRsum(ByteBuffer.wrap(bytes), offset, length));
+                assertEquals(expected, ZsyncUtil.computeRsum(direct, offset, length));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the sums wrap around like shorts for blocks large enough to overflow them
+     */
+    @Test
+    public void testComputeRsumOverflow() {
+        final byte[] bytes = new byte[64 * 1024 + 3];
+        Arrays.fill(bytes, (byte) -1);
+        assertEquals(computeRsumByteByByte(bytes, 0, bytes.length), ZsyncUtil.computeRsum(bytes));
+    }
+
+    private static int computeRsumByteByByte(byte[] bytes, int offset, int length) {
+        short a = 0;
+        short b = 0;
+        for (int i = 0, l = length; i < length; i++, l--) {
+            final short val = ZsyncUtil.unsigned(bytes[offset + i]);
+            a += val;
+            b += l * val;
+        }
+        return ZsyncUtil.toInt(a, b);
+    }
+
     @Test
     public void testComputeSha1() throws IOException {
         final byte[] buf = new byte[]{0, 1, 2, 3, 4, 5, 6, 7};